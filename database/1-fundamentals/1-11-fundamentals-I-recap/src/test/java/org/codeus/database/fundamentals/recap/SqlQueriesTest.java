@@ -5,6 +5,7 @@ import org.codeus.database.fundamentals.recap.setup.ExternalPostgreSqlSetupHelpe
 import org.codeus.database.fundamentals.recap.setup.ProblemSolutionAnalyser;
 import org.codeus.database.fundamentals.recap.setup.ProblemSolutionAnalyser.Report;
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.parallel.Isolated;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -20,6 +21,7 @@ import java.util.stream.Collectors;
 import static org.junit.jupiter.api.Assertions.*;
 
 @TestClassOrder(ClassOrderer.OrderAnnotation.class)
+@Isolated("Block 1 runs concurrent transactions")
 public class SqlQueriesTest {
 
   @Nested
@@ -32,8 +34,7 @@ public class SqlQueriesTest {
     private static final String TEST_DATA_FILE = "queries/block_1/block_setup/test-data.sql";
 
     /**
-     * Controls how much time one transaction waits for another to finish its work.
-     * Increase value if you're facing unusual exceptions
+     * Controls how long a transaction blocked on a lock is held before the other transaction continues.
      * @return number of millis
      */
     protected int getThreadMaxSleepMillis() {
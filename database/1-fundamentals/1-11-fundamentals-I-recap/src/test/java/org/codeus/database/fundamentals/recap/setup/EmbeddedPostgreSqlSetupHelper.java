@@ -1,9 +1,14 @@
 package org.codeus.database.fundamentals.recap.setup;
 
 import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
-import org.junit.jupiter.api.AfterAll;
-import org.junit.jupiter.api.BeforeAll;
+import org.codeus.database.common.InterleavingScheduler;
+import org.codeus.database.common.IsolatedDatabase;
+import org.codeus.database.common.QueryResult;
+import org.codeus.database.common.SharedEmbeddedPostgresExtension;
+import org.codeus.database.common.TableRenderer;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.extension.ExtendWith;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -11,24 +16,25 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.*;
 import java.util.*;
-import java.util.concurrent.*;
+import java.util.concurrent.ExecutionException;
 
+@ExtendWith(SharedEmbeddedPostgresExtension.class)
 public class EmbeddedPostgreSqlSetupHelper {
 
-  //Increase this value if tests failing as the result of transactions are out of sync.
+  //How long a transaction blocked on a lock is held before the other transaction continues.
   protected static final int THREAD_MAX_SLEEP_MILLIS = 1800;
   protected static final String PROBLEM_1_DIR = "queries/block_1/problem_1/";
   protected static final String PROBLEM_2_DIR = "queries/block_1/problem_2/";
   protected static final String PROBLEM_3_DIR = "queries/block_1/problem_3/";
 
-
-
   private static final String SETUP_DIR = "setup/";
   private static final String SETUP_ENDING = "-setup";
   private static final String SOLUTION_MARKER = "--SOLUTION";
 
-  protected static EmbeddedPostgres postgres;
-  protected static Connection connection;
+  // Instance state: every test gets its own connection, so test classes can run in parallel
+  protected EmbeddedPostgres postgres;
+  protected IsolatedDatabase database;
+  protected Connection connection;
 
   protected int getThreadMaxSleepMillis() {
     return THREAD_MAX_SLEEP_MILLIS;
@@ -44,38 +50,13 @@ public class EmbeddedPostgreSqlSetupHelper {
     return Optional.empty();
   }
 
-  @BeforeAll
-  static void startDatabase() throws IOException {
-    System.out.println("Starting embedded PostgreSQL...");
-    postgres = EmbeddedPostgres.start();
-    try {
-      connection = postgres.getPostgresDatabase().getConnection();
-      connection.setAutoCommit(false);
-      System.out.println("PostgreSQL started successfully");
-    } catch (SQLException e) {
-      throw new RuntimeException("Failed to get database connection", e);
-    }
-  }
-
-  @AfterAll
-  static void stopDatabase() throws IOException {
-    System.out.println("Stopping embedded PostgreSQL...");
-    if (connection != null) {
-      try {
-        connection.close();
-      } catch (SQLException e) {
-        System.err.println("Error closing connection: " + e.getMessage());
-      }
-    }
-
-    if (postgres != null) {
-      postgres.close();
-      System.out.println("PostgreSQL stopped successfully");
-    }
-  }
-
   @BeforeEach
-  void setupSchema() throws SQLException, IOException {
+  void setupSchema(IsolatedDatabase isolatedDatabase) throws SQLException, IOException {
+    database = isolatedDatabase;
+    postgres = isolatedDatabase.getServer();
+    connection = isolatedDatabase.getConnection();
+    System.out.println("Connected to " + isolatedDatabase);
+
     System.out.println("Setting up database schema and test data...");
     // Start a transaction that will be rolled back after each test
     connection.setAutoCommit(false);
@@ -84,18 +65,30 @@ public class EmbeddedPostgreSqlSetupHelper {
     clearDatabase();
 
     // Initialize database schema
-    getSchemaSetupFile().ifPresent(EmbeddedPostgreSqlSetupHelper::executeSqlFileRuntime);
+    getSchemaSetupFile().ifPresent(this::executeSqlFileRuntime);
 
     // Load test data
-    getTestDataSetupFile().ifPresent(EmbeddedPostgreSqlSetupHelper::executeSqlFileRuntime);
+    getTestDataSetupFile().ifPresent(this::executeSqlFileRuntime);
 
     // Load functions
-    getFunctionSetupFile().ifPresent(EmbeddedPostgreSqlSetupHelper::executeSqlFileRuntime);
+    getFunctionSetupFile().ifPresent(this::executeSqlFileRuntime);
 
     connection.commit();
     System.out.println("Setup complete");
   }
 
+  @AfterEach
+  void closeConnection() {
+    if (connection != null) {
+      try {
+        connection.close();
+      } catch (SQLException e) {
+        System.err.println("Error closing connection: " + e.getMessage());
+      }
+    }
+    // The database and the server are cleaned up by SharedEmbeddedPostgresExtension
+  }
+
   protected static String getResourcePath(String resourceName) {
     // In a real application, you would use a resource loader
     // Here we're simplifying by using a relative path
@@ -133,104 +126,15 @@ public class EmbeddedPostgreSqlSetupHelper {
       return mergeSolutionWithSetup(setup, solution);
   }
 
+  /**
+   * Runs the first transaction up to {@code --WAIT_HERE}, then the second transaction, then the rest of the first.
+   * Each part starts as soon as the previous one completes or blocks on a lock,
+   * a blocked transaction is held for {@link #getThreadMaxSleepMillis()}.
+   */
   protected void executeConcurrently(String firstTransactionSql, String secondTransactionSql)
     throws InterruptedException, SQLException, ExecutionException {
-    System.out.println("Starting concurrent transactions");
-
-    CountDownLatch firstTransactionStarted = new CountDownLatch(1);
-    CountDownLatch secondTransactionFinished = new CountDownLatch(1);
-
-    ExecutorService executor = Executors.newFixedThreadPool(2);
-
-    Future<?> firstTask = executor.submit(() -> {
-      System.out.println("First transaction: starting");
-      try {
-        try (Connection conn = postgres.getPostgresDatabase().getConnection()) {
-          String[] parts = firstTransactionSql.split("--WAIT_HERE");
-
-          System.out.println("First transaction: executing SQL");
-          try (Statement stmt = conn.createStatement()) {
-            stmt.execute(parts[0]);
-          }
-          System.out.println("First transaction: SQL executed, signaling start");
-          firstTransactionStarted.countDown();
-
-          System.out.println("First transaction: sleeping to allow second transaction to execute");
-          Thread.sleep(THREAD_MAX_SLEEP_MILLIS);
-
-          System.out.println("First transaction: awake, executing one more read");
-          try (Statement stmt = conn.createStatement()) {
-            stmt.execute(parts[1]);
-          }
-
-          System.out.println("First transaction: waiting for second transaction to finish");
-          boolean finished = secondTransactionFinished.await(30, TimeUnit.SECONDS);
-          if (!finished) {
-            System.out.println("First transaction: timeout waiting for second transaction to finish");
-          } else {
-            System.out.println("First transaction: second transaction finished, committing");
-          }
-        } finally {
-          System.out.println("First transaction: closing connection");
-        }
-      } catch (Exception cause) {
-        System.out.println("Exception in first transaction");
-        throw new RuntimeException("Exception in first transaction", cause);
-      }
-    });
-
-    Future<?> secondTask = executor.submit(() -> {
-      System.out.println("Second transaction: waiting for first transaction to start");
-      try {
-        boolean started = firstTransactionStarted.await(30, TimeUnit.SECONDS);
-        if (!started) {
-          System.out.println("Second transaction: timeout waiting for first transaction to start");
-          return;
-        }
-
-        System.out.println("Second transaction: first transaction started, executing SQL");
-        try (Connection conn = postgres.getPostgresDatabase().getConnection()) {
-          System.out.println("Second transaction: executing SQL");
-          try (Statement stmt = conn.createStatement()) {
-            stmt.execute(secondTransactionSql);
-          }
-          System.out.println("Second transaction: SQL executed, committing");
-        } finally {
-          System.out.println("Second transaction: closing connection");
-          System.out.println("Second transaction: signaling completion");
-          secondTransactionFinished.countDown();
-        }
-      } catch (Exception e) {
-        System.out.println("Exception in second transaction");
-        secondTransactionFinished.countDown();
-        throw new RuntimeException("Exception in second transaction", e);
-      }
-    });
-
-
-    try {
-      System.out.println("Waiting for both transactions to complete");
-      firstTask.get(60, TimeUnit.SECONDS);
-      secondTask.get(60, TimeUnit.SECONDS);
-      System.out.println("Both transactions completed successfully");
-    } catch (ExecutionException e) {
-      System.out.println("Exception during transaction execution");
-      throw new SQLException("Exception during transaction execution", e.getCause());
-    } catch (TimeoutException e) {
-      System.out.println("Timeout during transaction execution");
-      throw new SQLException("Timeout during transaction execution", e);
-    } finally {
-      executor.shutdown();
-      try {
-        if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
-          System.out.println("Thread pull not terminated, forcing shutdown");
-          executor.shutdownNow();
-        }
-      } catch (InterruptedException e) {
-        System.out.println("Terminating thread pool interrupted, forcing shutdown");
-        executor.shutdownNow();
-      }
-    }
+    InterleavingScheduler.executeConcurrently(database.getPool(), firstTransactionSql, secondTransactionSql,
+      getThreadMaxSleepMillis());
   }
 
   public static Throwable getRootCause(Exception throwable) {
@@ -263,70 +167,20 @@ public class EmbeddedPostgreSqlSetupHelper {
   protected List<Map<String, Object>> executeQuery(String sql) throws SQLException {
     System.out.println("Checking the results of the solution");
 
-    List<Map<String, Object>> results = new ArrayList<>();
-
+    QueryResult results;
     try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(sql)) {
-      ResultSetMetaData metaData = resultSet.getMetaData();
-      int columnCount = metaData.getColumnCount();
-
-      List<String> columnNames = new ArrayList<>();
-      int[] columnWidths = new int[columnCount];
-
-      for (int i = 1; i <= columnCount; i++) {
-        String name = metaData.getColumnLabel(i);
-        columnNames.add(name);
-        columnWidths[i - 1] = name.length();
-      }
-
-      while (resultSet.next()) {
-        Map<String, Object> row = new HashMap<>();
-
-        for (int i = 1; i <= columnCount; i++) {
-          String columnName = columnNames.get(i - 1);
-          Object value = resultSet.getObject(i);
-          String valueStr = value == null ? "NULL" : value.toString();
-          columnWidths[i - 1] = Math.max(columnWidths[i - 1], valueStr.length());
-          row.put(columnName, value);
-        }
-
-        results.add(row);
-      }
-
-      printRow(columnNames, columnWidths);
-      printSeparator(columnWidths);
-
-      for (Map<String, Object> row : results) {
-        List<String> values = new ArrayList<>();
-        for (String col : columnNames) {
-          Object value = row.get(col);
-          values.add(value == null ? "NULL" : value.toString());
-        }
-        printRow(values, columnWidths);
-      }
-
-      System.out.println("\n-------------------------------------------------------\n");
+      results = QueryResult.read(resultSet);
     }
 
-    return results;
-  }
-
-  private void printRow(List<String> values, int[] widths) {
-    StringBuilder sb = new StringBuilder("|");
-    for (int i = 0; i < values.size(); i++) {
-      sb.append(" ").append(String.format("%-" + widths[i] + "s", values.get(i))).append(" |");
-    }
-    System.out.println(sb);
-  }
-
-  private void printSeparator(int[] widths) {
-    StringBuilder sb = new StringBuilder("|");
-    for (int width : widths) {
-      sb.append("-".repeat(width + 2)).append("|");
+    if (TableRenderer.isEnabled()) {
+      StringBuilder out = new StringBuilder();
+      TableRenderer.fromSystemProperties().appendTo(out, results);
+      System.out.print(out.append("\n-------------------------------------------------------\n\n"));
     }
-    System.out.println(sb);
+    return results.asMaps();
   }
 
-  private static void executeSqlFile(String fileName) throws IOException, SQLException {
+  private void executeSqlFile(String fileName) throws IOException, SQLException {
     Path path = Paths.get(getResourcePath(fileName));
     if (path.toFile().exists()) {
       String sql = Files.readString(path).trim();
@@ -336,7 +190,7 @@ public class EmbeddedPostgreSqlSetupHelper {
     }
   }
 
-  private static void executeSqlFileRuntime(String fileName) {
+  private void executeSqlFileRuntime(String fileName) {
     try {
       executeSqlFile(fileName);
     } catch (IOException | SQLException e) {
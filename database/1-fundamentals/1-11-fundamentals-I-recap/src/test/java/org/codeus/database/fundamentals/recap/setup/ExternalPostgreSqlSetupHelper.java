@@ -1,13 +1,13 @@
 package org.codeus.database.fundamentals.recap.setup;
 
+import org.codeus.database.common.SqlScriptExecutor;
+import org.codeus.database.common.TableRenderer;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.postgresql.ds.PGSimpleDataSource;
 import org.postgresql.ds.common.BaseDataSource;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.*;
 import java.util.*;
@@ -57,28 +57,9 @@ public class ExternalPostgreSqlSetupHelper extends MetadataHolder {
     executeSqlFile(fileFullPath);
   }
 
-  private String filterOutCommentedLines(String sql) {
-    StringBuilder builder = new StringBuilder();
-    String commentOperator = "--";
-    for (String line: sql.split("\n")) {
-      if (!line.trim().startsWith(commentOperator)) {
-        builder.append(line);
-      }
-    }
-    return builder.toString();
-  }
-
   private void executeSqlFile(String filePath) throws IOException, SQLException {
-    Path path = Paths.get(filePath);
-    String sql = Files.readString(path);
-    sql = filterOutCommentedLines(sql);
-    try (Statement statement = connection.createStatement()) {
-      // Execute each statement separately
-      for (String query : sql.split(";")) {
-        if (!query.trim().isEmpty()) {
-          statement.execute(query);
-        }
-      }
+    try {
+      new SqlScriptExecutor().execute(connection, Paths.get(filePath)).print();
     } catch (SQLException e) {
       connection.rollback();
     }
@@ -115,86 +96,22 @@ public class ExternalPostgreSqlSetupHelper extends MetadataHolder {
     printQueryResults(results);
   }
 
-  //TODO: align methods below with the EmbeddedPostgreSqlSetup.java to reduce duplication
   /**
    * Prints query results in a formatted table.
    */
   protected void printQueryResults(List<Map<String, Object>> results) {
+    if (!TableRenderer.isEnabled()) {
+      return;
+    }
     if (results.isEmpty()) {
       System.out.println("No results found.");
       return;
     }
 
-    // Extract column names from the first row
-    List<String> columnNames = new ArrayList<>(results.get(0).keySet());
-
-    // Calculate column widths
-    int[] columnWidths = calculateColumnWidths(results, columnNames);
-
-    // Print the message header
-    int borderLength = 120;
-    System.out.println("-".repeat(borderLength));
-    System.out.println("QUERY RESULT");
-    System.out.println("-".repeat(borderLength));
-
-    // Print the table header
-    printRow(columnNames, columnWidths);
-    printSeparator(columnWidths);
-
-    // Print each row of results
-    for (Map<String, Object> row : results) {
-      List<String> values = new ArrayList<>();
-      for (String col : columnNames) {
-        Object value = row.get(col);
-        values.add(value == null ? "NULL" : value.toString());
-      }
-      printRow(values, columnWidths);
-    }
-
-    System.out.println("-".repeat(borderLength));
-  }
-
-  /**
-   * Calculates the width needed for each column based on data and headers.
-   */
-  private int[] calculateColumnWidths(List<Map<String, Object>> results, List<String> columnNames) {
-    int[] columnWidths = new int[columnNames.size()];
-
-    // Initialize with header widths
-    for (int i = 0; i < columnNames.size(); i++) {
-      columnWidths[i] = columnNames.get(i).length();
-    }
-
-    // Update with data widths
-    for (Map<String, Object> row : results) {
-      for (int i = 0; i < columnNames.size(); i++) {
-        String columnName = columnNames.get(i);
-        Object value = row.get(columnName);
-        String valueStr = value == null ? "NULL" : value.toString();
-        columnWidths[i] = Math.max(columnWidths[i], getLargestSubstringWidth(valueStr));
-      }
-    }
-
-    return columnWidths;
-  }
-
-  private int getLargestSubstringWidth(String string) {
-    return Arrays.stream(string.split("\n")).map(String::length).max(Comparator.naturalOrder()).orElse(0);
-  }
-
-  private void printRow(List<String> values, int[] widths) {
-    StringBuilder sb = new StringBuilder("|");
-    for (int i = 0; i < values.size(); i++) {
-      sb.append(" ").append(String.format("%-" + widths[i] + "s", values.get(i))).append(" |");
-    }
-    System.out.println(sb);
-  }
-
-  private void printSeparator(int[] widths) {
-    StringBuilder sb = new StringBuilder("|");
-    for (int width : widths) {
-      sb.append("-".repeat(width + 2)).append("|");
-    }
-    System.out.println(sb);
+    // Print the message header and the table in one go
+    String border = "-".repeat(120) + System.lineSeparator();
+    StringBuilder out = new StringBuilder(border).append("QUERY RESULT").append(System.lineSeparator()).append(border);
+    TableRenderer.fromSystemProperties().appendTo(out, results);
+    System.out.print(out.append(border));
   }
 }
@@ -1,12 +1,16 @@
 package org.codeus.database.fundamentals.joins_and_subqueries;
 
-import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.codeus.database.common.IsolatedDatabase;
+import org.codeus.database.common.QueryResult;
+import org.codeus.database.common.SharedEmbeddedPostgresExtension;
+import org.codeus.database.common.TableRenderer;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.MethodOrderer;
 import org.junit.jupiter.api.Order;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.extension.ExtendWith;
 
 import java.io.IOException;
 import java.math.BigDecimal;
@@ -14,11 +18,9 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -29,8 +31,8 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@ExtendWith(SharedEmbeddedPostgresExtension.class)
 public class BankingQueriesTest {
-    private static EmbeddedPostgres postgres;
     private static Connection connection;
 
     // File paths
@@ -75,9 +77,8 @@ public class BankingQueriesTest {
 
 
     @BeforeAll
-    static void startDatabase() throws IOException, SQLException {
-        postgres = EmbeddedPostgres.start();
-        connection = postgres.getPostgresDatabase().getConnection();
+    static void startDatabase(IsolatedDatabase database) throws IOException, SQLException {
+        connection = database.getConnection();
         executeSqlFile(INIT_DB_FILE);
         executeSqlFile(TEST_DATA_FILE);
     }
@@ -598,67 +599,17 @@ public class BankingQueriesTest {
 
         System.out.printf("Executing query:%n%s%n%n", sql);
 
-        List<Map<String, Object>> results = new ArrayList<>();
-
+        QueryResult results;
         try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(sql)) {
-            ResultSetMetaData metaData = resultSet.getMetaData();
-            int columnCount = metaData.getColumnCount();
-
-            List<String> columnNames = new ArrayList<>();
-            int[] columnWidths = new int[columnCount];
-
-            for (int i = 1; i <= columnCount; i++) {
-                String name = metaData.getColumnLabel(i);
-                columnNames.add(name);
-                columnWidths[i - 1] = name.length();
-            }
-
-            while (resultSet.next()) {
-                Map<String, Object> row = new HashMap<>();
-
-                for (int i = 1; i <= columnCount; i++) {
-                    String columnName = columnNames.get(i - 1);
-                    Object value = resultSet.getObject(i);
-                    String valueStr = value == null ? "NULL" : value.toString();
-                    columnWidths[i - 1] = Math.max(columnWidths[i - 1], valueStr.length());
-                    row.put(columnName, value);
-                }
-
-                results.add(row);
-            }
-
-            printRow(columnNames, columnWidths);
-            printSeparator(columnWidths);
-
-            for (Map<String, Object> row : results) {
-                List<String> values = new ArrayList<>();
-                for (String col : columnNames) {
-                    Object value = row.get(col);
-                    values.add(value == null ? "NULL" : value.toString());
-                }
-                printRow(values, columnWidths);
-            }
-
-            System.out.println("\n-------------------------------------------------------\n");
+            results = QueryResult.read(resultSet);
         }
 
-        return results;
-    }
-
-    private void printRow(List<String> values, int[] widths) {
-        StringBuilder sb = new StringBuilder("|");
-        for (int i = 0; i < values.size(); i++) {
-            sb.append(" ").append(String.format("%-" + widths[i] + "s", values.get(i))).append(" |");
+        if (TableRenderer.isEnabled()) {
+            StringBuilder out = new StringBuilder();
+            TableRenderer.fromSystemProperties().appendTo(out, results);
+            System.out.print(out.append("\n-------------------------------------------------------\n\n"));
         }
-        System.out.println(sb);
-    }
-
-    private void printSeparator(int[] widths) {
-        StringBuilder sb = new StringBuilder("|");
-        for (int width : widths) {
-            sb.append("-".repeat(width + 2)).append("|");
-        }
-        System.out.println(sb);
+        return results.asMaps();
     }
 
     private static void executeSqlFile(String fileName) throws IOException, SQLException {
@@ -669,12 +620,9 @@ public class BankingQueriesTest {
     }
 
     @AfterAll
-    static void stopDatabase() throws IOException, SQLException {
+    static void stopDatabase() throws SQLException {
         if (connection != null) {
             connection.close();
         }
-        if (postgres != null) {
-            postgres.close();
-        }
     }
 }
\ No newline at end of file
@@ -3,41 +3,43 @@ package org.codeus.database.fundamentals.data_modification.config;
 import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import org.junit.jupiter.api.AfterAll;
-import org.junit.jupiter.api.BeforeAll;
-
+import org.codeus.database.common.IsolatedDatabase;
+import org.codeus.database.common.QueryResult;
+import org.codeus.database.common.SharedEmbeddedPostgresExtension;
+import org.codeus.database.common.SqlScriptExecutor;
+import org.codeus.database.common.TableRenderer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+@ExtendWith(SharedEmbeddedPostgresExtension.class)
 public abstract class EmbeddedPostgreSqlModificationSetup {
 
-    protected static EmbeddedPostgres postgres;
-    protected static Connection connection;
+    // Instance state: every test gets its own connection, so test classes can run in parallel
+    protected EmbeddedPostgres postgres;
+    protected Connection connection;
 
-    @BeforeAll
-    protected static void startDatabase() throws IOException {
-        System.out.println("Starting embedded PostgreSQL...");
-        postgres = EmbeddedPostgres.start();
+    @BeforeEach
+    protected void openConnection(IsolatedDatabase database) {
+        postgres = database.getServer();
         try {
-            connection = postgres.getPostgresDatabase().getConnection();
+            connection = database.getConnection();
             connection.setAutoCommit(false); // For transaction control
-            System.out.println("PostgreSQL started successfully");
+            System.out.println("Connected to " + database);
         } catch (SQLException e) {
             throw new RuntimeException("Failed to get database connection", e);
         }
     }
 
-    @AfterAll
-    protected static void stopDatabase() throws IOException {
-        System.out.println("Stopping embedded PostgreSQL...");
+    @AfterEach
+    protected void closeConnection() {
         if (connection != null) {
             try {
                 connection.close();
@@ -45,11 +47,7 @@ public abstract class EmbeddedPostgreSqlModificationSetup {
                 System.err.println("Error closing connection: " + e.getMessage());
             }
         }
-
-        if (postgres != null) {
-            postgres.close();
-            System.out.println("PostgreSQL stopped successfully");
-        }
+        // The database and the server are cleaned up by SharedEmbeddedPostgresExtension
     }
 
     protected abstract void setupSchema(String schemaFileName, String dataFileName) throws SQLException, IOException;
@@ -61,17 +59,7 @@ public abstract class EmbeddedPostgreSqlModificationSetup {
     }
 
     protected void executeSqlFile(String filePath) throws IOException, SQLException {
-        Path path = Paths.get(filePath);
-        String sql = Files.readString(path);
-
-        try (Statement statement = connection.createStatement()) {
-            // Execute each statement separately
-            for (String query : sql.split(";")) {
-                if (!query.trim().isEmpty()) {
-                    statement.execute(query);
-                }
-            }
-        }
+        new SqlScriptExecutor().execute(connection, Paths.get(filePath)).print();
     }
 
     protected String getResourcePath(String resourceName) {
@@ -98,28 +86,10 @@ public abstract class EmbeddedPostgreSqlModificationSetup {
      * Executes an SQL query and returns the results as a list of maps.
      */
     protected List<Map<String, Object>> executeQuery(String sql) throws SQLException {
-        List<Map<String, Object>> results = new ArrayList<>();
-
         try (Statement statement = connection.createStatement();
             ResultSet resultSet = statement.executeQuery(sql)) {
-            ResultSetMetaData metaData = resultSet.getMetaData();
-            int columnCount = metaData.getColumnCount();
-
-            List<String> columnNames = new ArrayList<>();
-            for (int i = 1; i <= columnCount; i++) {
-                columnNames.add(metaData.getColumnLabel(i));
-            }
-
-            while (resultSet.next()) {
-                Map<String, Object> row = new LinkedHashMap<>();
-                for (int i = 1; i <= columnCount; i++) {
-                    row.put(columnNames.get(i - 1), resultSet.getObject(i));
-                }
-                results.add(row);
-            }
+            return QueryResult.read(resultSet).asMaps();
         }
-
-        return results;
     }
 
     /**
@@ -157,72 +127,15 @@ public abstract class EmbeddedPostgreSqlModificationSetup {
      * Prints query results in a formatted table.
      */
     protected void printQueryResults(List<Map<String, Object>> results) {
-        if (results.isEmpty()) {
-            System.out.println("No results found.");
+        if (!TableRenderer.isEnabled()) {
             return;
         }
-
-        // Extract column names from the first row
-        List<String> columnNames = new ArrayList<>(results.get(0).keySet());
-
-        // Calculate column widths
-        int[] columnWidths = calculateColumnWidths(results, columnNames);
-
-        // Print the header
-        printRow(columnNames, columnWidths);
-        printSeparator(columnWidths);
-
-        // Print each row of results
-        for (Map<String, Object> row : results) {
-            List<String> values = new ArrayList<>();
-            for (String col : columnNames) {
-                Object value = row.get(col);
-                values.add(value == null ? "NULL" : value.toString());
-            }
-            printRow(values, columnWidths);
-        }
-
-        System.out.println();
-    }
-
-    /**
-     * Calculates the width needed for each column based on data and headers.
-     */
-    private int[] calculateColumnWidths(List<Map<String, Object>> results, List<String> columnNames) {
-        int[] columnWidths = new int[columnNames.size()];
-
-        // Initialize with header widths
-        for (int i = 0; i < columnNames.size(); i++) {
-            columnWidths[i] = columnNames.get(i).length();
-        }
-
-        // Update with data widths
-        for (Map<String, Object> row : results) {
-            for (int i = 0; i < columnNames.size(); i++) {
-                String columnName = columnNames.get(i);
-                Object value = row.get(columnName);
-                String valueStr = value == null ? "NULL" : value.toString();
-                columnWidths[i] = Math.max(columnWidths[i], valueStr.length());
-            }
-        }
-
-        return columnWidths;
-    }
-
-    private void printRow(List<String> values, int[] widths) {
-        StringBuilder sb = new StringBuilder("|");
-        for (int i = 0; i < values.size(); i++) {
-            sb.append(" ").append(String.format("%-" + widths[i] + "s", values.get(i))).append(" |");
-        }
-        System.out.println(sb);
-    }
-
-    private void printSeparator(int[] widths) {
-        StringBuilder sb = new StringBuilder("|");
-        for (int width : widths) {
-            sb.append("-".repeat(width + 2)).append("|");
+        StringBuilder out = new StringBuilder();
+        TableRenderer.fromSystemProperties().appendTo(out, results);
+        if (!results.isEmpty()) {
+            out.append(System.lineSeparator());
         }
-        System.out.println(sb);
+        System.out.print(out);
     }
 
 }
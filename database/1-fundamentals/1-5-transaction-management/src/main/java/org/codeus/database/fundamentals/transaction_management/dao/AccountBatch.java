@@ -0,0 +1,137 @@
+package org.codeus.database.fundamentals.transaction_management.dao;
+
+import org.codeus.database.fundamentals.transaction_management.error.CustomerNotFoundException;
+import org.codeus.database.fundamentals.transaction_management.error.DaoOperationException;
+import org.codeus.database.fundamentals.transaction_management.model.Account;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Creates many accounts in one transaction:
+ * <ol>
+ * <li>checks that all customers exist with one {@code = ANY (?)} query;</li>
+ * <li>inserts the accounts {@value #CHUNK_SIZE} at a time with an {@code INSERT ... SELECT} from {@code unnest},
+ * like {@link TransferBatch}, so the statement is prepared once whatever the number of accounts;</li>
+ * <li>once committed, sets the generated id, balance and creation time on every {@link Account}.</li>
+ * </ol>
+ * The ids are drawn from the sequence in the input order before the insert and returned with the position of
+ * their account, since the order of the rows of {@code RETURNING} is not guaranteed.
+ */
+class AccountBatch {
+
+    static final int CHUNK_SIZE = 10_000;
+
+    private static final String SELECT_CUSTOMERS_SQL = """
+            SELECT customer_id
+            FROM customers
+            WHERE customer_id = ANY (?)""";
+    private static final String INSERT_ACCOUNTS_SQL = """
+            WITH input AS (SELECT nextval(pg_get_serial_sequence('accounts', 'account_id')) AS account_id, account.*
+                           FROM unnest(?::integer[], ?::varchar[], ?::numeric[]) WITH ORDINALITY
+                                    AS account(customer_id, account_type, balance, ordinal)
+                           ORDER BY ordinal),
+                 inserted AS (INSERT INTO accounts (account_id, customer_id, account_type, balance)
+                              SELECT account_id, customer_id, account_type, COALESCE(balance, 0)
+                              FROM input
+                              RETURNING account_id, balance, created_at)
+            SELECT input.ordinal, inserted.account_id, inserted.balance, inserted.created_at
+            FROM input
+                     JOIN inserted USING (account_id)""";
+
+    private final Connection connection;
+    private final StatementCache statementCache;
+
+    AccountBatch(StatementCache statementCache) {
+        this.connection = statementCache.getConnection();
+        this.statementCache = statementCache;
+    }
+
+    void execute(List<Account> accounts) {
+        if (accounts.isEmpty()) {
+            return;
+        }
+        for (Account account : accounts) {
+            if (account.getBalance() != null && account.getBalance().signum() < 0) {
+                throw new IllegalArgumentException("Initial balance must not be negative: " + account.getBalance());
+            }
+        }
+        // applied to the accounts only once committed
+        Account[] created = new Account[accounts.size()];
+        try {
+            connection.setAutoCommit(false);
+            checkCustomers(accounts);
+            for (int from = 0; from < accounts.size(); from += CHUNK_SIZE) {
+                insert(accounts, from, Math.min(accounts.size(), from + CHUNK_SIZE), created);
+            }
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackException) {
+                rollbackException.addSuppressed(e);
+                throw new DaoOperationException("Failed to rollback account creation", rollbackException);
+            }
+            if (e instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new DaoOperationException("Failed to create accounts", e);
+        }
+        for (int i = 0; i < created.length; i++) {
+            Account account = accounts.get(i);
+            account.setAccountId(created[i].getAccountId());
+            account.setBalance(created[i].getBalance());
+            account.setCreatedAt(created[i].getCreatedAt());
+        }
+    }
+
+    private void checkCustomers(List<Account> accounts) throws SQLException {
+        SortedSet<Integer> missing = new TreeSet<>();
+        for (Account account : accounts) {
+            missing.add(account.getCustomerId());
+        }
+        PreparedStatement select = statementCache.prepare(SELECT_CUSTOMERS_SQL);
+        select.setArray(1, connection.createArrayOf("integer", missing.toArray()));
+        try (ResultSet resultSet = select.executeQuery()) {
+            while (resultSet.next()) {
+                missing.remove(resultSet.getInt("customer_id"));
+            }
+        }
+        if (!missing.isEmpty()) {
+            throw new CustomerNotFoundException("Customers with ids %s not found".formatted(missing));
+        }
+    }
+
+    private void insert(List<Account> accounts, int from, int to, Account[] created) throws SQLException {
+        List<Account> chunk = accounts.subList(from, to);
+        Integer[] customerIds = new Integer[chunk.size()];
+        String[] accountTypes = new String[chunk.size()];
+        BigDecimal[] balances = new BigDecimal[chunk.size()];
+        for (int i = 0; i < chunk.size(); i++) {
+            Account account = chunk.get(i);
+            customerIds[i] = account.getCustomerId();
+            accountTypes[i] = account.getAccountType() == null ? null : account.getAccountType().getType();
+            balances[i] = account.getBalance();
+        }
+
+        PreparedStatement insert = statementCache.prepare(INSERT_ACCOUNTS_SQL);
+        insert.setArray(1, connection.createArrayOf("integer", customerIds));
+        insert.setArray(2, connection.createArrayOf("varchar", accountTypes));
+        insert.setArray(3, connection.createArrayOf("numeric", balances));
+        try (ResultSet resultSet = insert.executeQuery()) {
+            while (resultSet.next()) {
+                created[from + resultSet.getInt("ordinal") - 1] = Account.builder()
+                        .accountId(resultSet.getInt("account_id"))
+                        .balance(resultSet.getBigDecimal("balance"))
+                        .createdAt(resultSet.getTimestamp("created_at"))
+                        .build();
+            }
+        }
+    }
+}
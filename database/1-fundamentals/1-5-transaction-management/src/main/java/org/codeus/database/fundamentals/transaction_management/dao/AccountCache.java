@@ -0,0 +1,152 @@
+package org.codeus.database.fundamentals.transaction_management.dao;
+
+import org.codeus.database.fundamentals.transaction_management.model.Account;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded in-process cache of accounts for {@link CachingBankingDao}. Thread-safe.
+ * <p>
+ * At most {@code maxSize} accounts are kept, the least recently used one is evicted when there is no room left.
+ * An entry expires {@code timeToLive} after it was cached, which bounds how stale it can get when
+ * the account is changed by someone who does not go through this cache.
+ * <p>
+ * A value read from the database can be older than a write that committed while it was being read. Such a load
+ * is discarded: {@link #startLoad()} returns the number of writes so far, and {@link #putLoaded} keeps the value
+ * only if no write happened since. Writers count themselves by invalidating the accounts they change.
+ */
+public class AccountCache {
+
+    public static final int DEFAULT_MAX_SIZE = 10_000;
+    public static final Duration DEFAULT_TIME_TO_LIVE = Duration.ofSeconds(30);
+
+    private final long timeToLiveNanos;
+    private final LongSupplier clock;
+    private final LinkedHashMap<Integer, Entry> entries;
+    private long writes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    public AccountCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TIME_TO_LIVE);
+    }
+
+    public AccountCache(int maxSize, Duration timeToLive) {
+        this(maxSize, timeToLive, System::nanoTime);
+    }
+
+    AccountCache(int maxSize, Duration timeToLive, LongSupplier clock) {
+        if (maxSize < 1 || timeToLive.isNegative() || timeToLive.isZero()) {
+            throw new IllegalArgumentException(
+                    "Invalid account cache settings: max size %d, time to live %s".formatted(maxSize, timeToLive));
+        }
+        this.timeToLiveNanos = timeToLive.toNanos();
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                if (size() <= maxSize) {
+                    return false;
+                }
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns a copy of the cached account, {@code null} if it is not cached or has expired.
+     */
+    public synchronized Account get(int accountId) {
+        Entry entry = entries.get(accountId);
+        if (entry != null && clock.getAsLong() - entry.writtenAt >= timeToLiveNanos) {
+            entries.remove(accountId);
+            expirations++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return copy(entry.account);
+    }
+
+    /**
+     * Call before reading an account from the database, and pass the result to {@link #putLoaded}.
+     */
+    synchronized long startLoad() {
+        return writes;
+    }
+
+    /**
+     * Caches an account read from the database, unless a write happened since {@link #startLoad()}.
+     */
+    synchronized void putLoaded(long writesAtStart, Account account) {
+        if (writes == writesAtStart) {
+            entries.put(account.getAccountId(), new Entry(copy(account), clock.getAsLong()));
+        }
+    }
+
+    public synchronized void invalidate(int accountId) {
+        writes++;
+        entries.remove(accountId);
+    }
+
+    public synchronized void invalidateAll() {
+        writes++;
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Share of lookups answered from the cache, 0 if there were none.
+     */
+    public synchronized double getHitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Accounts removed to make room for others.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Accounts removed because they outlived the time to live.
+     */
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+
+    private static Account copy(Account account) {
+        return Account.builder()
+                .accountId(account.getAccountId())
+                .customerId(account.getCustomerId())
+                .accountType(account.getAccountType())
+                .balance(account.getBalance())
+                .createdAt(account.getCreatedAt())
+                .build();
+    }
+
+    private record Entry(Account account, long writtenAt) {
+    }
+}
@@ -0,0 +1,50 @@
+package org.codeus.database.fundamentals.transaction_management.dao;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Locks rows of the <code>accounts</code> table for the rest of the current transaction.
+ * <p>
+ * Two transfers in opposite directions that lock their source account first deadlock as soon as they
+ * interleave: each one holds the row the other one waits for, and PostgreSQL aborts one of them with
+ * SQLSTATE <code>40P01</code> after <code>deadlock_timeout</code>. Locking all accounts of a transaction with
+ * a single <code>SELECT ... FOR UPDATE</code> ordered by <code>account_id</code> makes every transaction take
+ * its locks in the same global order, so they can wait for each other, but never in a cycle.
+ */
+final class AccountLocks {
+
+    private static final String LOCK_ACCOUNTS_SQL = """
+            SELECT account_id, balance
+            FROM accounts
+            WHERE account_id = ANY (?)
+            ORDER BY account_id
+            FOR UPDATE""";
+
+    private AccountLocks() {
+    }
+
+    /**
+     * Locks the accounts in ascending <code>account_id</code> order with a single statement taken from the cache.
+     * Must be called with auto-commit disabled, otherwise the locks are released right away.
+     *
+     * @return the balances of the locked accounts by id, a missing account has no entry
+     */
+    static Map<Integer, BigDecimal> lockForUpdate(StatementCache statementCache, Collection<Integer> accountIds)
+            throws SQLException {
+        PreparedStatement select = statementCache.prepare(LOCK_ACCOUNTS_SQL);
+        select.setArray(1, statementCache.getConnection().createArrayOf("integer", accountIds.toArray()));
+        Map<Integer, BigDecimal> balances = new HashMap<>();
+        try (ResultSet resultSet = select.executeQuery()) {
+            while (resultSet.next()) {
+                balances.put(resultSet.getInt("account_id"), resultSet.getBigDecimal("balance"));
+            }
+        }
+        return balances;
+    }
+}
@@ -0,0 +1,45 @@
+package org.codeus.database.fundamentals.transaction_management.dao;
+
+import org.postgresql.core.BaseConnection;
+import org.postgresql.core.TransactionState;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Switches a connection to auto-commit mode for operations that run a single statement on their own.
+ * <p>
+ * JDBC commits the open transaction when auto-commit is turned back on, so a DAO sharing its connection with the
+ * caller would silently commit the work the caller has not committed yet. Instead, the connection is switched only
+ * when no transaction has begun on it, and {@link IllegalStateException} is thrown otherwise: commit or roll back
+ * first, or use a connection of its own.
+ */
+final class AutoCommit {
+
+    private AutoCommit() {
+    }
+
+    /**
+     * @throws IllegalStateException if a transaction is open on the connection
+     */
+    static void enable(Connection connection) throws SQLException {
+        if (isInTransaction(connection)) {
+            throw new IllegalStateException("A transaction is open on the connection, commit or roll it back first");
+        }
+        connection.setAutoCommit(true);
+    }
+
+    /**
+     * With auto-commit disabled, pgJDBC begins a transaction with the first statement, so a connection whose
+     * transaction has just been committed or rolled back is not in one. Other drivers are assumed to be in one.
+     */
+    static boolean isInTransaction(Connection connection) throws SQLException {
+        if (connection.getAutoCommit()) {
+            return false;
+        }
+        if (connection.isWrapperFor(BaseConnection.class)) {
+            return connection.unwrap(BaseConnection.class).getTransactionState() != TransactionState.IDLE;
+        }
+        return true;
+    }
+}
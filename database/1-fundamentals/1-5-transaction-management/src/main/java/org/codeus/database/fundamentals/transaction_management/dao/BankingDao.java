@@ -7,8 +7,11 @@ import org.codeus.database.fundamentals.transaction_management.error.Insufficien
 import org.codeus.database.fundamentals.transaction_management.error.InvalidPaymentException;
 import org.codeus.database.fundamentals.transaction_management.error.LoanNotFoundException;
 import org.codeus.database.fundamentals.transaction_management.model.Account;
+import org.codeus.database.fundamentals.transaction_management.model.Transfer;
+import org.codeus.database.fundamentals.transaction_management.model.TransferBatchResult;
 
 import java.math.BigDecimal;
+import java.util.List;
 
 public interface BankingDao {
 
@@ -31,6 +34,28 @@ public interface BankingDao {
      */
     void createAccount(Account account);
 
+    /**
+     * Creates many accounts in a single transaction, e.g. for an onboarding import.
+     * <p>
+     * This method performs the following steps:
+     * <ul>
+     * <li>Rejects accounts with a negative initial balance ({@link IllegalArgumentException}).</li>
+     * <li>Starts a transaction by setting auto-commit to false.</li>
+     * <li>Checks that all customers exist with a single <code>customer_id = ANY (?)</code> query. If any does not
+     * exist, throws {@link CustomerNotFoundException} naming the missing ones.</li>
+     * <li>Inserts the accounts with a few set-based <code>INSERT</code>s, each taking thousands of rows.</li>
+     * <li>Commits the transaction and sets the generated account ID, the balance and the creation time to every
+     * {@code Account} of the list.</li>
+     * <li>If any step fails, rolls back the whole transaction, so no account is created. If the rollback fails,
+     * throws {@link DaoOperationException}.</li>
+     * </ul>
+     *
+     * @param accounts the accounts to be created
+     * @throws CustomerNotFoundException if the customer of any account does not exist
+     * @throws DaoOperationException     if there is an error during the transaction or rollback
+     */
+    void createAccounts(List<Account> accounts);
+
     /**
      * Withdraws money from an account using READ COMMITTED isolation level.
      * <p>
@@ -58,6 +83,63 @@ public interface BankingDao {
      */
     void withdrawMoney(int accountId, BigDecimal amount);
 
+    /**
+     * Withdraws money from an account with a single SQL statement, so the whole operation is one round trip
+     * to the database instead of the three or more of {@link #withdrawMoney}.
+     * <p>
+     * This method performs the following steps:
+     * <ul>
+     * <li>Validates if the input <code>amount</code> is less than or equal to 0. If true, throws {@link IllegalArgumentException}.</li>
+     * <li>Runs one statement in auto-commit mode, which is a transaction of its own. Its data-modifying CTEs:
+     * <ul>
+     *     <li>deduct the amount with <code>UPDATE accounts ... WHERE account_id = ? AND balance &gt;= ? RETURNING balance</code>,
+     *     so the funds check and the update are atomic and no concurrent withdrawal can overdraw the account;</li>
+     *     <li>insert the <code>'withdrawal'</code> record into the <code>transactions</code> table only for the updated row;</li>
+     *     <li>report whether the account exists.</li>
+     * </ul>
+     * </li>
+     * <li>If no row was updated, throws {@link AccountNotFoundException} when the account does not exist,
+     * or {@link InsufficientFundsException} when it does.</li>
+     * <li>If the statement fails, throws {@link DaoOperationException}; nothing has been changed then.</li>
+     * </ul>
+     *
+     * @param accountId the ID of the account to withdraw from
+     * @param amount    the amount to withdraw
+     * @return the balance of the account after the withdrawal
+     * @throws AccountNotFoundException   if the account with the specified ID does not exist
+     * @throws InsufficientFundsException if the account balance is less than the withdrawal amount
+     * @throws DaoOperationException      if there is an error while executing the statement
+     * @throws IllegalStateException      if a transaction is open on the connection
+     */
+    BigDecimal withdrawMoneyReturningBalance(int accountId, BigDecimal amount);
+
+    /**
+     * Withdraws money from an account at most once per idempotency key, so a request that timed out can be
+     * retried safely.
+     * <p>
+     * This method performs the following steps:
+     * <ul>
+     * <li>Validates the key and the <code>amount</code>. If either is invalid, throws {@link IllegalArgumentException}.</li>
+     * <li>Starts a transaction with READ COMMITTED isolation level.</li>
+     * <li>Inserts the key into the <code>operation_log</code> table. If a committed operation already has it, rolls back
+     * and returns {@code false} without touching the <code>accounts</code> table.</li>
+     * <li>Withdraws the money as {@link #withdrawMoneyReturningBalance} does.</li>
+     * <li>Commits the transaction, which records the key together with the withdrawal.</li>
+     * <li>If any step fails, rolls back the transaction, so the key can be used again. If the rollback fails,
+     * throws {@link DaoOperationException}.</li>
+     * </ul>
+     *
+     * @param idempotencyKey a key chosen by the client for this withdrawal and its retries
+     * @param accountId      the ID of the account to withdraw from
+     * @param amount         the amount to withdraw
+     * @return {@code true} if the money was withdrawn now, {@code false} if it was withdrawn with the key before
+     * @throws IllegalArgumentException   if the key was already used for a different request
+     * @throws AccountNotFoundException   if the account with the specified ID does not exist
+     * @throws InsufficientFundsException if the account balance is less than the withdrawal amount
+     * @throws DaoOperationException      if there is an error during the transaction or rollback
+     */
+    boolean withdrawMoney(String idempotencyKey, int accountId, BigDecimal amount);
+
     /**
      * Transfers money between two accounts using REPEATABLE READ isolation level.
      * <p>
@@ -67,6 +149,11 @@ public interface BankingDao {
      * <li>Validate if <code>fromAccountId</code> equals to <code>toAccountId</code>. If true, throws {@link IllegalArgumentException}</li>
      * <li>Starts a transaction by setting auto-commit to false.</li>
      * <li>Sets transaction isolation level to REPEATABLE READ to prevent non-repeatable reads.</li>
+     * <li>Locks both accounts with a single <code>SELECT ... FOR UPDATE</code> in ascending <code>account_id</code>
+     *  order, whatever the direction of the transfer (see {@link AccountLocks}), so concurrent transfers
+     *  between the same accounts in opposite directions cannot deadlock. A transfer that waited for an account
+     *  updated by a transfer committed in the meantime fails with SQLSTATE <code>40001</code> instead, and can be
+     *  retried (see {@link RetryingBankingDao}).</li>
      * <li>Checks if the <code>fromAccountId</code> exists in the <code>accounts</code> table and has sufficient funds.</li>
      * <ul>
      *     <li>Throws {@link AccountNotFoundException} in case the account does not exist.</li>
@@ -124,4 +211,81 @@ public interface BankingDao {
      * @throws DaoOperationException   if there is an error during the transaction or rollback
      */
     void processLoanPayment(int loanId, BigDecimal paymentAmount, String description);
+
+    /**
+     * Transfers money for many pairs of accounts in a single transaction, e.g. a payroll file.
+     * <p>
+     * This method performs the following steps:
+     * <ul>
+     * <li>Rejects transfers with an amount less than or equal to 0 or with equal source and destination accounts
+     * ({@link IllegalArgumentException}).</li>
+     * <li>Starts a transaction with READ COMMITTED isolation level.</li>
+     * <li>Locks all accounts of the batch with <code>SELECT ... FOR UPDATE</code> in ascending <code>account_id</code>
+     * order, so concurrent batches cannot deadlock.</li>
+     * <li>Checks the transfers in batch order against the locked balances, rejecting the ones with a missing account
+     * ({@link AccountNotFoundException}) or insufficient funds ({@link InsufficientFundsException}).
+     * A transfer can spend money brought in by an earlier transfer of the batch.</li>
+     * <li>Updates the balances of all affected accounts with a single set-based <code>UPDATE</code>.</li>
+     * <li>Inserts the transaction records of all applied transfers, as {@link #transferMoney} does, with a single
+     * <code>INSERT</code>.</li>
+     * <li>Commits the transaction. Rejected transfers do not abort the batch, they are reported in the result.</li>
+     * <li>If any SQL statement fails, rolls back the whole batch and throws {@link DaoOperationException}.</li>
+     * </ul>
+     *
+     * @param transfers the transfers to make
+     * @return the number of applied transfers and the rejected ones with the reason
+     * @throws DaoOperationException if there is an error during the transaction or rollback
+     */
+    TransferBatchResult transferMoneyBatch(List<Transfer> transfers);
+
+    /**
+     * Transfers money between two accounts at most once per idempotency key, so a request that timed out can be
+     * retried safely.
+     * <p>
+     * This method performs the following steps:
+     * <ul>
+     * <li>Validates the key, the <code>amount</code> and the accounts as {@link #transferMoney} does.
+     * If any is invalid, throws {@link IllegalArgumentException}.</li>
+     * <li>Starts a transaction with READ COMMITTED isolation level.</li>
+     * <li>Inserts the key into the <code>operation_log</code> table. If a committed operation already has it, rolls back
+     * and returns {@code false} without touching the <code>accounts</code> table.</li>
+     * <li>Makes the transfer as a {@link #transferMoneyBatch} of one transfer does.</li>
+     * <li>Commits the transaction, which records the key together with the transfer.</li>
+     * <li>If the transfer is rejected or any step fails, rolls back the transaction, so the key can be used again.
+     * If the rollback fails, throws {@link DaoOperationException}.</li>
+     * </ul>
+     *
+     * @param idempotencyKey a key chosen by the client for this transfer and its retries
+     * @param fromAccountId  the ID of the account to transfer money from
+     * @param toAccountId    the ID of the account to transfer money to
+     * @param amount         the amount to transfer
+     * @return {@code true} if the money was transferred now, {@code false} if it was transferred with the key before
+     * @throws IllegalArgumentException   if the key was already used for a different request
+     * @throws AccountNotFoundException   if either account does not exist
+     * @throws InsufficientFundsException if the source account balance is less than the transfer amount
+     * @throws DaoOperationException      if there is an error during the transaction or rollback
+     */
+    boolean transferMoney(String idempotencyKey, int fromAccountId, int toAccountId, BigDecimal amount);
+
+    /**
+     * Reads an account in auto-commit mode, outside of any transaction.
+     *
+     * @param accountId the ID of the account
+     * @return the account
+     * @throws AccountNotFoundException if the account with the specified ID does not exist
+     * @throws DaoOperationException    if there is an error while executing the query
+     * @throws IllegalStateException    if a transaction is open on the connection
+     */
+    Account getAccount(int accountId);
+
+    /**
+     * Reads the balance of an account in auto-commit mode, outside of any transaction.
+     *
+     * @param accountId the ID of the account
+     * @return the balance of the account
+     * @throws AccountNotFoundException if the account with the specified ID does not exist
+     * @throws DaoOperationException    if there is an error while executing the query
+     * @throws IllegalStateException    if a transaction is open on the connection
+     */
+    BigDecimal getBalance(int accountId);
 }
@@ -1,6 +1,6 @@
 package org.codeus.database.fundamentals.transaction_management.dao;
 
-import lombok.RequiredArgsConstructor;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.codeus.database.fundamentals.transaction_management.error.AccountNotFoundException;
 import org.codeus.database.fundamentals.transaction_management.error.DaoOperationException;
@@ -8,16 +8,88 @@ import org.codeus.database.fundamentals.transaction_management.error.ExerciseNot
 import org.codeus.database.fundamentals.transaction_management.error.InsufficientFundsException;
 import org.codeus.database.fundamentals.transaction_management.error.InvalidPaymentException;
 import org.codeus.database.fundamentals.transaction_management.error.LoanNotFoundException;
+import org.codeus.database.fundamentals.transaction_management.ledger.WriteBehindLedger;
 import org.codeus.database.fundamentals.transaction_management.model.Account;
+import org.codeus.database.fundamentals.transaction_management.model.AccountType;
+import org.codeus.database.fundamentals.transaction_management.model.LedgerEntry;
+import org.codeus.database.fundamentals.transaction_management.model.Transfer;
+import org.codeus.database.fundamentals.transaction_management.model.TransferBatchResult;
 
 import java.math.BigDecimal;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
 
+/**
+ * Runs every operation in a transaction of its own on a single connection.
+ * <p>
+ * Prepare statements with {@link #statementCache}, which keeps them open and prepared on the server between calls,
+ * and do not close them.
+ */
 @Slf4j
-@RequiredArgsConstructor
 public class BankingDaoImpl implements BankingDao {
 
+    private static final String WITHDRAW_RETURNING_BALANCE_SQL = """
+            WITH params AS (SELECT ?::integer AS account_id, ?::numeric AS amount),
+                 withdrawn AS (
+                     UPDATE accounts
+                     SET balance = accounts.balance - params.amount
+                     FROM params
+                     WHERE accounts.account_id = params.account_id
+                       AND accounts.balance >= params.amount
+                     RETURNING accounts.account_id, accounts.balance, params.amount),
+                 recorded AS (
+                     INSERT INTO transactions (account_id, transaction_type, amount, description)
+                     SELECT account_id, 'withdrawal', amount, 'Withdrawal'
+                     FROM withdrawn)
+            SELECT (SELECT balance FROM withdrawn) AS balance,
+                   EXISTS (SELECT 1 FROM accounts JOIN params USING (account_id)) AS account_exists""";
+
+    private static final String WITHDRAW_RETURNING_BALANCE_WITHOUT_LEDGER_SQL = """
+            WITH params AS (SELECT ?::integer AS account_id, ?::numeric AS amount),
+                 withdrawn AS (
+                     UPDATE accounts
+                     SET balance = accounts.balance - params.amount
+                     FROM params
+                     WHERE accounts.account_id = params.account_id
+                       AND accounts.balance >= params.amount
+                     RETURNING accounts.balance)
+            SELECT (SELECT balance FROM withdrawn) AS balance,
+                   EXISTS (SELECT 1 FROM accounts JOIN params USING (account_id)) AS account_exists""";
+
+    private static final String SELECT_ACCOUNT_SQL = """
+            SELECT account_id, customer_id, account_type, balance, created_at
+            FROM accounts
+            WHERE account_id = ?""";
+
     private final Connection connection;
+    @Getter
+    private final StatementCache statementCache;
+    private final WriteBehindLedger ledger;
+
+    public BankingDaoImpl(Connection connection) {
+        this(connection, null);
+    }
+
+    /**
+     * @param ledger where {@link #transferMoneyBatch} and {@link #withdrawMoneyReturningBalance} append their
+     *               <code>transactions</code> rows after the commit instead of inserting them,
+     *               {@code null} to insert them
+     */
+    public BankingDaoImpl(Connection connection, WriteBehindLedger ledger) {
+        this(new StatementCache(connection), ledger);
+    }
+
+    /**
+     * @param statementCache the cache of the connection to work on
+     */
+    BankingDaoImpl(StatementCache statementCache, WriteBehindLedger ledger) {
+        this.connection = statementCache.getConnection();
+        this.statementCache = statementCache;
+        this.ledger = ledger;
+    }
 
     /**
      * Creates a new account for a customer.
@@ -41,6 +113,31 @@ public class BankingDaoImpl implements BankingDao {
         throw new ExerciseNotCompletedException();
     }
 
+    /**
+     * Creates many accounts in a single transaction, e.g. for an onboarding import.
+     * <p>
+     * This method performs the following steps:
+     * <ul>
+     * <li>Rejects accounts with a negative initial balance ({@link IllegalArgumentException}).</li>
+     * <li>Starts a transaction by setting auto-commit to false.</li>
+     * <li>Checks that all customers exist with a single <code>customer_id = ANY (?)</code> query. If any does not
+     * exist, throws {@link CustomerNotFoundException} naming the missing ones.</li>
+     * <li>Inserts the accounts with a few set-based <code>INSERT</code>s, each taking thousands of rows.</li>
+     * <li>Commits the transaction and sets the generated account ID, the balance and the creation time to every
+     * {@code Account} of the list.</li>
+     * <li>If any step fails, rolls back the whole transaction, so no account is created. If the rollback fails,
+     * throws {@link DaoOperationException}.</li>
+     * </ul>
+     *
+     * @param accounts the accounts to be created
+     * @throws CustomerNotFoundException if the customer of any account does not exist
+     * @throws DaoOperationException     if there is an error during the transaction or rollback
+     */
+    @Override
+    public void createAccounts(List<Account> accounts) {
+        new AccountBatch(statementCache).execute(accounts);
+    }
+
     /**
      * Withdraws money from an account using READ COMMITTED isolation level.
      * <p>
@@ -71,6 +168,136 @@ public class BankingDaoImpl implements BankingDao {
         throw new ExerciseNotCompletedException();
     }
 
+    /**
+     * Withdraws money from an account with a single SQL statement, so the whole operation is one round trip
+     * to the database instead of the three or more of {@link #withdrawMoney}.
+     * <p>
+     * This method performs the following steps:
+     * <ul>
+     * <li>Validates if the input <code>amount</code> is less than or equal to 0. If true, throws {@link IllegalArgumentException}.</li>
+     * <li>Runs one statement in auto-commit mode, which is a transaction of its own. Its data-modifying CTEs:
+     * <ul>
+     *     <li>deduct the amount with <code>UPDATE accounts ... WHERE account_id = ? AND balance &gt;= ? RETURNING balance</code>,
+     *     so the funds check and the update are atomic and no concurrent withdrawal can overdraw the account;</li>
+     *     <li>insert the <code>'withdrawal'</code> record into the <code>transactions</code> table only for the updated row;</li>
+     *     <li>report whether the account exists.</li>
+     * </ul>
+     * </li>
+     * <li>If no row was updated, throws {@link AccountNotFoundException} when the account does not exist,
+     * or {@link InsufficientFundsException} when it does.</li>
+     * <li>If the statement fails, throws {@link DaoOperationException}; nothing has been changed then.</li>
+     * </ul>
+     *
+     * @param accountId the ID of the account to withdraw from
+     * @param amount    the amount to withdraw
+     * @return the balance of the account after the withdrawal
+     * @throws AccountNotFoundException   if the account with the specified ID does not exist
+     * @throws InsufficientFundsException if the account balance is less than the withdrawal amount
+     * @throws DaoOperationException      if there is an error while executing the statement
+     * @throws IllegalStateException      if a transaction is open on the connection
+     */
+    @Override
+    public BigDecimal withdrawMoneyReturningBalance(int accountId, BigDecimal amount) {
+        if (amount.signum() <= 0) {
+            throw new IllegalArgumentException("Withdrawal amount must be positive: " + amount);
+        }
+        BigDecimal balance;
+        try {
+            AutoCommit.enable(connection);
+            balance = withdraw(accountId, amount);
+        } catch (SQLException e) {
+            throw new DaoOperationException("Failed to withdraw money", e);
+        }
+        appendWithdrawalToLedger(accountId, amount);
+        return balance;
+    }
+
+    /**
+     * Withdraws money from an account at most once per idempotency key, so a request that timed out can be
+     * retried safely.
+     * <p>
+     * This method performs the following steps:
+     * <ul>
+     * <li>Validates the key and the <code>amount</code>. If either is invalid, throws {@link IllegalArgumentException}.</li>
+     * <li>Starts a transaction with READ COMMITTED isolation level.</li>
+     * <li>Inserts the key into the <code>operation_log</code> table. If a committed operation already has it, rolls back
+     * and returns {@code false} without touching the <code>accounts</code> table.</li>
+     * <li>Withdraws the money as {@link #withdrawMoneyReturningBalance} does.</li>
+     * <li>Commits the transaction, which records the key together with the withdrawal.</li>
+     * <li>If any step fails, rolls back the transaction, so the key can be used again. If the rollback fails,
+     * throws {@link DaoOperationException}.</li>
+     * </ul>
+     *
+     * @param idempotencyKey a key chosen by the client for this withdrawal and its retries
+     * @param accountId      the ID of the account to withdraw from
+     * @param amount         the amount to withdraw
+     * @return {@code true} if the money was withdrawn now, {@code false} if it was withdrawn with the key before
+     * @throws IllegalArgumentException   if the key was already used for a different request
+     * @throws AccountNotFoundException   if the account with the specified ID does not exist
+     * @throws InsufficientFundsException if the account balance is less than the withdrawal amount
+     * @throws DaoOperationException      if there is an error during the transaction or rollback
+     */
+    @Override
+    public boolean withdrawMoney(String idempotencyKey, int accountId, BigDecimal amount) {
+        OperationLog.requireValidKey(idempotencyKey);
+        if (amount.signum() <= 0) {
+            throw new IllegalArgumentException("Withdrawal amount must be positive: " + amount);
+        }
+        try {
+            connection.setAutoCommit(false);
+            connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            if (!OperationLog.claim(statementCache, idempotencyKey, OperationLog.withdrawal(accountId, amount))) {
+                connection.rollback();
+                return false;
+            }
+            withdraw(accountId, amount);
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackException) {
+                rollbackException.addSuppressed(e);
+                throw new DaoOperationException("Failed to rollback withdrawal", rollbackException);
+            }
+            if (e instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new DaoOperationException("Failed to withdraw money", e);
+        }
+        appendWithdrawalToLedger(accountId, amount);
+        return true;
+    }
+
+    /**
+     * Runs the single withdrawal statement in the current transaction, or in one of its own in auto-commit mode.
+     *
+     * @return the balance after the withdrawal
+     */
+    private BigDecimal withdraw(int accountId, BigDecimal amount) throws SQLException {
+        PreparedStatement withdraw = statementCache.prepare(
+                ledger == null ? WITHDRAW_RETURNING_BALANCE_SQL : WITHDRAW_RETURNING_BALANCE_WITHOUT_LEDGER_SQL);
+        withdraw.setInt(1, accountId);
+        withdraw.setBigDecimal(2, amount);
+        try (ResultSet resultSet = withdraw.executeQuery()) {
+            resultSet.next();
+            BigDecimal balance = resultSet.getBigDecimal("balance");
+            if (balance != null) {
+                return balance;
+            }
+            if (!resultSet.getBoolean("account_exists")) {
+                throw new AccountNotFoundException("Account with id %d not found".formatted(accountId));
+            }
+            throw new InsufficientFundsException("Account with id %d has insufficient funds to withdraw %s"
+                    .formatted(accountId, amount));
+        }
+    }
+
+    private void appendWithdrawalToLedger(int accountId, BigDecimal amount) {
+        if (ledger != null) {
+            ledger.append(List.of(new LedgerEntry(accountId, "withdrawal", amount, "Withdrawal")));
+        }
+    }
+
     /**
      * Transfers money between two accounts using REPEATABLE READ isolation level.
      * <p>
@@ -80,6 +307,11 @@ public class BankingDaoImpl implements BankingDao {
      * <li>Validate if <code>fromAccountId</code> equals to <code>toAccountId</code>. If true, throws {@link IllegalArgumentException}</li>
      * <li>Starts a transaction by setting auto-commit to false.</li>
      * <li>Sets transaction isolation level to REPEATABLE READ to prevent non-repeatable reads.</li>
+     * <li>Locks both accounts with a single <code>SELECT ... FOR UPDATE</code> in ascending <code>account_id</code>
+     *  order, whatever the direction of the transfer (see {@link AccountLocks}), so concurrent transfers
+     *  between the same accounts in opposite directions cannot deadlock. A transfer that waited for an account
+     *  updated by a transfer committed in the meantime fails with SQLSTATE <code>40001</code> instead, and can be
+     *  retried (see {@link RetryingBankingDao}).</li>
      * <li>Checks if the <code>fromAccountId</code> exists in the <code>accounts</code> table and has sufficient funds.</li>
      * <ul>
      *     <li>Throws {@link AccountNotFoundException} in case the account does not exist.</li>
@@ -141,4 +373,120 @@ public class BankingDaoImpl implements BankingDao {
     public void processLoanPayment(int loanId, BigDecimal paymentAmount, String description) {
         throw new ExerciseNotCompletedException();
     }
+
+    /**
+     * Transfers money for many pairs of accounts in a single transaction, e.g. a payroll file.
+     * <p>
+     * This method performs the following steps:
+     * <ul>
+     * <li>Rejects transfers with an amount less than or equal to 0 or with equal source and destination accounts
+     * ({@link IllegalArgumentException}).</li>
+     * <li>Starts a transaction with READ COMMITTED isolation level.</li>
+     * <li>Locks all accounts of the batch with <code>SELECT ... FOR UPDATE</code> in ascending <code>account_id</code>
+     * order, so concurrent batches cannot deadlock.</li>
+     * <li>Checks the transfers in batch order against the locked balances, rejecting the ones with a missing account
+     * ({@link AccountNotFoundException}) or insufficient funds ({@link InsufficientFundsException}).
+     * A transfer can spend money brought in by an earlier transfer of the batch.</li>
+     * <li>Updates the balances of all affected accounts with a single set-based <code>UPDATE</code>.</li>
+     * <li>Inserts the transaction records of all applied transfers, as {@link #transferMoney} does, with a single
+     * <code>INSERT</code>.</li>
+     * <li>Commits the transaction. Rejected transfers do not abort the batch, they are reported in the result.</li>
+     * <li>If any SQL statement fails, rolls back the whole batch and throws {@link DaoOperationException}.</li>
+     * </ul>
+     *
+     * @param transfers the transfers to make
+     * @return the number of applied transfers and the rejected ones with the reason
+     * @throws DaoOperationException if there is an error during the transaction or rollback
+     */
+    @Override
+    public TransferBatchResult transferMoneyBatch(List<Transfer> transfers) {
+        return new TransferBatch(statementCache, ledger).execute(transfers);
+    }
+
+    /**
+     * Transfers money between two accounts at most once per idempotency key, so a request that timed out can be
+     * retried safely.
+     * <p>
+     * This method performs the following steps:
+     * <ul>
+     * <li>Validates the key, the <code>amount</code> and the accounts as {@link #transferMoney} does.
+     * If any is invalid, throws {@link IllegalArgumentException}.</li>
+     * <li>Starts a transaction with READ COMMITTED isolation level.</li>
+     * <li>Inserts the key into the <code>operation_log</code> table. If a committed operation already has it, rolls back
+     * and returns {@code false} without touching the <code>accounts</code> table.</li>
+     * <li>Makes the transfer as a {@link #transferMoneyBatch} of one transfer does.</li>
+     * <li>Commits the transaction, which records the key together with the transfer.</li>
+     * <li>If the transfer is rejected or any step fails, rolls back the transaction, so the key can be used again.
+     * If the rollback fails, throws {@link DaoOperationException}.</li>
+     * </ul>
+     *
+     * @param idempotencyKey a key chosen by the client for this transfer and its retries
+     * @param fromAccountId  the ID of the account to transfer money from
+     * @param toAccountId    the ID of the account to transfer money to
+     * @param amount         the amount to transfer
+     * @return {@code true} if the money was transferred now, {@code false} if it was transferred with the key before
+     * @throws IllegalArgumentException   if the key was already used for a different request
+     * @throws AccountNotFoundException   if either account does not exist
+     * @throws InsufficientFundsException if the source account balance is less than the transfer amount
+     * @throws DaoOperationException      if there is an error during the transaction or rollback
+     */
+    @Override
+    public boolean transferMoney(String idempotencyKey, int fromAccountId, int toAccountId, BigDecimal amount) {
+        OperationLog.requireValidKey(idempotencyKey);
+        TransferBatchResult result = new TransferBatch(statementCache, ledger)
+                .execute(List.of(new Transfer(fromAccountId, toAccountId, amount)), idempotencyKey);
+        if (result == null) {
+            return false;
+        }
+        if (!result.isFullyApplied()) {
+            throw result.getFailures().get(0).error();
+        }
+        return true;
+    }
+
+    /**
+     * Reads an account in auto-commit mode, outside of any transaction.
+     *
+     * @param accountId the ID of the account
+     * @return the account
+     * @throws AccountNotFoundException if the account with the specified ID does not exist
+     * @throws DaoOperationException    if there is an error while executing the query
+     * @throws IllegalStateException    if a transaction is open on the connection
+     */
+    @Override
+    public Account getAccount(int accountId) {
+        try {
+            AutoCommit.enable(connection);
+            PreparedStatement select = statementCache.prepare(SELECT_ACCOUNT_SQL);
+            select.setInt(1, accountId);
+            try (ResultSet resultSet = select.executeQuery()) {
+                if (!resultSet.next()) {
+                    throw new AccountNotFoundException("Account with id %d not found".formatted(accountId));
+                }
+                return Account.builder()
+                        .accountId(resultSet.getInt("account_id"))
+                        .customerId(resultSet.getInt("customer_id"))
+                        .accountType(AccountType.fromString(resultSet.getString("account_type")))
+                        .balance(resultSet.getBigDecimal("balance"))
+                        .createdAt(resultSet.getTimestamp("created_at"))
+                        .build();
+            }
+        } catch (SQLException e) {
+            throw new DaoOperationException("Failed to read account", e);
+        }
+    }
+
+    /**
+     * Reads the balance of an account in auto-commit mode, outside of any transaction.
+     *
+     * @param accountId the ID of the account
+     * @return the balance of the account
+     * @throws AccountNotFoundException if the account with the specified ID does not exist
+     * @throws DaoOperationException    if there is an error while executing the query
+     * @throws IllegalStateException    if a transaction is open on the connection
+     */
+    @Override
+    public BigDecimal getBalance(int accountId) {
+        return getAccount(accountId).getBalance();
+    }
 }
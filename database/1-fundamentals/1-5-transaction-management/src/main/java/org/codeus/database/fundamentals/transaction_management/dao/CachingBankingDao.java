@@ -0,0 +1,124 @@
+package org.codeus.database.fundamentals.transaction_management.dao;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.codeus.database.fundamentals.transaction_management.model.Account;
+import org.codeus.database.fundamentals.transaction_management.model.Transfer;
+import org.codeus.database.fundamentals.transaction_management.model.TransferBatchResult;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Answers {@link #getAccount} and {@link #getBalance} from an {@link AccountCache} and reads through to another
+ * {@link BankingDao} on a miss.
+ * <p>
+ * A write drops the cached accounts it touches before it goes to the other DAO, and again once it has returned or
+ * thrown. Each drop counts as a write for {@link AccountCache#startLoad()}, so a read through that overlaps the
+ * write, and may have seen the balance before the commit, is not cached; the next read after the write loads the
+ * committed balance. Patching the cached balance with the change instead would race with such a read: a load that
+ * already saw the commit would get the change applied a second time. New accounts are cached on their first read.
+ * Changes made without this DAO are seen once the cached entries expire.
+ */
+@RequiredArgsConstructor
+public class CachingBankingDao implements BankingDao {
+
+    private final BankingDao delegate;
+    @Getter
+    private final AccountCache accountCache;
+
+    @Override
+    public Account getAccount(int accountId) {
+        Account cached = accountCache.get(accountId);
+        if (cached != null) {
+            return cached;
+        }
+        long writesAtStart = accountCache.startLoad();
+        Account account = delegate.getAccount(accountId);
+        accountCache.putLoaded(writesAtStart, account);
+        return account;
+    }
+
+    @Override
+    public BigDecimal getBalance(int accountId) {
+        return getAccount(accountId).getBalance();
+    }
+
+    @Override
+    public void createAccount(Account account) {
+        delegate.createAccount(account);
+    }
+
+    @Override
+    public void createAccounts(List<Account> accounts) {
+        delegate.createAccounts(accounts);
+    }
+
+    @Override
+    public void withdrawMoney(int accountId, BigDecimal amount) {
+        write(Set.of(accountId), () -> {
+            delegate.withdrawMoney(accountId, amount);
+            return null;
+        });
+    }
+
+    @Override
+    public BigDecimal withdrawMoneyReturningBalance(int accountId, BigDecimal amount) {
+        return write(Set.of(accountId), () -> delegate.withdrawMoneyReturningBalance(accountId, amount));
+    }
+
+    @Override
+    public boolean withdrawMoney(String idempotencyKey, int accountId, BigDecimal amount) {
+        return write(Set.of(accountId), () -> delegate.withdrawMoney(idempotencyKey, accountId, amount));
+    }
+
+    @Override
+    public void transferMoney(int fromAccountId, int toAccountId, BigDecimal amount) {
+        write(accounts(fromAccountId, toAccountId), () -> {
+            delegate.transferMoney(fromAccountId, toAccountId, amount);
+            return null;
+        });
+    }
+
+    @Override
+    public void processLoanPayment(int loanId, BigDecimal paymentAmount, String description) {
+        delegate.processLoanPayment(loanId, paymentAmount, description);
+    }
+
+    @Override
+    public TransferBatchResult transferMoneyBatch(List<Transfer> transfers) {
+        return write(accountsOf(transfers), () -> delegate.transferMoneyBatch(transfers));
+    }
+
+    @Override
+    public boolean transferMoney(String idempotencyKey, int fromAccountId, int toAccountId, BigDecimal amount) {
+        return write(accounts(fromAccountId, toAccountId),
+                () -> delegate.transferMoney(idempotencyKey, fromAccountId, toAccountId, amount));
+    }
+
+    private <T> T write(Set<Integer> accountIds, Supplier<T> operation) {
+        accountIds.forEach(accountCache::invalidate);
+        try {
+            return operation.get();
+        } finally {
+            accountIds.forEach(accountCache::invalidate);
+        }
+    }
+
+    // a transfer to the same account is rejected by the delegate, not by Set.of
+    private static Set<Integer> accounts(int fromAccountId, int toAccountId) {
+        return new LinkedHashSet<>(List.of(fromAccountId, toAccountId));
+    }
+
+    private static Set<Integer> accountsOf(List<Transfer> transfers) {
+        Set<Integer> accountIds = new LinkedHashSet<>();
+        for (Transfer transfer : transfers) {
+            accountIds.add(transfer.getFromAccountId());
+            accountIds.add(transfer.getToAccountId());
+        }
+        return accountIds;
+    }
+}
@@ -0,0 +1,66 @@
+package org.codeus.database.fundamentals.transaction_management.dao;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The idempotency keys of recently completed operations, for {@link IdempotentBankingDao}. Thread-safe.
+ * <p>
+ * At most {@code maxSize} keys are kept, the least recently used one is evicted when there is no room left.
+ * An evicted key is not forgotten, only looked up in the <code>operation_log</code> table again.
+ */
+public class CompletedOperations {
+
+    public static final int DEFAULT_MAX_SIZE = 10_000;
+
+    private final LinkedHashMap<String, String> requests;
+    private long hits;
+    private long misses;
+
+    public CompletedOperations() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public CompletedOperations(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Invalid max size of completed operations: " + maxSize);
+        }
+        this.requests = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return {@code true} if an operation with the key is known to be completed
+     * @throws IllegalArgumentException if the key was completed with a different request
+     */
+    synchronized boolean contains(String idempotencyKey, String request) {
+        String recorded = requests.get(idempotencyKey);
+        if (recorded == null) {
+            misses++;
+            return false;
+        }
+        OperationLog.requireSameRequest(idempotencyKey, recorded, request);
+        hits++;
+        return true;
+    }
+
+    synchronized void add(String idempotencyKey, String request) {
+        requests.put(idempotencyKey, request);
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return requests.size();
+    }
+}
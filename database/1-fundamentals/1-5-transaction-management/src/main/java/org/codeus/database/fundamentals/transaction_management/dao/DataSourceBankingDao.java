@@ -0,0 +1,149 @@
+package org.codeus.database.fundamentals.transaction_management.dao;
+
+import lombok.extern.slf4j.Slf4j;
+import org.codeus.database.fundamentals.transaction_management.error.DaoOperationException;
+import org.codeus.database.fundamentals.transaction_management.ledger.WriteBehindLedger;
+import org.codeus.database.fundamentals.transaction_management.model.Account;
+import org.codeus.database.fundamentals.transaction_management.model.Transfer;
+import org.codeus.database.fundamentals.transaction_management.model.TransferBatchResult;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A {@link BankingDao} that can be shared by many threads: every operation borrows a connection from the data
+ * source (a pool, normally), runs {@link BankingDaoImpl} on it and gives it back.
+ * <p>
+ * Before a connection is given back, whatever transaction the operation left open is rolled back, and auto-commit
+ * and the isolation level are restored to what they were when it was borrowed, so the next borrower gets the
+ * connection in the state the pool handed it out in.
+ * <p>
+ * The {@link StatementCache} of an operation lives only as long as the operation, which runs each of its few
+ * statements once or twice, and the pool drops server-side prepared statements with {@code DISCARD ALL} when the
+ * connection is returned. Preparing the statements on the server on their first execution, as a long-lived
+ * {@link BankingDaoImpl} does, would only add named statements nobody reuses, so the operations keep the prepare
+ * threshold of the driver. A pool that keeps server-side prepared statements across borrowers (no
+ * {@code DISCARD ALL}) lets pgJDBC's own per-connection cache reach that threshold and prepare the hot queries.
+ */
+@Slf4j
+public class DataSourceBankingDao implements BankingDao {
+
+    private final DataSource dataSource;
+    private final WriteBehindLedger ledger;
+
+    public DataSourceBankingDao(DataSource dataSource) {
+        this(dataSource, null);
+    }
+
+    /**
+     * @param ledger passed on to {@link BankingDaoImpl#BankingDaoImpl(Connection, WriteBehindLedger)}
+     */
+    public DataSourceBankingDao(DataSource dataSource, WriteBehindLedger ledger) {
+        this.dataSource = dataSource;
+        this.ledger = ledger;
+    }
+
+    @Override
+    public void createAccount(Account account) {
+        run(dao -> {
+            dao.createAccount(account);
+            return null;
+        });
+    }
+
+    @Override
+    public void createAccounts(List<Account> accounts) {
+        run(dao -> {
+            dao.createAccounts(accounts);
+            return null;
+        });
+    }
+
+    @Override
+    public void withdrawMoney(int accountId, BigDecimal amount) {
+        run(dao -> {
+            dao.withdrawMoney(accountId, amount);
+            return null;
+        });
+    }
+
+    @Override
+    public BigDecimal withdrawMoneyReturningBalance(int accountId, BigDecimal amount) {
+        return run(dao -> dao.withdrawMoneyReturningBalance(accountId, amount));
+    }
+
+    @Override
+    public boolean withdrawMoney(String idempotencyKey, int accountId, BigDecimal amount) {
+        return run(dao -> dao.withdrawMoney(idempotencyKey, accountId, amount));
+    }
+
+    @Override
+    public void transferMoney(int fromAccountId, int toAccountId, BigDecimal amount) {
+        run(dao -> {
+            dao.transferMoney(fromAccountId, toAccountId, amount);
+            return null;
+        });
+    }
+
+    @Override
+    public void processLoanPayment(int loanId, BigDecimal paymentAmount, String description) {
+        run(dao -> {
+            dao.processLoanPayment(loanId, paymentAmount, description);
+            return null;
+        });
+    }
+
+    @Override
+    public TransferBatchResult transferMoneyBatch(List<Transfer> transfers) {
+        return run(dao -> dao.transferMoneyBatch(transfers));
+    }
+
+    @Override
+    public boolean transferMoney(String idempotencyKey, int fromAccountId, int toAccountId, BigDecimal amount) {
+        return run(dao -> dao.transferMoney(idempotencyKey, fromAccountId, toAccountId, amount));
+    }
+
+    @Override
+    public Account getAccount(int accountId) {
+        return run(dao -> dao.getAccount(accountId));
+    }
+
+    @Override
+    public BigDecimal getBalance(int accountId) {
+        return run(dao -> dao.getBalance(accountId));
+    }
+
+    private <T> T run(Function<BankingDaoImpl, T> operation) {
+        try (Connection connection = dataSource.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            int isolationLevel = connection.getTransactionIsolation();
+            BankingDaoImpl dao = new BankingDaoImpl(new StatementCache(
+                    connection, StatementCache.DEFAULT_MAX_SIZE, StatementCache.DRIVER_PREPARE_THRESHOLD), ledger);
+            try {
+                return operation.apply(dao);
+            } finally {
+                dao.getStatementCache().close();
+                restore(connection, autoCommit, isolationLevel);
+            }
+        } catch (SQLException e) {
+            throw new DaoOperationException("Failed to borrow or return a connection", e);
+        }
+    }
+
+    private static void restore(Connection connection, boolean autoCommit, int isolationLevel) {
+        try {
+            // operations roll back their own failed transactions, so usually there is nothing left to roll back
+            if (AutoCommit.isInTransaction(connection)) {
+                connection.rollback();
+            }
+            connection.setAutoCommit(autoCommit);
+            connection.setTransactionIsolation(isolationLevel);
+        } catch (SQLException e) {
+            log.warn("Failed to restore connection settings", e);
+        }
+    }
+}
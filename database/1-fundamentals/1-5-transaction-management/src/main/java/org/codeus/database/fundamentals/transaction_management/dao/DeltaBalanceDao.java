@@ -0,0 +1,285 @@
+package org.codeus.database.fundamentals.transaction_management.dao;
+
+import lombok.Getter;
+import org.codeus.database.fundamentals.transaction_management.error.AccountNotFoundException;
+import org.codeus.database.fundamentals.transaction_management.error.DaoOperationException;
+import org.codeus.database.fundamentals.transaction_management.error.InsufficientFundsException;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Keeps balances as <code>accounts.balance</code> plus the signed changes appended to
+ * <code>account_balance_deltas</code>, for accounts too hot to update one row per operation: a merchant receiving
+ * thousands of transfers a second serializes every one of them on its <code>accounts</code> row, while appending
+ * a delta waits for nobody.
+ * <p>
+ * Money going out still needs a check that the account can afford it, so debits lock the account row and check
+ * against the balance plus the deltas, in a second statement: under {@code READ COMMITTED} every statement reads a
+ * new snapshot, so it sees the debits committed while it waited for the lock. The lock is
+ * {@code FOR NO KEY UPDATE}, which, unlike {@code FOR UPDATE}, does not block the {@code FOR KEY SHARE} lock that
+ * the foreign key check of a credit takes on the same row. Debits of one account are serialized, credits are not.
+ * <p>
+ * {@link #fold} moves the deltas of an account into its balance; {@link DeltaBalanceFolder} does it periodically
+ * for all of them, so that reads, which sum the deltas, stay cheap.
+ */
+public class DeltaBalanceDao {
+
+    public static final int DEFAULT_SHARDS = 16;
+
+    private static final String SELECT_BALANCE_SQL = """
+            SELECT a.balance + COALESCE((SELECT SUM(d.amount)
+                                         FROM account_balance_deltas d
+                                         WHERE d.account_id = a.account_id), 0) AS balance
+            FROM accounts a
+            WHERE a.account_id = ?""";
+    private static final String CREDIT_SQL = """
+            INSERT INTO account_balance_deltas (account_id, shard, amount)
+            VALUES (?, ?, ?)""";
+    private static final String LOCK_SQL = """
+            SELECT account_id
+            FROM accounts
+            WHERE account_id = ?
+            FOR NO KEY UPDATE""";
+    private static final String DEBIT_SQL = """
+            WITH params AS (SELECT ?::integer AS from_id, ?::integer AS to_id, ?::numeric AS amount, ?::smallint AS shard),
+                 affordable AS (SELECT p.*
+                                FROM params p
+                                         JOIN accounts a ON a.account_id = p.from_id
+                                WHERE a.balance + COALESCE((SELECT SUM(d.amount)
+                                                            FROM account_balance_deltas d
+                                                            WHERE d.account_id = p.from_id), 0) >= p.amount)
+            INSERT INTO account_balance_deltas (account_id, shard, amount)
+            SELECT from_id, shard, -amount FROM affordable
+            UNION ALL
+            SELECT to_id, shard, amount FROM affordable WHERE to_id IS NOT NULL""";
+    private static final String FOLD_SQL = """
+            WITH folded AS (
+                DELETE FROM account_balance_deltas
+                WHERE account_id = ?
+                RETURNING amount
+            )
+            UPDATE accounts
+            SET balance = balance + (SELECT SUM(amount) FROM folded)
+            WHERE account_id = ?
+              AND EXISTS (SELECT 1 FROM folded)
+            RETURNING (SELECT COUNT(*) FROM folded) AS folded""";
+    private static final String SELECT_DELTA_ACCOUNTS_SQL = """
+            SELECT DISTINCT account_id
+            FROM account_balance_deltas""";
+    private static final String FOREIGN_KEY_VIOLATION = "23503";
+
+    private final Connection connection;
+    @Getter
+    private final StatementCache statementCache;
+    private final int shards;
+
+    public DeltaBalanceDao(Connection connection) {
+        this(connection, DEFAULT_SHARDS);
+    }
+
+    /**
+     * @param shards number of shards the deltas of an account are spread over
+     */
+    public DeltaBalanceDao(Connection connection, int shards) {
+        if (shards < 1 || shards > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid number of shards: " + shards);
+        }
+        this.connection = connection;
+        this.statementCache = new StatementCache(connection);
+        this.shards = shards;
+    }
+
+    /**
+     * Reads the balance of an account with its pending deltas, in auto-commit mode.
+     *
+     * @throws AccountNotFoundException if the account with the specified ID does not exist
+     * @throws DaoOperationException    if there is an error while executing the query
+     * @throws IllegalStateException    if a transaction is open on the connection
+     */
+    public BigDecimal getBalance(int accountId) {
+        try {
+            AutoCommit.enable(connection);
+            PreparedStatement select = statementCache.prepare(SELECT_BALANCE_SQL);
+            select.setInt(1, accountId);
+            try (ResultSet resultSet = select.executeQuery()) {
+                if (!resultSet.next()) {
+                    throw new AccountNotFoundException("Account with id %d not found".formatted(accountId));
+                }
+                return resultSet.getBigDecimal("balance");
+            }
+        } catch (SQLException e) {
+            throw new DaoOperationException("Failed to read balance", e);
+        }
+    }
+
+    /**
+     * Appends a positive delta to the account, in auto-commit mode and without locking the account row.
+     *
+     * @throws IllegalArgumentException if the amount is not positive
+     * @throws AccountNotFoundException if the account with the specified ID does not exist
+     * @throws DaoOperationException    if there is an error while executing the query
+     * @throws IllegalStateException    if a transaction is open on the connection
+     */
+    public void deposit(int accountId, BigDecimal amount) {
+        requirePositive(amount);
+        try {
+            AutoCommit.enable(connection);
+            PreparedStatement credit = statementCache.prepare(CREDIT_SQL);
+            credit.setInt(1, accountId);
+            credit.setShort(2, nextShard());
+            credit.setBigDecimal(3, amount);
+            credit.executeUpdate();
+        } catch (SQLException e) {
+            if (FOREIGN_KEY_VIOLATION.equals(e.getSQLState())) {
+                throw new AccountNotFoundException("Account with id %d not found".formatted(accountId));
+            }
+            throw new DaoOperationException("Failed to deposit money", e);
+        }
+    }
+
+    /**
+     * Appends a negative delta to the account if its balance with the pending deltas covers the amount.
+     *
+     * @throws IllegalArgumentException   if the amount is not positive
+     * @throws AccountNotFoundException   if the account with the specified ID does not exist
+     * @throws InsufficientFundsException if the account cannot afford the amount
+     * @throws DaoOperationException      if there is an error while executing the queries
+     */
+    public void withdrawMoney(int accountId, BigDecimal amount) {
+        debit(accountId, null, amount);
+    }
+
+    /**
+     * Appends a negative delta to the source account, if its balance with the pending deltas covers the amount,
+     * and a positive one to the destination account, in one transaction. Only the source account is locked.
+     *
+     * @throws IllegalArgumentException   if the amount is not positive or both accounts are the same
+     * @throws AccountNotFoundException   if either account does not exist
+     * @throws InsufficientFundsException if the source account cannot afford the amount
+     * @throws DaoOperationException      if there is an error while executing the queries
+     */
+    public void transferMoney(int fromAccountId, int toAccountId, BigDecimal amount) {
+        if (fromAccountId == toAccountId) {
+            throw new IllegalArgumentException("Cannot transfer money to the same account: " + fromAccountId);
+        }
+        debit(fromAccountId, toAccountId, amount);
+    }
+
+    /**
+     * Moves the pending deltas of an account into its balance, in auto-commit mode.
+     *
+     * @return the number of deltas folded
+     * @throws DaoOperationException if there is an error while executing the query
+     * @throws IllegalStateException if a transaction is open on the connection
+     */
+    public int fold(int accountId) {
+        try {
+            AutoCommit.enable(connection);
+            PreparedStatement fold = statementCache.prepare(FOLD_SQL);
+            fold.setInt(1, accountId);
+            fold.setInt(2, accountId);
+            try (ResultSet resultSet = fold.executeQuery()) {
+                return resultSet.next() ? resultSet.getInt("folded") : 0;
+            }
+        } catch (SQLException e) {
+            throw new DaoOperationException("Failed to fold balance deltas", e);
+        }
+    }
+
+    /**
+     * Folds the pending deltas of every account, one account per transaction.
+     *
+     * @return the number of deltas folded
+     * @throws DaoOperationException if there is an error while executing the queries
+     * @throws IllegalStateException if a transaction is open on the connection
+     */
+    public int foldAll() {
+        List<Integer> accountIds = new ArrayList<>();
+        try {
+            AutoCommit.enable(connection);
+            try (ResultSet resultSet = statementCache.prepare(SELECT_DELTA_ACCOUNTS_SQL).executeQuery()) {
+                while (resultSet.next()) {
+                    accountIds.add(resultSet.getInt("account_id"));
+                }
+            }
+        } catch (SQLException e) {
+            throw new DaoOperationException("Failed to find balance deltas", e);
+        }
+        int folded = 0;
+        for (int accountId : accountIds) {
+            folded += fold(accountId);
+        }
+        return folded;
+    }
+
+    private void debit(int fromAccountId, Integer toAccountId, BigDecimal amount) {
+        requirePositive(amount);
+        boolean debited;
+        try {
+            connection.setAutoCommit(false);
+            connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+
+            PreparedStatement lock = statementCache.prepare(LOCK_SQL);
+            lock.setInt(1, fromAccountId);
+            boolean exists;
+            try (ResultSet resultSet = lock.executeQuery()) {
+                exists = resultSet.next();
+            }
+            debited = exists && insertDebit(fromAccountId, toAccountId, amount);
+            if (debited) {
+                connection.commit();
+            } else {
+                connection.rollback();
+                if (!exists) {
+                    throw new AccountNotFoundException("Account with id %d not found".formatted(fromAccountId));
+                }
+            }
+        } catch (SQLException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackException) {
+                rollbackException.addSuppressed(e);
+                throw new DaoOperationException("Failed to rollback debit", rollbackException);
+            }
+            if (FOREIGN_KEY_VIOLATION.equals(e.getSQLState())) {
+                throw new AccountNotFoundException("Account with id %d not found".formatted(toAccountId));
+            }
+            throw new DaoOperationException("Failed to debit money", e);
+        }
+        if (!debited) {
+            throw new InsufficientFundsException("Account with id %d has insufficient funds to withdraw %s"
+                    .formatted(fromAccountId, amount));
+        }
+    }
+
+    private boolean insertDebit(int fromAccountId, Integer toAccountId, BigDecimal amount) throws SQLException {
+        PreparedStatement debit = statementCache.prepare(DEBIT_SQL);
+        debit.setInt(1, fromAccountId);
+        if (toAccountId == null) {
+            debit.setNull(2, Types.INTEGER);
+        } else {
+            debit.setInt(2, toAccountId);
+        }
+        debit.setBigDecimal(3, amount);
+        debit.setShort(4, nextShard());
+        return debit.executeUpdate() > 0;
+    }
+
+    private short nextShard() {
+        return (short) ThreadLocalRandom.current().nextInt(shards);
+    }
+
+    private static void requirePositive(BigDecimal amount) {
+        if (amount.signum() <= 0) {
+            throw new IllegalArgumentException("Amount must be positive: " + amount);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.codeus.database.fundamentals.transaction_management.dao;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Folds the balance deltas of {@link DeltaBalanceDao} into the account balances in the background, at a fixed
+ * delay after each run. A failed run is logged and the next one tries again.
+ */
+@Slf4j
+public class DeltaBalanceFolder implements AutoCloseable {
+
+    public static final Duration DEFAULT_INTERVAL = Duration.ofMillis(100);
+
+    private final DataSource dataSource;
+    private final ScheduledExecutorService scheduler;
+    private final LongAdder folded = new LongAdder();
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder failedRuns = new LongAdder();
+
+    public DeltaBalanceFolder(DataSource dataSource) {
+        this(dataSource, DEFAULT_INTERVAL);
+    }
+
+    public DeltaBalanceFolder(DataSource dataSource, Duration interval) {
+        this.dataSource = dataSource;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "balance-delta-folder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = Math.max(1, interval.toMillis());
+        scheduler.scheduleWithFixedDelay(this::foldAll, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops folding, waiting for a run in progress to finish. Deltas appended since the last run stay pending.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("Balance delta folder did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getFolded() {
+        return folded.sum();
+    }
+
+    public long getRuns() {
+        return runs.sum();
+    }
+
+    public long getFailedRuns() {
+        return failedRuns.sum();
+    }
+
+    private void foldAll() {
+        try (Connection connection = dataSource.getConnection()) {
+            DeltaBalanceDao dao = new DeltaBalanceDao(connection);
+            try {
+                folded.add(dao.foldAll());
+            } finally {
+                dao.getStatementCache().close();
+            }
+            runs.increment();
+        } catch (SQLException | RuntimeException e) {
+            failedRuns.increment();
+            log.warn("Failed to fold balance deltas", e);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.codeus.database.fundamentals.transaction_management.dao;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.codeus.database.fundamentals.transaction_management.model.Account;
+import org.codeus.database.fundamentals.transaction_management.model.Transfer;
+import org.codeus.database.fundamentals.transaction_management.model.TransferBatchResult;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Answers retries of operations with an idempotency key from {@link CompletedOperations}, without going to the
+ * database at all, and passes everything else to another {@link BankingDao}.
+ * <p>
+ * The keys of this process are remembered once an operation returns, whether it was applied by that call or
+ * found in the <code>operation_log</code> table. Keys used by other processes, or evicted, are checked by the
+ * other DAO in the database, which stays the only guarantee that an operation is applied once.
+ */
+@RequiredArgsConstructor
+public class IdempotentBankingDao implements BankingDao {
+
+    private final BankingDao delegate;
+    @Getter
+    private final CompletedOperations completedOperations;
+
+    @Override
+    public boolean withdrawMoney(String idempotencyKey, int accountId, BigDecimal amount) {
+        String request = OperationLog.withdrawal(accountId, amount);
+        if (completedOperations.contains(idempotencyKey, request)) {
+            return false;
+        }
+        boolean withdrawn = delegate.withdrawMoney(idempotencyKey, accountId, amount);
+        completedOperations.add(idempotencyKey, request);
+        return withdrawn;
+    }
+
+    @Override
+    public boolean transferMoney(String idempotencyKey, int fromAccountId, int toAccountId, BigDecimal amount) {
+        String request = OperationLog.transfers(List.of(new Transfer(fromAccountId, toAccountId, amount)));
+        if (completedOperations.contains(idempotencyKey, request)) {
+            return false;
+        }
+        boolean transferred = delegate.transferMoney(idempotencyKey, fromAccountId, toAccountId, amount);
+        completedOperations.add(idempotencyKey, request);
+        return transferred;
+    }
+
+    @Override
+    public void createAccount(Account account) {
+        delegate.createAccount(account);
+    }
+
+    @Override
+    public void createAccounts(List<Account> accounts) {
+        delegate.createAccounts(accounts);
+    }
+
+    @Override
+    public void withdrawMoney(int accountId, BigDecimal amount) {
+        delegate.withdrawMoney(accountId, amount);
+    }
+
+    @Override
+    public BigDecimal withdrawMoneyReturningBalance(int accountId, BigDecimal amount) {
+        return delegate.withdrawMoneyReturningBalance(accountId, amount);
+    }
+
+    @Override
+    public void transferMoney(int fromAccountId, int toAccountId, BigDecimal amount) {
+        delegate.transferMoney(fromAccountId, toAccountId, amount);
+    }
+
+    @Override
+    public void processLoanPayment(int loanId, BigDecimal paymentAmount, String description) {
+        delegate.processLoanPayment(loanId, paymentAmount, description);
+    }
+
+    @Override
+    public TransferBatchResult transferMoneyBatch(List<Transfer> transfers) {
+        return delegate.transferMoneyBatch(transfers);
+    }
+
+    @Override
+    public Account getAccount(int accountId) {
+        return delegate.getAccount(accountId);
+    }
+
+    @Override
+    public BigDecimal getBalance(int accountId) {
+        return delegate.getBalance(accountId);
+    }
+}
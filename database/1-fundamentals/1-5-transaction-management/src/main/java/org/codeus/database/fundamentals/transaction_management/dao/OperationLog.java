@@ -0,0 +1,92 @@
+package org.codeus.database.fundamentals.transaction_management.dao;
+
+import org.codeus.database.fundamentals.transaction_management.model.Transfer;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Records idempotency keys in the <code>operation_log</code> table, in the transaction of the operation they
+ * belong to: the key is committed if and only if the operation is, and a retry of a committed operation finds it.
+ * <p>
+ * The unique index on the key decides between concurrent attempts: {@code INSERT ... ON CONFLICT DO NOTHING}
+ * waits for a transaction that inserted the same key to finish, then inserts nothing if it committed, or takes
+ * the key over if it rolled back.
+ */
+final class OperationLog {
+
+    static final int MAX_KEY_LENGTH = 100;
+
+    private static final String CLAIM_SQL = """
+            INSERT INTO operation_log (idempotency_key, request)
+            VALUES (?, ?)
+            ON CONFLICT (idempotency_key) DO NOTHING""";
+    private static final String SELECT_REQUEST_SQL = """
+            SELECT request
+            FROM operation_log
+            WHERE idempotency_key = ?""";
+
+    private OperationLog() {
+    }
+
+    /**
+     * Inserts the key with a description of the request. Must be called in a {@code READ COMMITTED} transaction,
+     * before the operation touches any account, so a duplicate can be rolled back without having changed anything.
+     *
+     * @return {@code true} if the key is new, {@code false} if the same request was already committed with it
+     * @throws IllegalArgumentException if the key was committed with a different request
+     */
+    static boolean claim(StatementCache statementCache, String idempotencyKey, String request) throws SQLException {
+        PreparedStatement claim = statementCache.prepare(CLAIM_SQL);
+        claim.setString(1, idempotencyKey);
+        claim.setString(2, request);
+        if (claim.executeUpdate() > 0) {
+            return true;
+        }
+
+        // a new statement, so a new snapshot that sees the row the insert conflicted with
+        PreparedStatement select = statementCache.prepare(SELECT_REQUEST_SQL);
+        select.setString(1, idempotencyKey);
+        try (ResultSet resultSet = select.executeQuery()) {
+            resultSet.next();
+            requireSameRequest(idempotencyKey, resultSet.getString("request"), request);
+        }
+        return false;
+    }
+
+    static void requireValidKey(String idempotencyKey) {
+        if (idempotencyKey == null || idempotencyKey.isBlank() || idempotencyKey.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Idempotency key must be 1 to %d characters: %s"
+                    .formatted(MAX_KEY_LENGTH, idempotencyKey));
+        }
+    }
+
+    static void requireSameRequest(String idempotencyKey, String recorded, String request) {
+        if (!recorded.equals(request)) {
+            throw new IllegalArgumentException("Idempotency key %s was used for a different request: %s"
+                    .formatted(idempotencyKey, recorded));
+        }
+    }
+
+    static String withdrawal(int accountId, BigDecimal amount) {
+        return "withdrawal %d %s".formatted(accountId, format(amount));
+    }
+
+    static String transfers(List<Transfer> transfers) {
+        return transfers.stream()
+                .map(transfer -> "transfer %d %d %s".formatted(
+                        transfer.getFromAccountId(), transfer.getToAccountId(), format(transfer.getAmount())))
+                .collect(Collectors.joining("; "));
+    }
+
+    /**
+     * The same amount with a different scale, e.g. 100 and 100.00, is the same request.
+     */
+    private static String format(BigDecimal amount) {
+        return amount == null ? "null" : amount.stripTrailingZeros().toPlainString();
+    }
+}
@@ -0,0 +1,78 @@
+package org.codeus.database.fundamentals.transaction_management.dao;
+
+import lombok.RequiredArgsConstructor;
+import org.codeus.database.fundamentals.transaction_management.model.Account;
+import org.codeus.database.fundamentals.transaction_management.model.Transfer;
+import org.codeus.database.fundamentals.transaction_management.model.TransferBatchResult;
+import org.codeus.database.fundamentals.transaction_management.tx.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Runs every operation of another {@link BankingDao} again when it fails with a serialization failure or a
+ * deadlock, e.g. {@code transferMoney} (REPEATABLE READ) and {@code processLoanPayment} (SERIALIZABLE) under
+ * contention. The operations roll their transactions back on failure, so repeating them is safe.
+ */
+@RequiredArgsConstructor
+public class RetryingBankingDao implements BankingDao {
+
+    private final BankingDao delegate;
+    private final TransactionTemplate transactionTemplate;
+
+    @Override
+    public void createAccount(Account account) {
+        transactionTemplate.retry(() -> delegate.createAccount(account));
+    }
+
+    @Override
+    public void createAccounts(List<Account> accounts) {
+        transactionTemplate.retry(() -> delegate.createAccounts(accounts));
+    }
+
+    @Override
+    public void withdrawMoney(int accountId, BigDecimal amount) {
+        transactionTemplate.retry(() -> delegate.withdrawMoney(accountId, amount));
+    }
+
+    @Override
+    public BigDecimal withdrawMoneyReturningBalance(int accountId, BigDecimal amount) {
+        return transactionTemplate.retry(() -> delegate.withdrawMoneyReturningBalance(accountId, amount));
+    }
+
+    @Override
+    public boolean withdrawMoney(String idempotencyKey, int accountId, BigDecimal amount) {
+        return transactionTemplate.retry(() -> delegate.withdrawMoney(idempotencyKey, accountId, amount));
+    }
+
+    @Override
+    public void transferMoney(int fromAccountId, int toAccountId, BigDecimal amount) {
+        transactionTemplate.retry(() -> delegate.transferMoney(fromAccountId, toAccountId, amount));
+    }
+
+    @Override
+    public void processLoanPayment(int loanId, BigDecimal paymentAmount, String description) {
+        transactionTemplate.retry(() -> delegate.processLoanPayment(loanId, paymentAmount, description));
+    }
+
+    @Override
+    public TransferBatchResult transferMoneyBatch(List<Transfer> transfers) {
+        return transactionTemplate.retry(() -> delegate.transferMoneyBatch(transfers));
+    }
+
+    @Override
+    public boolean transferMoney(String idempotencyKey, int fromAccountId, int toAccountId, BigDecimal amount) {
+        return transactionTemplate.retry(
+                () -> delegate.transferMoney(idempotencyKey, fromAccountId, toAccountId, amount));
+    }
+
+    @Override
+    public Account getAccount(int accountId) {
+        return transactionTemplate.retry(() -> delegate.getAccount(accountId));
+    }
+
+    @Override
+    public BigDecimal getBalance(int accountId) {
+        return transactionTemplate.retry(() -> delegate.getBalance(accountId));
+    }
+}
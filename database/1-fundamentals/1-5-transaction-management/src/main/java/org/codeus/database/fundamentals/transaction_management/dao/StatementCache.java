@@ -0,0 +1,121 @@
+package org.codeus.database.fundamentals.transaction_management.dao;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGStatement;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the prepared statements of a connection open, so a DAO that runs the same few queries over and over
+ * prepares each of them once:
+ * <pre>
+ * PreparedStatement select = statementCache.prepare("SELECT balance FROM accounts WHERE account_id = ?");
+ * select.setInt(1, accountId);
+ * try (ResultSet resultSet = select.executeQuery()) { ... }
+ * </pre>
+ * The statements belong to the cache: do not close them, close the cache instead.
+ * <p>
+ * The PostgreSQL driver sends a query as a named server-side prepared statement only after it has been executed
+ * {@code prepareThreshold} times (5 by default); until then the server parses and plans it on every call.
+ * Cached statements use the threshold given here ({@value #DEFAULT_PREPARE_THRESHOLD} by default), so they are
+ * prepared on the server on their first execution and later calls skip parsing and planning.
+ * <p>
+ * At most {@code maxSize} statements are kept, the least recently used one is closed when there is no room left.
+ * Not thread-safe, just like the connection it belongs to.
+ */
+@Slf4j
+public class StatementCache implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_SIZE = 32;
+    public static final int DEFAULT_PREPARE_THRESHOLD = 1;
+    /**
+     * Leaves the threshold of the connection (the {@code prepareThreshold} driver property) as it is.
+     */
+    public static final int DRIVER_PREPARE_THRESHOLD = -1;
+
+    @Getter
+    private final Connection connection;
+    private final int prepareThreshold;
+    private final Map<String, PreparedStatement> statements;
+    @Getter
+    private long hits;
+    @Getter
+    private long misses;
+
+    public StatementCache(Connection connection) {
+        this(connection, DEFAULT_MAX_SIZE, DEFAULT_PREPARE_THRESHOLD);
+    }
+
+    /**
+     * @param maxSize          maximum number of statements kept open
+     * @param prepareThreshold executions after which a statement is prepared on the server, 0 to never do so,
+     *                         {@value #DRIVER_PREPARE_THRESHOLD} to keep the threshold of the connection
+     */
+    public StatementCache(Connection connection, int maxSize, int prepareThreshold) {
+        if (maxSize < 1 || prepareThreshold < DRIVER_PREPARE_THRESHOLD) {
+            throw new IllegalArgumentException(
+                    "Invalid statement cache settings: max size %d, prepare threshold %d".formatted(maxSize, prepareThreshold));
+        }
+        this.connection = connection;
+        this.prepareThreshold = prepareThreshold;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= maxSize) {
+                    return false;
+                }
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached statement for the query, preparing it on a miss. The parameters of a cached statement
+     * are cleared, so it can be used like a freshly prepared one.
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement != null && !statement.isClosed()) {
+            hits++;
+            statement.clearParameters();
+            return statement;
+        }
+        misses++;
+        statement = connection.prepareStatement(sql);
+        if (prepareThreshold != DRIVER_PREPARE_THRESHOLD && statement.isWrapperFor(PGStatement.class)) {
+            statement.unwrap(PGStatement.class).setPrepareThreshold(prepareThreshold);
+        }
+        statements.put(sql, statement);
+        return statement;
+    }
+
+    public int size() {
+        return statements.size();
+    }
+
+    /**
+     * Closes all cached statements. The connection stays open.
+     */
+    @Override
+    public void close() {
+        for (Iterator<PreparedStatement> iterator = statements.values().iterator(); iterator.hasNext(); ) {
+            closeQuietly(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            log.warn("Failed to close a cached statement", e);
+        }
+    }
+}
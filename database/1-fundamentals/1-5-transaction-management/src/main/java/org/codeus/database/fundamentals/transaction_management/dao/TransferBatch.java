@@ -0,0 +1,230 @@
+package org.codeus.database.fundamentals.transaction_management.dao;
+
+import org.codeus.database.fundamentals.transaction_management.error.AccountNotFoundException;
+import org.codeus.database.fundamentals.transaction_management.error.DaoOperationException;
+import org.codeus.database.fundamentals.transaction_management.error.InsufficientFundsException;
+import org.codeus.database.fundamentals.transaction_management.ledger.WriteBehindLedger;
+import org.codeus.database.fundamentals.transaction_management.model.LedgerEntry;
+import org.codeus.database.fundamentals.transaction_management.model.Transfer;
+import org.codeus.database.fundamentals.transaction_management.model.TransferBatchResult;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Applies many transfers in one transaction with a fixed number of statements, whatever the batch size:
+ * <ol>
+ * <li>locks all accounts of the batch with {@link AccountLocks}, so concurrent batches and single transfers
+ * that lock the same way cannot deadlock;</li>
+ * <li>checks the transfers one by one in batch order against the locked balances, rejecting the invalid ones;</li>
+ * <li>applies the net balance change of every account with one set-based {@code UPDATE ... FROM};</li>
+ * <li>inserts the two ledger rows of every applied transfer with one {@code INSERT ... SELECT}, or appends them
+ * to a {@link WriteBehindLedger} after the commit.</li>
+ * </ol>
+ * Rows are passed as arrays and expanded with {@code unnest}, which unlike a {@code VALUES} list keeps the number
+ * of bind parameters constant (PostgreSQL allows at most 65535 per statement), and the query text too, so the
+ * statements are prepared once per {@link StatementCache} whatever the batch size.
+ */
+class TransferBatch {
+
+    private static final String UPDATE_BALANCES_SQL = """
+            UPDATE accounts
+            SET balance = accounts.balance + changes.delta
+            FROM unnest(?::integer[], ?::numeric[]) AS changes(account_id, delta)
+            WHERE accounts.account_id = changes.account_id""";
+    private static final String TRANSFER = "transfer";
+    private static final String INSERT_TRANSACTIONS_SQL = """
+            INSERT INTO transactions (account_id, transaction_type, amount, description)
+            SELECT account_id, transaction_type, amount, description
+            FROM unnest(?::integer[], ?::varchar[], ?::numeric[], ?::text[])
+                     AS ledger(account_id, transaction_type, amount, description)""";
+
+    private final Connection connection;
+    private final StatementCache statementCache;
+    private final WriteBehindLedger ledger;
+
+    /**
+     * @param ledger where to append the ledger rows after the commit, {@code null} to insert them in the transaction
+     */
+    TransferBatch(StatementCache statementCache, WriteBehindLedger ledger) {
+        this.connection = statementCache.getConnection();
+        this.statementCache = statementCache;
+        this.ledger = ledger;
+    }
+
+    TransferBatchResult execute(List<Transfer> transfers) {
+        return execute(transfers, null);
+    }
+
+    /**
+     * Like {@link #execute(List)}, but first claims the idempotency key with {@link OperationLog} in the same
+     * transaction, and applies the batch only if all its transfers can be applied, so that a rejected batch leaves
+     * the key free for a retry.
+     *
+     * @param idempotencyKey the key of the batch, {@code null} for none
+     * @return {@code null} if the same batch was already committed with the key
+     */
+    TransferBatchResult execute(List<Transfer> transfers, String idempotencyKey) {
+        List<TransferBatchResult.Failure> failures = new ArrayList<>();
+        SortedSet<Integer> accountIds = new TreeSet<>();
+        boolean[] rejected = new boolean[transfers.size()];
+        for (int i = 0; i < transfers.size(); i++) {
+            Transfer transfer = transfers.get(i);
+            IllegalArgumentException invalid = validate(transfer);
+            if (invalid != null) {
+                rejected[i] = true;
+                failures.add(new TransferBatchResult.Failure(i, transfer, invalid));
+            } else {
+                accountIds.add(transfer.getFromAccountId());
+                accountIds.add(transfer.getToAccountId());
+            }
+        }
+        if (accountIds.isEmpty()) {
+            return new TransferBatchResult(0, failures);
+        }
+
+        List<LedgerEntry> ledgerEntries;
+        try {
+            connection.setAutoCommit(false);
+            connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            if (idempotencyKey != null
+                    && !OperationLog.claim(statementCache, idempotencyKey, OperationLog.transfers(transfers))) {
+                connection.rollback();
+                return null;
+            }
+
+            Map<Integer, BigDecimal> balances = AccountLocks.lockForUpdate(statementCache, accountIds);
+            Map<Integer, BigDecimal> deltas = new TreeMap<>();
+            List<Transfer> applied = new ArrayList<>();
+            for (int i = 0; i < transfers.size(); i++) {
+                if (rejected[i]) {
+                    continue;
+                }
+                Transfer transfer = transfers.get(i);
+                RuntimeException error = apply(transfer, balances, deltas);
+                if (error != null) {
+                    failures.add(new TransferBatchResult.Failure(i, transfer, error));
+                } else {
+                    applied.add(transfer);
+                }
+            }
+
+            if (idempotencyKey != null && !failures.isEmpty()) {
+                connection.rollback();
+                failures.sort(Comparator.comparingInt(TransferBatchResult.Failure::index));
+                return new TransferBatchResult(0, failures);
+            }
+
+            ledgerEntries = ledgerEntries(applied);
+            if (!applied.isEmpty()) {
+                updateBalances(deltas);
+                if (ledger == null) {
+                    insertLedgerRows(ledgerEntries);
+                }
+            }
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackException) {
+                rollbackException.addSuppressed(e);
+                throw new DaoOperationException("Failed to rollback transfer batch", rollbackException);
+            }
+            if (e instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new DaoOperationException("Failed to execute transfer batch", e);
+        }
+
+        if (ledger != null && !ledgerEntries.isEmpty()) {
+            ledger.append(ledgerEntries);
+        }
+        failures.sort(Comparator.comparingInt(TransferBatchResult.Failure::index));
+        return new TransferBatchResult(transfers.size() - failures.size(), failures);
+    }
+
+    private static IllegalArgumentException validate(Transfer transfer) {
+        if (transfer.getAmount() == null || transfer.getAmount().signum() <= 0) {
+            return new IllegalArgumentException("Transfer amount must be positive: " + transfer.getAmount());
+        }
+        if (transfer.getFromAccountId() == transfer.getToAccountId()) {
+            return new IllegalArgumentException("Cannot transfer to the same account " + transfer.getFromAccountId());
+        }
+        return null;
+    }
+
+    /**
+     * Applies the transfer to the running balances, so a later transfer of the batch can spend what an earlier one
+     * brought in, exactly as if the transfers had been made one by one.
+     */
+    private static RuntimeException apply(Transfer transfer, Map<Integer, BigDecimal> balances,
+                                          Map<Integer, BigDecimal> deltas) {
+        BigDecimal fromBalance = balances.get(transfer.getFromAccountId());
+        if (fromBalance == null) {
+            return new AccountNotFoundException("Account with id %d not found".formatted(transfer.getFromAccountId()));
+        }
+        BigDecimal toBalance = balances.get(transfer.getToAccountId());
+        if (toBalance == null) {
+            return new AccountNotFoundException("Account with id %d not found".formatted(transfer.getToAccountId()));
+        }
+        BigDecimal amount = transfer.getAmount();
+        if (fromBalance.compareTo(amount) < 0) {
+            return new InsufficientFundsException("Account with id %d has insufficient funds: %s < %s"
+                    .formatted(transfer.getFromAccountId(), fromBalance, amount));
+        }
+
+        balances.put(transfer.getFromAccountId(), fromBalance.subtract(amount));
+        balances.put(transfer.getToAccountId(), toBalance.add(amount));
+        deltas.merge(transfer.getFromAccountId(), amount.negate(), BigDecimal::add);
+        deltas.merge(transfer.getToAccountId(), amount, BigDecimal::add);
+        return null;
+    }
+
+    private void updateBalances(Map<Integer, BigDecimal> deltas) throws SQLException {
+        PreparedStatement update = statementCache.prepare(UPDATE_BALANCES_SQL);
+        update.setArray(1, connection.createArrayOf("integer", deltas.keySet().toArray()));
+        update.setArray(2, connection.createArrayOf("numeric", deltas.values().toArray()));
+        update.executeUpdate();
+    }
+
+    private static List<LedgerEntry> ledgerEntries(List<Transfer> applied) {
+        List<LedgerEntry> entries = new ArrayList<>(applied.size() * 2);
+        for (Transfer transfer : applied) {
+            entries.add(new LedgerEntry(transfer.getFromAccountId(), TRANSFER, transfer.getAmount(),
+                    "Transfer to " + transfer.getToAccountId()));
+            entries.add(new LedgerEntry(transfer.getToAccountId(), TRANSFER, transfer.getAmount(),
+                    "Transfer from " + transfer.getFromAccountId()));
+        }
+        return entries;
+    }
+
+    private void insertLedgerRows(List<LedgerEntry> entries) throws SQLException {
+        Object[] accountIds = new Object[entries.size()];
+        Object[] transactionTypes = new Object[entries.size()];
+        Object[] amounts = new Object[entries.size()];
+        Object[] descriptions = new Object[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            LedgerEntry entry = entries.get(i);
+            accountIds[i] = entry.getAccountId();
+            transactionTypes[i] = entry.getTransactionType();
+            amounts[i] = entry.getAmount();
+            descriptions[i] = entry.getDescription();
+        }
+
+        PreparedStatement insert = statementCache.prepare(INSERT_TRANSACTIONS_SQL);
+        insert.setArray(1, connection.createArrayOf("integer", accountIds));
+        insert.setArray(2, connection.createArrayOf("varchar", transactionTypes));
+        insert.setArray(3, connection.createArrayOf("numeric", amounts));
+        insert.setArray(4, connection.createArrayOf("text", descriptions));
+        insert.executeUpdate();
+    }
+}
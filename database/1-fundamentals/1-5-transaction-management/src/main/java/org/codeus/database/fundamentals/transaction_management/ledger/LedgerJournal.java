@@ -0,0 +1,168 @@
+package org.codeus.database.fundamentals.transaction_management.ledger;
+
+import org.codeus.database.fundamentals.transaction_management.model.LedgerEntry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The local file that keeps ledger entries until they are in the database. Every entry record is forced to disk
+ * before {@link #append} returns; a {@code flushed} record marks the entries up to a sequence number as written
+ * to the database.
+ * <p>
+ * A crash can leave half a record at the end of the file. It is ignored on {@link #recover}, which rewrites
+ * the journal with the pending entries only: into a temporary file first, which then replaces the journal with an
+ * atomic move, so a crash during the rewrite leaves either the old journal or the new one, never a partial one.
+ */
+class LedgerJournal implements Closeable {
+
+    private static final byte ENTRY = 1;
+    private static final byte FLUSHED = 2;
+    private static final int MAX_STRING_BYTES = 1 << 20;
+
+    private final FileChannel channel;
+    private final DataOutputStream out;
+
+    private LedgerJournal(Path file, OpenOption... options) throws IOException {
+        this.channel = FileChannel.open(file, options);
+        this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+    }
+
+    /**
+     * Opens the journal, creating it if needed, and returns it with the entries that were never flushed,
+     * in the order they were appended.
+     */
+    static Recovered recover(Path file) throws IOException {
+        List<Pending> pending = Files.exists(file) ? readPending(file) : List.of();
+        Path rewritten = file.resolveSibling(file.getFileName() + ".recovering");
+        try (LedgerJournal journal = new LedgerJournal(rewritten, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (Pending entry : pending) {
+                journal.write(entry);
+            }
+            journal.force();
+        }
+        Files.move(rewritten, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        LedgerJournal journal = new LedgerJournal(file, StandardOpenOption.WRITE);
+        journal.channel.position(journal.channel.size());
+        return new Recovered(journal, pending);
+    }
+
+    synchronized void append(List<Pending> entries) throws IOException {
+        for (Pending entry : entries) {
+            write(entry);
+        }
+        force();
+    }
+
+    synchronized void markFlushed(long sequence) throws IOException {
+        out.writeByte(FLUSHED);
+        out.writeLong(sequence);
+        force();
+    }
+
+    /**
+     * Empties the journal; only safe when every appended entry has been flushed.
+     */
+    synchronized void truncate() throws IOException {
+        out.flush();
+        channel.truncate(0);
+        channel.position(0);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    private void write(Pending entry) throws IOException {
+        LedgerEntry ledgerEntry = entry.entry();
+        out.writeByte(ENTRY);
+        out.writeLong(entry.sequence());
+        out.writeLong(entry.recordedAt().getEpochSecond());
+        out.writeInt(entry.recordedAt().getNano());
+        out.writeInt(ledgerEntry.getAccountId());
+        writeString(ledgerEntry.getTransactionType());
+        writeString(ledgerEntry.getAmount().toPlainString());
+        writeString(ledgerEntry.getDescription());
+    }
+
+    private void force() throws IOException {
+        out.flush();
+        channel.force(false);
+    }
+
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static List<Pending> readPending(Path file) throws IOException {
+        List<Pending> entries = new ArrayList<>();
+        try (InputStream stream = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+            while (true) {
+                int type = in.read();
+                if (type == ENTRY) {
+                    long sequence = in.readLong();
+                    Instant recordedAt = Instant.ofEpochSecond(in.readLong(), in.readInt());
+                    LedgerEntry entry = new LedgerEntry(in.readInt(), readString(in), new BigDecimal(readString(in)),
+                            readString(in));
+                    entries.add(new Pending(sequence, recordedAt, entry));
+                } else if (type == FLUSHED) {
+                    long flushed = in.readLong();
+                    entries.removeIf(entry -> entry.sequence() <= flushed);
+                } else {
+                    // end of file, or a record torn by a crash
+                    return entries;
+                }
+            }
+        } catch (EOFException | NumberFormatException e) {
+            return entries;
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = in.readNBytes(Math.min(length, MAX_STRING_BYTES));
+        if (bytes.length < length) {
+            throw new EOFException("Torn journal record");
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A journaled entry that may not be in the database yet.
+     */
+    record Pending(long sequence, Instant recordedAt, LedgerEntry entry) {
+    }
+
+    record Recovered(LedgerJournal journal, List<Pending> pending) {
+    }
+}
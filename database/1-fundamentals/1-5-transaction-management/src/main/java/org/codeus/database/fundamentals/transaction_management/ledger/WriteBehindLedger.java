@@ -0,0 +1,382 @@
+package org.codeus.database.fundamentals.transaction_management.ledger;
+
+import lombok.extern.slf4j.Slf4j;
+import org.codeus.database.fundamentals.transaction_management.error.DaoOperationException;
+import org.codeus.database.fundamentals.transaction_management.model.LedgerEntry;
+import org.postgresql.PGConnection;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes ledger rows to the <code>transactions</code> table in the background, so the transaction that moves
+ * the money does not have to insert them:
+ * <pre>
+ * try (WriteBehindLedger ledger = new WriteBehindLedger(dataSource, Path.of("ledger.journal"))) {
+ *     BankingDao dao = new BankingDaoImpl(connection, ledger);
+ *     ...
+ * }
+ * </pre>
+ * {@link #append} forces the entries to a local journal file and queues them; a writer thread sends the queue to
+ * the database in batches with <code>COPY</code>. The queue holds at most {@code capacity} entries: when it is
+ * full, {@link #append} waits for the writer to catch up.
+ * <p>
+ * {@link #close()} flushes everything queued before it returns. If the process dies first, or the database stays
+ * unreachable, the entries remain in the journal and are queued again when a ledger is opened on the same file.
+ * An entry can then be written twice, if the process died between its <code>COPY</code> and the journal record
+ * saying so. The journal is written after the money-moving transaction has committed, so a crash between the
+ * two loses the entry: use this only for rows that are an audit trail, not the source of truth of a balance.
+ */
+@Slf4j
+public class WriteBehindLedger implements AutoCloseable {
+
+    public static final int DEFAULT_CAPACITY = 10_000;
+    public static final int DEFAULT_BATCH_SIZE = 1_000;
+    public static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofMillis(50);
+    public static final Duration DEFAULT_CLOSE_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final String COPY_SQL = """
+            COPY transactions (account_id, transaction_type, amount, transaction_date, description)
+            FROM STDIN (FORMAT csv)""";
+    private static final long MAX_RETRY_BACKOFF_MILLIS = 1_000;
+
+    private final DataSource dataSource;
+    private final LedgerJournal journal;
+    private final int capacity;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final Duration closeTimeout;
+    private final Semaphore freeSlots;
+    private final BlockingQueue<LedgerJournal.Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private final Object flushMonitor = new Object();
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder backpressureWaits = new LongAdder();
+    private long lastSequence;
+    private volatile long flushedSequence;
+    private volatile boolean closed;
+    private volatile boolean abandoned;
+
+    public WriteBehindLedger(DataSource dataSource, Path journalFile) {
+        this(dataSource, journalFile, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL, DEFAULT_CLOSE_TIMEOUT);
+    }
+
+    /**
+     * @param capacity      maximum number of entries waiting for the writer
+     * @param batchSize     maximum number of entries sent with one <code>COPY</code>
+     * @param flushInterval how long the writer waits for more entries before it checks for {@link #close()}
+     * @param closeTimeout  how long {@link #close()} waits for the queue to be written
+     */
+    public WriteBehindLedger(DataSource dataSource, Path journalFile, int capacity, int batchSize,
+                             Duration flushInterval, Duration closeTimeout) {
+        if (capacity < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Invalid ledger settings: capacity %d, batch size %d"
+                    .formatted(capacity, batchSize));
+        }
+        this.dataSource = dataSource;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.closeTimeout = closeTimeout;
+
+        LedgerJournal.Recovered recovered;
+        try {
+            recovered = LedgerJournal.recover(journalFile);
+        } catch (IOException e) {
+            throw new DaoOperationException("Failed to open ledger journal " + journalFile, e);
+        }
+        this.journal = recovered.journal();
+        List<LedgerJournal.Pending> pending = recovered.pending();
+        if (!pending.isEmpty()) {
+            log.info("Recovered {} ledger entries from {}", pending.size(), journalFile);
+            lastSequence = pending.get(pending.size() - 1).sequence();
+            flushedSequence = pending.get(0).sequence() - 1;
+            queue.addAll(pending);
+        }
+        // recovered entries may take more than the capacity, new ones wait until they are written
+        this.freeSlots = new Semaphore(capacity - pending.size());
+
+        this.writer = new Thread(this::writeLoop, "ledger-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Journals the entries and queues them for the writer, waiting while the queue is full.
+     *
+     * @throws DaoOperationException if the journal cannot be written or the thread is interrupted while waiting
+     * @throws IllegalStateException if the ledger is closed, also when it is closed while this waits for room
+     */
+    public void append(List<LedgerEntry> entries) {
+        Instant recordedAt = Instant.now();
+        for (int from = 0; from < entries.size(); from += capacity) {
+            List<LedgerEntry> chunk = entries.subList(from, Math.min(entries.size(), from + capacity));
+            acquireSlots(chunk.size());
+            try {
+                journalAndQueue(chunk, recordedAt);
+            } catch (RuntimeException e) {
+                freeSlots.release(chunk.size());
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Waits until everything appended so far is in the database.
+     *
+     * @throws DaoOperationException if the writer stopped or the thread is interrupted while waiting
+     */
+    public void flush() {
+        long target;
+        synchronized (this) {
+            target = lastSequence;
+        }
+        synchronized (flushMonitor) {
+            while (flushedSequence < target) {
+                if (!writer.isAlive()) {
+                    throw new DaoOperationException("Ledger writer stopped with unwritten entries");
+                }
+                try {
+                    flushMonitor.wait(TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos) + 1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DaoOperationException("Interrupted while flushing the ledger", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops accepting entries and waits for the queue to be written. Entries still queued after the close timeout
+     * stay in the journal.
+     */
+    @Override
+    public void close() {
+        // under the monitor of journalAndQueue, so nothing is queued after the writer has seen the flag
+        synchronized (this) {
+            closed = true;
+        }
+        try {
+            writer.join(closeTimeout.toMillis());
+            if (writer.isAlive()) {
+                log.warn("Ledger writer did not finish in {}, {} entries stay in the journal", closeTimeout, queue.size());
+                abandoned = true;
+                writer.interrupt();
+                writer.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // wakes the appenders still waiting for room, they find the ledger closed
+            freeSlots.release(capacity);
+            try {
+                journal.close();
+            } catch (IOException e) {
+                log.warn("Failed to close ledger journal", e);
+            }
+        }
+    }
+
+    public long getAppended() {
+        return appended.sum();
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public long getFailedBatches() {
+        return failedBatches.sum();
+    }
+
+    /**
+     * Entries the database refused, e.g. for a missing account; they are logged and not retried. The other entries
+     * of their batch are written.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Number of {@link #append} calls that had to wait for room in the queue.
+     */
+    public long getBackpressureWaits() {
+        return backpressureWaits.sum();
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+
+    private void acquireSlots(int count) {
+        if (closed) {
+            throw new IllegalStateException("Ledger is closed");
+        }
+        try {
+            if (!freeSlots.tryAcquire(count)) {
+                backpressureWaits.increment();
+                freeSlots.acquire(count);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DaoOperationException("Interrupted while waiting for room in the ledger queue", e);
+        }
+    }
+
+    private synchronized void journalAndQueue(List<LedgerEntry> entries, Instant recordedAt) {
+        if (closed) {
+            throw new IllegalStateException("Ledger is closed");
+        }
+        List<LedgerJournal.Pending> pending = new ArrayList<>(entries.size());
+        for (LedgerEntry entry : entries) {
+            pending.add(new LedgerJournal.Pending(lastSequence + pending.size() + 1, recordedAt, entry));
+        }
+        try {
+            journal.append(pending);
+        } catch (IOException e) {
+            throw new DaoOperationException("Failed to write ledger journal", e);
+        }
+        lastSequence += pending.size();
+        queue.addAll(pending);
+        appended.add(pending.size());
+    }
+
+    private void writeLoop() {
+        List<LedgerJournal.Pending> batch = new ArrayList<>(batchSize);
+        while (!abandoned) {
+            try {
+                LedgerJournal.Pending first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    if (closed && queue.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                writeWithRetry(batch);
+                batch.clear();
+            } catch (InterruptedException e) {
+                if (abandoned) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the batch, retrying until the database takes it. When the database rejects the data of a batch, the
+     * batch is split in halves until the rejected entries are isolated, so only those are dropped; the pieces not
+     * written yet are what a retry after a connection failure sends.
+     */
+    private void writeWithRetry(List<LedgerJournal.Pending> batch) throws InterruptedException {
+        Deque<List<LedgerJournal.Pending>> unwritten = new ArrayDeque<>();
+        unwritten.push(batch);
+        for (int attempt = 1; !unwritten.isEmpty(); ) {
+            List<LedgerJournal.Pending> rows = unwritten.peek();
+            try {
+                copy(rows);
+                unwritten.pop();
+                written.add(rows.size());
+                continue;
+            } catch (SQLException e) {
+                failedBatches.increment();
+                if (isBadData(e)) {
+                    // retrying would block the ledger forever
+                    unwritten.pop();
+                    if (rows.size() == 1) {
+                        log.error("Dropping a ledger entry the database rejects: {}", rows.get(0), e);
+                        dropped.increment();
+                    } else {
+                        int middle = rows.size() / 2;
+                        unwritten.push(rows.subList(middle, rows.size()));
+                        unwritten.push(rows.subList(0, middle));
+                    }
+                    continue;
+                }
+                log.warn("Failed to write {} ledger entries (attempt {})", rows.size(), attempt, e);
+            } catch (IOException e) {
+                failedBatches.increment();
+                log.warn("Failed to write {} ledger entries (attempt {})", rows.size(), attempt, e);
+            }
+            TimeUnit.MILLISECONDS.sleep(Math.min(MAX_RETRY_BACKOFF_MILLIS, 10L << Math.min(attempt, 10)));
+            attempt++;
+        }
+
+        long sequence = batch.get(batch.size() - 1).sequence();
+        try {
+            journal.markFlushed(sequence);
+            truncateJournalIfDrained(sequence);
+        } catch (IOException e) {
+            // the entries will be written again after a restart
+            log.warn("Failed to mark ledger entries up to {} as written", sequence, e);
+        }
+        batches.increment();
+        freeSlots.release(batch.size());
+        synchronized (flushMonitor) {
+            flushedSequence = sequence;
+            flushMonitor.notifyAll();
+        }
+    }
+
+    private synchronized void truncateJournalIfDrained(long sequence) throws IOException {
+        if (sequence == lastSequence) {
+            journal.truncate();
+        }
+    }
+
+    private void copy(List<LedgerJournal.Pending> batch) throws SQLException, IOException {
+        StringBuilder csv = new StringBuilder(batch.size() * 64);
+        for (LedgerJournal.Pending pending : batch) {
+            LedgerEntry entry = pending.entry();
+            csv.append(entry.getAccountId()).append(',');
+            appendQuoted(csv, entry.getTransactionType()).append(',');
+            csv.append(entry.getAmount().toPlainString()).append(',');
+            appendQuoted(csv, Timestamp.from(pending.recordedAt()).toString()).append(',');
+            if (entry.getDescription() != null) {
+                appendQuoted(csv, entry.getDescription());
+            }
+            csv.append('\n');
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(true);
+            connection.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_SQL, new StringReader(csv.toString()));
+        }
+    }
+
+    /**
+     * Data exceptions (class 22) and integrity constraint violations (class 23) fail again on every retry.
+     */
+    private static boolean isBadData(SQLException e) {
+        String sqlState = e.getSQLState();
+        return sqlState != null && (sqlState.startsWith("22") || sqlState.startsWith("23"));
+    }
+
+    private static StringBuilder appendQuoted(StringBuilder csv, String value) {
+        return csv.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+}
@@ -0,0 +1,25 @@
+package org.codeus.database.fundamentals.transaction_management.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.math.BigDecimal;
+
+/**
+ * A row of the <code>transactions</code> table.
+ */
+@Getter
+@Builder
+@AllArgsConstructor
+@EqualsAndHashCode
+@ToString
+public class LedgerEntry {
+
+    private final int accountId;
+    private final String transactionType;
+    private final BigDecimal amount;
+    private final String description;
+}
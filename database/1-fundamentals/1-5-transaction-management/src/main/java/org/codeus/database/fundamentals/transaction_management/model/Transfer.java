@@ -0,0 +1,21 @@
+package org.codeus.database.fundamentals.transaction_management.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.math.BigDecimal;
+
+@Getter
+@Builder
+@AllArgsConstructor
+@EqualsAndHashCode
+@ToString
+public class Transfer {
+
+    private final int fromAccountId;
+    private final int toAccountId;
+    private final BigDecimal amount;
+}
@@ -0,0 +1,34 @@
+package org.codeus.database.fundamentals.transaction_management.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * Outcome of a batch of transfers: how many were applied and which ones were rejected and why.
+ */
+@Getter
+@AllArgsConstructor
+@ToString
+public class TransferBatchResult {
+
+    private final int appliedCount;
+    private final List<Failure> failures;
+
+    public boolean isFullyApplied() {
+        return failures.isEmpty();
+    }
+
+    /**
+     * A rejected transfer.
+     *
+     * @param index    position of the transfer in the batch
+     * @param transfer the rejected transfer
+     * @param error    the exception the single-transfer API would have thrown, e.g.
+     *                 {@link org.codeus.database.fundamentals.transaction_management.error.InsufficientFundsException}
+     */
+    public record Failure(int index, Transfer transfer, RuntimeException error) {
+    }
+}
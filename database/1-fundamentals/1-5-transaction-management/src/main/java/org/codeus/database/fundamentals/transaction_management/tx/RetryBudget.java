@@ -0,0 +1,69 @@
+package org.codeus.database.fundamentals.transaction_management.tx;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits retries to a share of the transactions started, so a hot spot that makes most transactions fail
+ * does not multiply the load on the database with retries of retries.
+ * <p>
+ * Every transaction deposits {@code retryRatio} of a retry into the budget, every retry withdraws a whole one.
+ * The budget starts with {@code minRetries} retries, so a quiet system still retries its occasional failure,
+ * and never holds more than {@code maxRetries}, so a long calm period does not allow a retry storm later.
+ * Thread-safe, meant to be shared by all transactions of a data source.
+ */
+public class RetryBudget {
+
+    private static final long SCALE = 1000;
+
+    private final long depositPerTransaction;
+    private final long maxBalance;
+    private final AtomicLong balance;
+
+    /**
+     * @param retryRatio retries allowed per transaction on average, e.g. 0.2
+     * @param minRetries retries available up front
+     * @param maxRetries the most retries the budget can accumulate
+     */
+    public RetryBudget(double retryRatio, int minRetries, int maxRetries) {
+        if (retryRatio < 0 || minRetries < 0 || maxRetries < minRetries) {
+            throw new IllegalArgumentException("Invalid retry budget: ratio " + retryRatio
+                    + ", min " + minRetries + ", max " + maxRetries);
+        }
+        this.depositPerTransaction = Math.round(retryRatio * SCALE);
+        this.maxBalance = maxRetries * SCALE;
+        this.balance = new AtomicLong(minRetries * SCALE);
+    }
+
+    /**
+     * One retry per five transactions on average, 10 retries up front, at most 100 saved up.
+     */
+    public static RetryBudget defaults() {
+        return new RetryBudget(0.2, 10, 100);
+    }
+
+    /**
+     * A budget that never runs out.
+     */
+    public static RetryBudget unlimited() {
+        return new RetryBudget(0, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    void deposit() {
+        balance.accumulateAndGet(depositPerTransaction, (current, deposit) -> Math.min(maxBalance, current + deposit));
+    }
+
+    boolean tryWithdraw() {
+        long current;
+        do {
+            current = balance.get();
+            if (current < SCALE) {
+                return false;
+            }
+        } while (!balance.compareAndSet(current, current - SCALE));
+        return true;
+    }
+
+    public double getAvailableRetries() {
+        return (double) balance.get() / SCALE;
+    }
+}
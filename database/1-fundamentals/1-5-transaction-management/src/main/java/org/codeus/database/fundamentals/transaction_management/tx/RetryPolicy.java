@@ -0,0 +1,88 @@
+package org.codeus.database.fundamentals.transaction_management.tx;
+
+import lombok.Builder;
+import lombok.Getter;
+
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides which failed transactions are worth running again and how long to wait before the next attempt.
+ * <p>
+ * By default only the failures PostgreSQL asks to retry are retried:
+ * <ul>
+ * <li><code>40001</code> serialization_failure - a REPEATABLE READ or SERIALIZABLE transaction lost a race;</li>
+ * <li><code>40P01</code> deadlock_detected - the transaction was chosen as the deadlock victim.</li>
+ * </ul>
+ * The wait grows exponentially from {@code initialBackoffMillis} up to {@code maxBackoffMillis} and is randomized
+ * ("full jitter"), so transactions that failed together do not collide again on the next attempt.
+ */
+@Getter
+@Builder
+public class RetryPolicy {
+
+    public static final String SERIALIZATION_FAILURE = "40001";
+    public static final String DEADLOCK_DETECTED = "40P01";
+
+    /**
+     * Attempts in total, the first one included.
+     */
+    @Builder.Default
+    private final int maxAttempts = 5;
+    @Builder.Default
+    private final long initialBackoffMillis = 5;
+    @Builder.Default
+    private final long maxBackoffMillis = 500;
+    @Builder.Default
+    private final Set<String> retryableSqlStates = Set.of(SERIALIZATION_FAILURE, DEADLOCK_DETECTED);
+
+    public static RetryPolicy defaults() {
+        return RetryPolicy.builder().build();
+    }
+
+    public static RetryPolicy noRetries() {
+        return RetryPolicy.builder().maxAttempts(1).build();
+    }
+
+    /**
+     * Looks for a retryable SQLSTATE in the exception, its causes and chained SQL exceptions,
+     * so failures wrapped into {@link org.codeus.database.fundamentals.transaction_management.error.DaoOperationException}
+     * are recognized as well.
+     */
+    public boolean isRetryable(Throwable failure) {
+        return findSqlState(failure) != null;
+    }
+
+    /**
+     * @return the first retryable SQLSTATE found in the exception chain, {@code null} if there is none
+     */
+    public String findSqlState(Throwable failure) {
+        for (Throwable current = failure; current != null; current = current.getCause()) {
+            if (current instanceof SQLException) {
+                for (SQLException sqlException = (SQLException) current; sqlException != null;
+                     sqlException = sqlException.getNextException()) {
+                    if (retryableSqlStates.contains(sqlException.getSQLState())) {
+                        return sqlException.getSQLState();
+                    }
+                }
+            }
+            if (current.getCause() == current) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param attempt the attempt that has just failed, starting from 1
+     * @return a random wait between 0 and the exponential backoff for this attempt
+     */
+    public long backoffMillis(int attempt) {
+        long ceiling = initialBackoffMillis << Math.min(attempt - 1, 30);
+        if (ceiling <= 0 || ceiling > maxBackoffMillis) {
+            ceiling = maxBackoffMillis;
+        }
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+}
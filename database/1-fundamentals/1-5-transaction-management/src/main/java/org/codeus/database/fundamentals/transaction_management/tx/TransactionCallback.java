@@ -0,0 +1,15 @@
+package org.codeus.database.fundamentals.transaction_management.tx;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+@FunctionalInterface
+public interface TransactionCallback<T> {
+
+    /**
+     * Does the work of one attempt. May be called several times, so it must not keep state between calls.
+     *
+     * @param connection the connection with the transaction started
+     */
+    T doInTransaction(Connection connection) throws SQLException;
+}
@@ -0,0 +1,100 @@
+package org.codeus.database.fundamentals.transaction_management.tx;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a {@link TransactionTemplate}: how many transactions committed, failed, needed retries and why.
+ * Thread-safe, cheap enough to update on every transaction.
+ */
+public class TransactionMetrics {
+
+    private final LongAdder committed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder retriesExhausted = new LongAdder();
+    private final LongAdder budgetExhausted = new LongAdder();
+    private final Map<String, LongAdder> retriesBySqlState = new ConcurrentHashMap<>();
+    private final Map<Integer, LongAdder> committedByAttempts = new ConcurrentHashMap<>();
+
+    void recordCommit(int attemptCount) {
+        committed.increment();
+        attempts.add(attemptCount);
+        committedByAttempts.computeIfAbsent(attemptCount, key -> new LongAdder()).increment();
+    }
+
+    void recordRetry(String sqlState) {
+        retries.increment();
+        retriesBySqlState.computeIfAbsent(sqlState, key -> new LongAdder()).increment();
+    }
+
+    void recordFailure(int attemptCount, boolean retryable, boolean outOfBudget) {
+        failed.increment();
+        attempts.add(attemptCount);
+        if (outOfBudget) {
+            budgetExhausted.increment();
+        } else if (retryable) {
+            retriesExhausted.increment();
+        }
+    }
+
+    public long getCommitted() {
+        return committed.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * Attempts made by all finished transactions, committed or failed.
+     */
+    public long getAttempts() {
+        return attempts.sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * Transactions that failed with a retryable error on their last allowed attempt.
+     */
+    public long getRetriesExhausted() {
+        return retriesExhausted.sum();
+    }
+
+    /**
+     * Transactions that failed with a retryable error, but were not retried because the retry budget was empty.
+     */
+    public long getBudgetExhausted() {
+        return budgetExhausted.sum();
+    }
+
+    public Map<String, Long> getRetriesBySqlState() {
+        return snapshot(retriesBySqlState);
+    }
+
+    /**
+     * Number of committed transactions by the attempt they committed on, e.g. {@code {1=950, 2=45, 3=5}}.
+     */
+    public Map<Integer, Long> getCommittedByAttempts() {
+        return snapshot(committedByAttempts);
+    }
+
+    @Override
+    public String toString() {
+        return "committed " + getCommitted() + ", failed " + getFailed() + ", retries " + getRetries()
+                + " " + getRetriesBySqlState() + ", retries exhausted " + getRetriesExhausted()
+                + ", budget exhausted " + getBudgetExhausted() + ", committed by attempts " + getCommittedByAttempts();
+    }
+
+    private static <K extends Comparable<K>> Map<K, Long> snapshot(Map<K, LongAdder> counters) {
+        Map<K, Long> result = new TreeMap<>();
+        counters.forEach((key, counter) -> result.put(key, counter.sum()));
+        return result;
+    }
+}
@@ -0,0 +1,166 @@
+package org.codeus.database.fundamentals.transaction_management.tx;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.codeus.database.fundamentals.transaction_management.error.DaoOperationException;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs transactions and retries the ones that failed because of concurrent transactions.
+ * <p>
+ * Under contention REPEATABLE READ and SERIALIZABLE transactions fail with serialization failures and any
+ * transaction may become a deadlock victim. Both are expected: the database has rolled the transaction back and
+ * running it again usually succeeds. The template retries such failures according to its {@link RetryPolicy},
+ * as long as the shared {@link RetryBudget} allows, and counts attempts in its {@link TransactionMetrics}.
+ * Any other exception is rethrown right away.
+ * <pre>
+ * BigDecimal balance = template.execute(Connection.TRANSACTION_SERIALIZABLE, connection -&gt; {
+ *     ... // read and update, may be called more than once
+ * });
+ * </pre>
+ */
+@Slf4j
+public class TransactionTemplate {
+
+    private final Connection connection;
+    private final RetryPolicy retryPolicy;
+    private final RetryBudget retryBudget;
+    @Getter
+    private final TransactionMetrics metrics;
+
+    public TransactionTemplate(Connection connection) {
+        this(connection, RetryPolicy.defaults(), RetryBudget.defaults());
+    }
+
+    public TransactionTemplate(Connection connection, RetryPolicy retryPolicy, RetryBudget retryBudget) {
+        this(connection, retryPolicy, retryBudget, new TransactionMetrics());
+    }
+
+    private TransactionTemplate(Connection connection, RetryPolicy retryPolicy, RetryBudget retryBudget,
+                                TransactionMetrics metrics) {
+        this.connection = connection;
+        this.retryPolicy = retryPolicy;
+        this.retryBudget = retryBudget;
+        this.metrics = metrics;
+    }
+
+    /**
+     * A template for another connection sharing the retry policy, budget and metrics of this one.
+     * A template uses its connection without synchronization, so concurrent callers need one each.
+     */
+    public TransactionTemplate withConnection(Connection otherConnection) {
+        return new TransactionTemplate(otherConnection, retryPolicy, retryBudget, metrics);
+    }
+
+    /**
+     * Runs the callback in a transaction with the given isolation level, commits it and returns the callback result.
+     * If the callback or the commit fails, rolls the transaction back and, if the failure is retryable, runs it again.
+     * Auto-commit and the isolation level of the connection are restored afterwards.
+     *
+     * @param isolationLevel one of the {@code Connection.TRANSACTION_*} constants
+     * @throws DaoOperationException if the transaction fails with an {@link SQLException} or the rollback fails;
+     *                               runtime exceptions of the callback are rethrown as they are
+     */
+    public <T> T execute(int isolationLevel, TransactionCallback<T> callback) {
+        boolean autoCommit;
+        int previousIsolationLevel;
+        try {
+            autoCommit = connection.getAutoCommit();
+            previousIsolationLevel = connection.getTransactionIsolation();
+        } catch (SQLException e) {
+            throw new DaoOperationException("Failed to read connection settings", e);
+        }
+
+        try {
+            return retry(() -> executeOnce(isolationLevel, callback));
+        } finally {
+            try {
+                connection.setTransactionIsolation(previousIsolationLevel);
+                connection.setAutoCommit(autoCommit);
+            } catch (SQLException e) {
+                log.warn("Failed to restore connection settings", e);
+            }
+        }
+    }
+
+    /**
+     * Retries an operation that manages its own transaction, e.g. a {@code BankingDao} method: it must roll its
+     * transaction back before it throws, so running it again is safe.
+     */
+    public <T> T retry(Supplier<T> operation) {
+        retryBudget.deposit();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                T result = operation.get();
+                metrics.recordCommit(attempt);
+                return result;
+            } catch (RuntimeException e) {
+                String sqlState = retryPolicy.findSqlState(e);
+                if (sqlState == null) {
+                    metrics.recordFailure(attempt, false, false);
+                    throw e;
+                }
+                if (attempt >= retryPolicy.getMaxAttempts()) {
+                    metrics.recordFailure(attempt, true, false);
+                    log.debug("Giving up after {} attempts, last SQLSTATE {}", attempt, sqlState);
+                    throw e;
+                }
+                if (!retryBudget.tryWithdraw()) {
+                    metrics.recordFailure(attempt, true, true);
+                    log.debug("Retry budget exhausted, not retrying SQLSTATE {}", sqlState);
+                    throw e;
+                }
+                metrics.recordRetry(sqlState);
+                long backoff = retryPolicy.backoffMillis(attempt);
+                log.debug("Attempt {} failed with SQLSTATE {}, retrying in {} ms", attempt, sqlState, backoff);
+                sleep(backoff, e);
+            }
+        }
+    }
+
+    public void retry(Runnable operation) {
+        retry(() -> {
+            operation.run();
+            return null;
+        });
+    }
+
+    private <T> T executeOnce(int isolationLevel, TransactionCallback<T> callback) {
+        try {
+            connection.setAutoCommit(false);
+            connection.setTransactionIsolation(isolationLevel);
+            T result = callback.doInTransaction(connection);
+            connection.commit();
+            return result;
+        } catch (SQLException e) {
+            rollback(e);
+            throw new DaoOperationException("Transaction failed", e);
+        } catch (RuntimeException e) {
+            rollback(e);
+            throw e;
+        }
+    }
+
+    private void rollback(Exception cause) {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            e.addSuppressed(cause);
+            throw new DaoOperationException("Failed to rollback transaction", e);
+        }
+    }
+
+    private static void sleep(long millis, RuntimeException failure) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.addSuppressed(e);
+            throw failure;
+        }
+    }
+}
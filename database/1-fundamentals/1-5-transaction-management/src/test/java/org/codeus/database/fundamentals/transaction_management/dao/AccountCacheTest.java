@@ -0,0 +1,117 @@
+package org.codeus.database.fundamentals.transaction_management.dao;
+
+import org.codeus.database.fundamentals.transaction_management.model.Account;
+import org.codeus.database.fundamentals.transaction_management.model.AccountType;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class AccountCacheTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    @DisplayName("should count hits and misses")
+    void get_countsHitsAndMisses() {
+        AccountCache cache = new AccountCache(10, Duration.ofMinutes(1), clock::get);
+
+        assertNull(cache.get(1));
+        load(cache, account(1, 100));
+        assertNotNull(cache.get(1));
+        assertNotNull(cache.get(1));
+
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(2.0 / 3, cache.getHitRatio(), 1e-9);
+    }
+
+    @Test
+    @DisplayName("should evict the least recently used account when full")
+    void putLoaded_full_evictsLeastRecentlyUsed() {
+        AccountCache cache = new AccountCache(2, Duration.ofMinutes(1), clock::get);
+        load(cache, account(1, 100));
+        load(cache, account(2, 200));
+        cache.get(1);
+
+        load(cache, account(3, 300));
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get(2));
+        assertNotNull(cache.get(1));
+        assertNotNull(cache.get(3));
+    }
+
+    @Test
+    @DisplayName("should expire accounts after the time to live")
+    void get_afterTimeToLive_expired() {
+        AccountCache cache = new AccountCache(10, Duration.ofSeconds(30), clock::get);
+        load(cache, account(1, 100));
+
+        clock.addAndGet(Duration.ofSeconds(29).toNanos());
+        assertNotNull(cache.get(1));
+        clock.addAndGet(Duration.ofSeconds(1).toNanos());
+        assertNull(cache.get(1));
+
+        assertEquals(1, cache.getExpirations());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    @DisplayName("should discard a load that started before a write")
+    void putLoaded_writeDuringLoad_discarded() {
+        AccountCache cache = new AccountCache(10, Duration.ofMinutes(1), clock::get);
+
+        long writesAtStart = cache.startLoad();
+        cache.invalidate(2);
+        cache.putLoaded(writesAtStart, account(1, 100));
+
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    @DisplayName("should drop an invalidated account and cache it again on the next load")
+    void invalidate_dropsCachedAccount() {
+        AccountCache cache = new AccountCache(10, Duration.ofMinutes(1), clock::get);
+        load(cache, account(1, 100));
+
+        cache.invalidate(1);
+        assertNull(cache.get(1));
+
+        load(cache, account(1, 70));
+        assertEquals(0, BigDecimal.valueOf(70).compareTo(cache.get(1).getBalance()));
+    }
+
+    @Test
+    @DisplayName("should hand out copies of the cached accounts")
+    void get_returnsCopy() {
+        AccountCache cache = new AccountCache(10, Duration.ofMinutes(1), clock::get);
+        Account account = account(1, 100);
+        load(cache, account);
+
+        account.setBalance(BigDecimal.ZERO);
+        cache.get(1).setBalance(BigDecimal.ZERO);
+
+        assertEquals(0, BigDecimal.valueOf(100).compareTo(cache.get(1).getBalance()));
+    }
+
+    private static void load(AccountCache cache, Account account) {
+        cache.putLoaded(cache.startLoad(), account);
+    }
+
+    private static Account account(int accountId, long balance) {
+        return Account.builder()
+                .accountId(accountId)
+                .customerId(1)
+                .accountType(AccountType.CHECKING)
+                .balance(BigDecimal.valueOf(balance))
+                .build();
+    }
+}
@@ -11,6 +11,8 @@ import org.codeus.database.fundamentals.transaction_management.error.LoanNotFoun
 import org.codeus.database.fundamentals.transaction_management.model.Account;
 import org.codeus.database.fundamentals.transaction_management.model.AccountType;
 import org.codeus.database.fundamentals.transaction_management.model.Loan;
+import org.codeus.database.fundamentals.transaction_management.model.Transfer;
+import org.codeus.database.fundamentals.transaction_management.model.TransferBatchResult;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.ClassOrderer;
 import org.junit.jupiter.api.DisplayName;
@@ -32,9 +34,13 @@ import java.sql.Timestamp;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -46,6 +52,7 @@ import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.description;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -60,7 +67,7 @@ class BankingDaoTest extends EmbeddedPostgreSqlSetup {
     @SneakyThrows
     @BeforeEach
     void setUp() {
-        spyConnection = spy(EmbeddedPostgreSqlSetup.connection);
+        spyConnection = spy(connection);
         instance = new BankingDaoImpl(spyConnection);
         connection.setAutoCommit(true);
     }
@@ -579,6 +586,453 @@ class BankingDaoTest extends EmbeddedPostgreSqlSetup {
         }
     }
 
+    @Nested
+    @Order(5)
+    @DisplayName("transferMoneyBatch Tests")
+    class TransferMoneyBatchTests {
+
+        private int transferRecordsBefore;
+
+        @BeforeEach
+        void countExistingTransferRecords() {
+            transferRecordsBefore = countTransferRecords();
+        }
+
+        @Test
+        @DisplayName("should apply all transfers of a batch and insert their transaction records")
+        @SneakyThrows
+        void transferMoneyBatch() {
+            Account first = selectAccount(1);
+            Account second = selectAccount(2);
+            Account third = selectAccount(3);
+
+            TransferBatchResult result = instance.transferMoneyBatch(List.of(
+                    new Transfer(1, 2, BigDecimal.valueOf(100)),
+                    new Transfer(2, 3, BigDecimal.valueOf(50)),
+                    new Transfer(3, 1, BigDecimal.valueOf(25))));
+
+            assertTrue(result.isFullyApplied(), "All transfers should be applied: " + result);
+            assertEquals(3, result.getAppliedCount());
+            assertEquals(0, first.getBalance().subtract(BigDecimal.valueOf(75)).compareTo(selectAccount(1).getBalance()));
+            assertEquals(0, second.getBalance().add(BigDecimal.valueOf(50)).compareTo(selectAccount(2).getBalance()));
+            assertEquals(0, third.getBalance().add(BigDecimal.valueOf(25)).compareTo(selectAccount(3).getBalance()));
+            assertEquals(6, newTransferRecords(), "Should have two transaction records per transfer");
+            verify(spyConnection, description("Autocommit should be disabled")).setAutoCommit(false);
+        }
+
+        @Test
+        @DisplayName("should report rejected transfers without aborting the batch")
+        @SneakyThrows
+        void transferMoneyBatch_whenSomeTransfersInvalid_applyTheRest() {
+            Account first = selectAccount(1);
+            Account second = selectAccount(2);
+
+            TransferBatchResult result = instance.transferMoneyBatch(List.of(
+                    new Transfer(1, 2, BigDecimal.valueOf(-5)),
+                    new Transfer(1, 1, BigDecimal.valueOf(5)),
+                    new Transfer(1, -10, BigDecimal.valueOf(5)),
+                    new Transfer(1, 2, first.getBalance().add(BigDecimal.ONE)),
+                    new Transfer(1, 2, BigDecimal.valueOf(10))));
+
+            assertEquals(1, result.getAppliedCount());
+            assertEquals(List.of(0, 1, 2, 3), result.getFailures().stream().map(TransferBatchResult.Failure::index).toList());
+            assertTrue(result.getFailures().get(0).error() instanceof IllegalArgumentException);
+            assertTrue(result.getFailures().get(1).error() instanceof IllegalArgumentException);
+            assertTrue(result.getFailures().get(2).error() instanceof AccountNotFoundException);
+            assertTrue(result.getFailures().get(3).error() instanceof InsufficientFundsException);
+            assertEquals(0, first.getBalance().subtract(BigDecimal.TEN).compareTo(selectAccount(1).getBalance()));
+            assertEquals(0, second.getBalance().add(BigDecimal.TEN).compareTo(selectAccount(2).getBalance()));
+            assertEquals(2, newTransferRecords());
+        }
+
+        @Test
+        @DisplayName("should let a transfer spend money received earlier in the same batch")
+        @SneakyThrows
+        void transferMoneyBatch_whenFundsArriveEarlierInBatch_applyTransfer() {
+            Account third = selectAccount(3);
+            BigDecimal incoming = BigDecimal.valueOf(500);
+            BigDecimal outgoing = third.getBalance().add(incoming);
+
+            TransferBatchResult result = instance.transferMoneyBatch(List.of(
+                    new Transfer(3, 1, outgoing),
+                    new Transfer(2, 3, incoming),
+                    new Transfer(3, 1, outgoing)));
+
+            assertEquals(2, result.getAppliedCount());
+            assertEquals(0, result.getFailures().get(0).index(), "The first transfer comes before the money arrives");
+            assertEquals(0, BigDecimal.ZERO.compareTo(selectAccount(3).getBalance()));
+        }
+
+        @Test
+        @DisplayName("should apply a large batch")
+        @SneakyThrows
+        void transferMoneyBatch_largeBatch() {
+            Account first = selectAccount(1);
+            Account second = selectAccount(2);
+            int count = 20_000;
+            List<Transfer> transfers = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                transfers.add(i % 2 == 0
+                        ? new Transfer(1, 2, BigDecimal.valueOf(2, 2))
+                        : new Transfer(2, 1, BigDecimal.valueOf(1, 2)));
+            }
+
+            TransferBatchResult result = instance.transferMoneyBatch(transfers);
+
+            assertEquals(count, result.getAppliedCount());
+            assertEquals(0, first.getBalance().subtract(BigDecimal.valueOf(100)).compareTo(selectAccount(1).getBalance()));
+            assertEquals(0, second.getBalance().add(BigDecimal.valueOf(100)).compareTo(selectAccount(2).getBalance()));
+            assertEquals(2 * count, newTransferRecords());
+        }
+
+        @Test
+        @DisplayName("should rollback the whole batch and throw DaoOperationException when SQLException occurs")
+        @SneakyThrows
+        void transferMoneyBatch_whenSQLException_rollbackBatch() {
+            Account first = selectAccount(1);
+
+            doThrow(SQLException.class).when(spyConnection).commit();
+
+            assertThrows(DaoOperationException.class,
+                    () -> instance.transferMoneyBatch(List.of(new Transfer(1, 2, BigDecimal.TEN))));
+
+            verify(spyConnection, description("Should rollback the batch")).rollback();
+            assertEquals(0, first.getBalance().compareTo(selectAccount(1).getBalance()), "Balance should not change");
+            assertEquals(0, newTransferRecords());
+        }
+
+        @Test
+        @DisplayName("should rollback the whole batch and rethrow when a RuntimeException occurs")
+        @SneakyThrows
+        void transferMoneyBatch_whenRuntimeException_rollbackBatch() {
+            Account first = selectAccount(1);
+
+            doThrow(new IllegalStateException("Commit failed")).when(spyConnection).commit();
+
+            assertThrows(IllegalStateException.class,
+                    () -> instance.transferMoneyBatch(List.of(new Transfer(1, 2, BigDecimal.TEN))));
+
+            verify(spyConnection, description("Should rollback the batch and release the row locks")).rollback();
+            assertEquals(0, first.getBalance().compareTo(selectAccount(1).getBalance()), "Balance should not change");
+            assertEquals(0, newTransferRecords());
+        }
+
+        private int newTransferRecords() {
+            return countTransferRecords() - transferRecordsBefore;
+        }
+
+        @SneakyThrows
+        private int countTransferRecords() {
+            try (Statement statement = connection.createStatement();
+                 ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM transactions WHERE transaction_type = 'transfer'")) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    @Nested
+    @Order(6)
+    @DisplayName("withdrawMoneyReturningBalance Tests")
+    class WithdrawMoneyReturningBalanceTests {
+
+        @Test
+        @DisplayName("should withdraw money and insert the transaction record with a single statement")
+        @SneakyThrows
+        void withdrawMoneyReturningBalance() {
+            BigDecimal balance = instance.withdrawMoneyReturningBalance(1, BigDecimal.valueOf(250));
+
+            assertEquals(0, BigDecimal.valueOf(750).compareTo(balance), "Should return the new balance");
+            assertEquals(0, BigDecimal.valueOf(750).compareTo(selectAccount(1).getBalance()));
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT COUNT(*) FROM transactions WHERE account_id = 1 AND transaction_type = 'withdrawal' AND amount = 250")) {
+                ResultSet rs = statement.executeQuery();
+                assertTrue(rs.next());
+                assertEquals(1, rs.getInt(1), "Should have one withdrawal transaction");
+            }
+            verify(spyConnection, times(1).description("Should run a single statement")).prepareStatement(anyString());
+            verify(spyConnection, description("The statement should run in auto-commit mode")).setAutoCommit(true);
+            verify(spyConnection, never().description("Should not start a transaction")).setAutoCommit(false);
+        }
+
+        @Test
+        @DisplayName("should throw AccountNotFoundException when the account does not exist")
+        void withdrawMoneyReturningBalance_nonExistentAccount() {
+            assertThrows(AccountNotFoundException.class,
+                    () -> instance.withdrawMoneyReturningBalance(999, BigDecimal.valueOf(100)));
+        }
+
+        @Test
+        @DisplayName("should throw InsufficientFundsException and change nothing when the balance is too low")
+        @SneakyThrows
+        void withdrawMoneyReturningBalance_insufficientFunds() {
+            assertThrows(InsufficientFundsException.class,
+                    () -> instance.withdrawMoneyReturningBalance(6, BigDecimal.valueOf(100)));
+
+            assertEquals(0, BigDecimal.valueOf(50).compareTo(selectAccount(6).getBalance()), "Balance should remain unchanged");
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT COUNT(*) FROM transactions WHERE account_id = 6")) {
+                ResultSet rs = statement.executeQuery();
+                assertTrue(rs.next());
+                assertEquals(0, rs.getInt(1), "Should not insert a transaction record");
+            }
+        }
+
+        @ParameterizedTest
+        @ValueSource(ints = {0, -1})
+        @DisplayName("should throw IllegalArgumentException when the amount is not positive")
+        void withdrawMoneyReturningBalance_whenAmountNotPositive_throwIllegalArgumentException(int amount) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> instance.withdrawMoneyReturningBalance(1, BigDecimal.valueOf(amount)));
+        }
+
+        @Test
+        @DisplayName("should never overdraw the account under concurrent withdrawals")
+        @SneakyThrows
+        void withdrawMoneyReturningBalance_concurrentWithdrawals_neverOverdraw() {
+            int withdrawals = 20;
+            ExecutorService executor = Executors.newFixedThreadPool(withdrawals);
+            try {
+                List<Future<Boolean>> futures = new ArrayList<>();
+                for (int i = 0; i < withdrawals; i++) {
+                    futures.add(executor.submit(() -> {
+                        try (Connection withdrawalConnection = database.getPool().getConnection()) {
+                            new BankingDaoImpl(withdrawalConnection).withdrawMoneyReturningBalance(1, BigDecimal.valueOf(100));
+                            return true;
+                        } catch (InsufficientFundsException e) {
+                            return false;
+                        }
+                    }));
+                }
+                int succeeded = 0;
+                for (Future<Boolean> future : futures) {
+                    succeeded += future.get() ? 1 : 0;
+                }
+
+                assertEquals(10, succeeded, "Only the first 1000 should be withdrawn");
+                assertEquals(0, BigDecimal.ZERO.compareTo(selectAccount(1).getBalance()));
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    @Nested
+    @Order(7)
+    @DisplayName("getAccount Tests")
+    class GetAccountTests {
+
+        @Test
+        @DisplayName("should read account")
+        void getAccount() {
+            Account expected = selectAccount(2);
+
+            Account account = instance.getAccount(2);
+
+            assertEquals(expected, account);
+            assertEquals(AccountType.SAVINGS, account.getAccountType());
+            assertNotNull(account.getCreatedAt());
+        }
+
+        @Test
+        @DisplayName("should read account balance")
+        void getBalance() {
+            assertEquals(0, BigDecimal.valueOf(1500).compareTo(instance.getBalance(3)));
+        }
+
+        @Test
+        @DisplayName("should throw AccountNotFoundException when the account does not exist")
+        void getAccount_nonExistentAccount() {
+            assertThrows(AccountNotFoundException.class, () -> instance.getAccount(999));
+            assertThrows(AccountNotFoundException.class, () -> instance.getBalance(999));
+        }
+
+        @Test
+        @DisplayName("should refuse to read in auto-commit mode while a transaction of the caller is open")
+        @SneakyThrows
+        void getAccount_whenTransactionOpen_throwIllegalStateException() {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("UPDATE accounts SET balance = 0 WHERE account_id = 2");
+            }
+
+            assertThrows(IllegalStateException.class, () -> instance.getAccount(2));
+            assertThrows(IllegalStateException.class, () -> instance.withdrawMoneyReturningBalance(2, BigDecimal.ONE));
+
+            assertFalse(connection.getAutoCommit(), "The transaction of the caller should stay open");
+            connection.rollback();
+            assertEquals(0, BigDecimal.valueOf(2000).compareTo(instance.getBalance(2)), "Nothing should be committed");
+        }
+    }
+
+    @Nested
+    @Order(8)
+    @DisplayName("createAccounts Tests")
+    class CreateAccountsTests {
+
+        @Test
+        @DisplayName("should create accounts and set the generated ids in order")
+        void createAccounts() {
+            List<Account> before = selectAccounts();
+            List<Account> accounts = List.of(
+                    newAccount(1, AccountType.CHECKING, BigDecimal.valueOf(100)),
+                    newAccount(3, AccountType.SAVINGS, BigDecimal.valueOf(250)),
+                    newAccount(1, AccountType.SAVINGS, null));
+
+            instance.createAccounts(accounts);
+
+            assertEquals(3, selectNewAccounts(before).size(), "Should have created 3 accounts");
+            for (Account account : accounts) {
+                assertEquals(selectAccount(account.getAccountId()), account, "Account should match its row");
+            }
+            assertTrue(accounts.get(0).getAccountId() < accounts.get(1).getAccountId()
+                    && accounts.get(1).getAccountId() < accounts.get(2).getAccountId(), "Ids should follow the list order");
+            assertEquals(0, BigDecimal.ZERO.compareTo(accounts.get(2).getBalance()), "Balance should default to 0");
+        }
+
+        @Test
+        @DisplayName("should create more accounts than fit in one statement")
+        void createAccounts_manyChunks() {
+            List<Account> before = selectAccounts();
+            List<Account> accounts = new ArrayList<>();
+            for (int i = 0; i < AccountBatch.CHUNK_SIZE * 2 + 7; i++) {
+                accounts.add(newAccount(1 + i % 5, AccountType.CHECKING, BigDecimal.valueOf(i)));
+            }
+
+            instance.createAccounts(accounts);
+
+            assertEquals(accounts.size(), selectNewAccounts(before).size());
+            for (int i = 1; i < accounts.size(); i++) {
+                assertTrue(accounts.get(i - 1).getAccountId() < accounts.get(i).getAccountId());
+            }
+            Account last = accounts.get(accounts.size() - 1);
+            assertEquals(selectAccount(last.getAccountId()), last);
+        }
+
+        @Test
+        @DisplayName("should create no account when a customer does not exist")
+        void createAccounts_whenCustomerDoesNotExist_throwException() {
+            List<Account> before = selectAccounts();
+            List<Account> accounts = List.of(
+                    newAccount(1, AccountType.CHECKING, BigDecimal.TEN),
+                    newAccount(-10, AccountType.CHECKING, BigDecimal.TEN));
+
+            CustomerNotFoundException exception = assertThrows(CustomerNotFoundException.class,
+                    () -> instance.createAccounts(accounts));
+
+            assertTrue(exception.getMessage().contains("-10"), "Should name the missing customer");
+            assertEquals(before.size(), selectAccounts().size(), "Should not have created any new accounts");
+            assertEquals(0, accounts.get(0).getAccountId(), "Should not have set any id");
+        }
+
+        @Test
+        @DisplayName("should reject a negative initial balance")
+        void createAccounts_negativeBalance() {
+            List<Account> accounts = List.of(newAccount(1, AccountType.CHECKING, BigDecimal.valueOf(-1)));
+
+            assertThrows(IllegalArgumentException.class, () -> instance.createAccounts(accounts));
+        }
+
+        private static Account newAccount(int customerId, AccountType accountType, BigDecimal balance) {
+            return Account.builder()
+                    .customerId(customerId)
+                    .accountType(accountType)
+                    .balance(balance)
+                    .build();
+        }
+    }
+
+    @Nested
+    @Order(9)
+    @DisplayName("idempotency key Tests")
+    class IdempotencyKeyTests {
+
+        @Test
+        @DisplayName("should withdraw money once per idempotency key")
+        void withdrawMoney_retried_appliedOnce() {
+            assertTrue(instance.withdrawMoney("withdrawal-1", 1, BigDecimal.valueOf(100)));
+            assertFalse(instance.withdrawMoney("withdrawal-1", 1, new BigDecimal("100.00")));
+
+            assertEquals(0, BigDecimal.valueOf(900).compareTo(selectAccount(1).getBalance()));
+            assertEquals(1, countOperations("withdrawal-1"));
+        }
+
+        @Test
+        @DisplayName("should transfer money once per idempotency key")
+        void transferMoney_retried_appliedOnce() {
+            assertTrue(instance.transferMoney("transfer-1", 1, 2, BigDecimal.valueOf(100)));
+            assertFalse(instance.transferMoney("transfer-1", 1, 2, BigDecimal.valueOf(100)));
+
+            assertEquals(0, BigDecimal.valueOf(900).compareTo(selectAccount(1).getBalance()));
+            assertEquals(0, BigDecimal.valueOf(2100).compareTo(selectAccount(2).getBalance()));
+            assertEquals(1, countOperations("transfer-1"));
+        }
+
+        @Test
+        @DisplayName("should not record the key of a rejected operation")
+        void transferMoney_rejected_keyNotRecorded() {
+            assertThrows(InsufficientFundsException.class,
+                    () -> instance.transferMoney("transfer-2", 6, 1, BigDecimal.valueOf(100)));
+            assertThrows(InsufficientFundsException.class,
+                    () -> instance.transferMoney("transfer-2", 6, 1, BigDecimal.valueOf(100)));
+            assertThrows(AccountNotFoundException.class,
+                    () -> instance.withdrawMoney("withdrawal-2", 999, BigDecimal.TEN));
+
+            assertEquals(0, countOperations("transfer-2") + countOperations("withdrawal-2"));
+            assertEquals(0, BigDecimal.valueOf(50).compareTo(selectAccount(6).getBalance()));
+        }
+
+        @Test
+        @DisplayName("should reject a key reused for a different request")
+        void withdrawMoney_keyReused_throwsException() {
+            instance.withdrawMoney("withdrawal-3", 1, BigDecimal.TEN);
+
+            assertThrows(IllegalArgumentException.class, () -> instance.withdrawMoney("withdrawal-3", 1, BigDecimal.ONE));
+            assertThrows(IllegalArgumentException.class, () -> instance.transferMoney("withdrawal-3", 1, 2, BigDecimal.TEN));
+            assertThrows(IllegalArgumentException.class, () -> instance.withdrawMoney(" ", 1, BigDecimal.TEN));
+            assertEquals(0, BigDecimal.valueOf(990).compareTo(selectAccount(1).getBalance()));
+        }
+
+        @Test
+        @DisplayName("should apply concurrent retries of the same request once")
+        @SneakyThrows
+        void withdrawMoney_concurrentRetries_appliedOnce() {
+            int threads = 16;
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<Boolean>> results = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    results.add(executor.submit(() -> {
+                        try (Connection threadConnection = database.getPool().getConnection()) {
+                            return new BankingDaoImpl(threadConnection)
+                                    .withdrawMoney("withdrawal-4", 2, BigDecimal.valueOf(100));
+                        }
+                    }));
+                }
+                int applied = 0;
+                for (Future<Boolean> result : results) {
+                    applied += result.get() ? 1 : 0;
+                }
+
+                assertEquals(1, applied, "Exactly one attempt should withdraw the money");
+                assertEquals(0, BigDecimal.valueOf(1900).compareTo(selectAccount(2).getBalance()));
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        @SneakyThrows
+        private int countOperations(String idempotencyKey) {
+            try (PreparedStatement select = connection.prepareStatement(
+                    "SELECT COUNT(*) FROM operation_log WHERE idempotency_key = ?")) {
+                select.setString(1, idempotencyKey);
+                ResultSet resultSet = select.executeQuery();
+                resultSet.next();
+                return resultSet.getInt(1);
+            }
+        }
+    }
+
     @SneakyThrows
     private List<Account> selectAccounts() {
         try (Statement statement = connection.createStatement()) {
@@ -0,0 +1,201 @@
+package org.codeus.database.fundamentals.transaction_management.dao;
+
+import org.codeus.database.fundamentals.transaction_management.error.DaoOperationException;
+import org.codeus.database.fundamentals.transaction_management.error.InsufficientFundsException;
+import org.codeus.database.fundamentals.transaction_management.model.Account;
+import org.codeus.database.fundamentals.transaction_management.model.AccountType;
+import org.codeus.database.fundamentals.transaction_management.model.Transfer;
+import org.codeus.database.fundamentals.transaction_management.model.TransferBatchResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CachingBankingDaoTest {
+
+    private BankingDao delegate;
+    private AccountCache accountCache;
+    private CachingBankingDao instance;
+
+    @BeforeEach
+    void setUp() {
+        delegate = mock(BankingDao.class);
+        accountCache = new AccountCache(100, Duration.ofMinutes(1));
+        instance = new CachingBankingDao(delegate, accountCache);
+        when(delegate.getAccount(1)).thenReturn(account(1, 1000));
+        when(delegate.getAccount(2)).thenReturn(account(2, 2000));
+    }
+
+    @Test
+    @DisplayName("should read an account from the delegate once")
+    void getAccount_readThrough() {
+        instance.getAccount(1);
+        instance.getAccount(1);
+        BigDecimal balance = instance.getBalance(1);
+
+        assertEquals(0, BigDecimal.valueOf(1000).compareTo(balance));
+        verify(delegate, times(1)).getAccount(1);
+        assertEquals(2, accountCache.getHits());
+        assertEquals(1, accountCache.getMisses());
+    }
+
+    @Test
+    @DisplayName("should read the committed balance again after a withdrawal")
+    void withdrawMoney_invalidates() {
+        instance.getAccount(1);
+        when(delegate.getAccount(1)).thenReturn(account(1, 750));
+
+        instance.withdrawMoney(1, BigDecimal.valueOf(250));
+
+        assertEquals(0, BigDecimal.valueOf(750).compareTo(instance.getBalance(1)));
+        assertEquals(0, BigDecimal.valueOf(750).compareTo(instance.getBalance(1)));
+        verify(delegate, times(2)).getAccount(1);
+    }
+
+    @Test
+    @DisplayName("should read the committed balance again after a single-statement withdrawal")
+    void withdrawMoneyReturningBalance_invalidates() {
+        instance.getAccount(1);
+        when(delegate.withdrawMoneyReturningBalance(1, BigDecimal.TEN)).thenReturn(BigDecimal.valueOf(990));
+        when(delegate.getAccount(1)).thenReturn(account(1, 990));
+
+        assertEquals(0, BigDecimal.valueOf(990).compareTo(instance.withdrawMoneyReturningBalance(1, BigDecimal.TEN)));
+
+        assertEquals(0, BigDecimal.valueOf(990).compareTo(instance.getBalance(1)));
+        verify(delegate, times(2)).getAccount(1);
+    }
+
+    @Test
+    @DisplayName("should drop both accounts of a transfer")
+    void transferMoney_invalidates() {
+        instance.getAccount(1);
+        instance.getAccount(2);
+
+        instance.transferMoney(1, 2, BigDecimal.valueOf(100));
+
+        instance.getAccount(1);
+        instance.getAccount(2);
+        verify(delegate, times(2)).getAccount(1);
+        verify(delegate, times(2)).getAccount(2);
+    }
+
+    @Test
+    @DisplayName("should drop every account of a batch")
+    void transferMoneyBatch_invalidates() {
+        instance.getAccount(1);
+        instance.getAccount(2);
+        List<Transfer> transfers = List.of(
+                new Transfer(1, 2, BigDecimal.valueOf(100)),
+                new Transfer(2, 1, BigDecimal.valueOf(5000)));
+        TransferBatchResult result = new TransferBatchResult(1, List.of(
+                new TransferBatchResult.Failure(1, transfers.get(1), new InsufficientFundsException("No money"))));
+        when(delegate.transferMoneyBatch(transfers)).thenReturn(result);
+
+        assertEquals(result, instance.transferMoneyBatch(transfers));
+
+        instance.getAccount(1);
+        instance.getAccount(2);
+        verify(delegate, times(2)).getAccount(1);
+        verify(delegate, times(2)).getAccount(2);
+    }
+
+    @Test
+    @DisplayName("should not cache a balance read while a write is committing")
+    void getAccount_loadDuringWrite_notCached() throws Exception {
+        instance.getAccount(1);
+        CountDownLatch committed = new CountDownLatch(1);
+        CountDownLatch loaded = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            committed.countDown();
+            assertTrue(loaded.await(10, TimeUnit.SECONDS));
+            return null;
+        }).when(delegate).withdrawMoney(1, BigDecimal.valueOf(250));
+        when(delegate.getAccount(1)).thenReturn(account(1, 750));
+
+        CompletableFuture<Void> withdrawal =
+                CompletableFuture.runAsync(() -> instance.withdrawMoney(1, BigDecimal.valueOf(250)));
+        assertTrue(committed.await(10, TimeUnit.SECONDS));
+        // the load sees the committed balance before the write has returned to the cache
+        assertEquals(0, BigDecimal.valueOf(750).compareTo(instance.getBalance(1)));
+        loaded.countDown();
+        withdrawal.get(10, TimeUnit.SECONDS);
+
+        assertEquals(0, BigDecimal.valueOf(750).compareTo(instance.getBalance(1)),
+                "The withdrawal should not be applied to the balance a second time");
+        verify(delegate, times(3)).getAccount(1);
+    }
+
+    @Test
+    @DisplayName("should not cache a balance read before a write that committed while it was loading")
+    void getAccount_writeDuringLoad_notCached() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch written = new CountDownLatch(1);
+        when(delegate.getAccount(1)).thenAnswer(invocation -> {
+            loading.countDown();
+            assertTrue(written.await(10, TimeUnit.SECONDS));
+            return account(1, 1000);
+        }).thenReturn(account(1, 750));
+
+        CompletableFuture<Account> load = CompletableFuture.supplyAsync(() -> instance.getAccount(1));
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+        instance.withdrawMoney(1, BigDecimal.valueOf(250));
+        written.countDown();
+
+        assertEquals(0, BigDecimal.valueOf(1000).compareTo(load.get(10, TimeUnit.SECONDS).getBalance()));
+        assertEquals(0, BigDecimal.valueOf(750).compareTo(instance.getBalance(1)));
+    }
+
+    @Test
+    @DisplayName("should cache a created account on its first read")
+    void createAccount_cachedOnRead() {
+        Account account = account(7, 300);
+        when(delegate.getAccount(7)).thenReturn(account);
+
+        instance.createAccount(account);
+
+        assertEquals(account, instance.getAccount(7));
+        assertEquals(account, instance.getAccount(7));
+        verify(delegate, times(1)).getAccount(7);
+    }
+
+    @Test
+    @DisplayName("should drop the cached accounts of a failed operation")
+    void transferMoney_failure_invalidates() {
+        instance.getAccount(1);
+        instance.getAccount(2);
+        doThrow(new DaoOperationException("Transaction failed"))
+                .when(delegate).transferMoney(1, 2, BigDecimal.TEN);
+
+        assertThrows(DaoOperationException.class, () -> instance.transferMoney(1, 2, BigDecimal.TEN));
+
+        instance.getAccount(1);
+        instance.getAccount(2);
+        verify(delegate, times(2)).getAccount(1);
+        verify(delegate, times(2)).getAccount(2);
+    }
+
+    private static Account account(int accountId, long balance) {
+        return Account.builder()
+                .accountId(accountId)
+                .customerId(1)
+                .accountType(AccountType.CHECKING)
+                .balance(BigDecimal.valueOf(balance))
+                .build();
+    }
+}
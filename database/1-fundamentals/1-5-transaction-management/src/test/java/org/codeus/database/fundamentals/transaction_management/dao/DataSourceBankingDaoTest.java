@@ -0,0 +1,160 @@
+package org.codeus.database.fundamentals.transaction_management.dao;
+
+import org.codeus.database.common.EmbeddedPostgreSqlSetup;
+import org.codeus.database.fundamentals.transaction_management.model.Transfer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DataSourceBankingDaoTest extends EmbeddedPostgreSqlSetup {
+
+    private static final List<Integer> ACCOUNTS = List.of(1, 2, 3, 4, 5);
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        // commits the schema and test data, so the pooled connections see them
+        connection.setAutoCommit(true);
+    }
+
+    @Test
+    @DisplayName("should serve many threads at once with a connection per operation")
+    void concurrentOperations_sharedDao() throws Exception {
+        int threads = 16;
+        int operationsPerThread = 100;
+        BigDecimal totalBefore = selectTotal();
+        DataSourceBankingDao dao = new DataSourceBankingDao(database.getPool());
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        long elapsedNanos;
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                int thread = i;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < operationsPerThread; j++) {
+                        dao.withdrawMoneyReturningBalance(ACCOUNTS.get((thread + j) % ACCOUNTS.size()), BigDecimal.ONE);
+                    }
+                    return null;
+                }));
+            }
+            long startNanos = System.nanoTime();
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+            elapsedNanos = System.nanoTime() - startNanos;
+        } finally {
+            executor.shutdownNow();
+        }
+
+        int operations = threads * operationsPerThread;
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        System.out.printf("%d threads, %d withdrawals in %d ms (%d/s)%n",
+                threads, operations, millis, operations * 1000L / millis);
+        assertEquals(0, totalBefore.subtract(BigDecimal.valueOf(operations)).compareTo(selectTotal()),
+                "Every withdrawal should be applied once");
+    }
+
+    @Test
+    @DisplayName("should restore auto-commit and the isolation level before returning the connection")
+    void operation_restoresConnectionSettings() throws SQLException {
+        Connection borrowed = borrowedConnection();
+        borrowed.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        DataSourceBankingDao dao = new DataSourceBankingDao(dataSourceOf(borrowed));
+
+        dao.transferMoneyBatch(List.of(new Transfer(1, 2, BigDecimal.TEN)));
+
+        assertTrue(borrowed.getAutoCommit(), "Auto-commit should be restored");
+        assertEquals(Connection.TRANSACTION_SERIALIZABLE, borrowed.getTransactionIsolation(),
+                "Isolation level should be restored");
+        verify(borrowed).close();
+    }
+
+    @Test
+    @DisplayName("should roll back a transaction the operation left open before returning the connection")
+    void operation_leavesTransactionOpen_rolledBack() throws SQLException {
+        BigDecimal totalBefore = selectTotal();
+        Connection borrowed = borrowedConnection();
+        doThrow(new IllegalStateException("Commit failed")).doCallRealMethod().when(borrowed).commit();
+        DataSourceBankingDao dao = new DataSourceBankingDao(dataSourceOf(borrowed));
+
+        assertThrows(IllegalStateException.class,
+                () -> dao.transferMoneyBatch(List.of(new Transfer(1, 2, BigDecimal.TEN))));
+
+        verify(borrowed).rollback();
+        assertTrue(borrowed.getAutoCommit(), "Auto-commit should be restored");
+        assertEquals(0, totalBefore.compareTo(selectTotal()), "Nothing should be committed");
+        verify(borrowed).close();
+    }
+
+    @Test
+    @DisplayName("should leave no server-side prepared statements behind an operation")
+    void operation_keepsDriverPrepareThreshold() throws SQLException {
+        int before = countServerPreparedStatements();
+        DataSourceBankingDao dao = new DataSourceBankingDao(dataSourceOf(borrowedConnection()));
+
+        dao.getAccount(1);
+        dao.transferMoneyBatch(List.of(new Transfer(1, 2, BigDecimal.TEN)));
+
+        assertEquals(before, countServerPreparedStatements(),
+                "Statements run once per operation should not be prepared on the server");
+    }
+
+    private Connection borrowedConnection() throws SQLException {
+        Connection borrowed = spy(connection);
+        doNothing().when(borrowed).close();
+        return borrowed;
+    }
+
+    private static DataSource dataSourceOf(Connection borrowed) throws SQLException {
+        DataSource dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenReturn(borrowed);
+        return dataSource;
+    }
+
+    private int countServerPreparedStatements() throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM pg_prepared_statements")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private BigDecimal selectTotal() throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT SUM(balance) FROM accounts WHERE account_id = ANY (?)")) {
+            statement.setArray(1, connection.createArrayOf("integer", ACCOUNTS.toArray()));
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return rs.getBigDecimal(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package org.codeus.database.fundamentals.transaction_management.dao;
+
+import org.codeus.database.common.EmbeddedPostgreSqlSetup;
+import org.codeus.database.fundamentals.transaction_management.error.AccountNotFoundException;
+import org.codeus.database.fundamentals.transaction_management.error.InsufficientFundsException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DeltaBalanceDaoTest extends EmbeddedPostgreSqlSetup {
+
+    private DeltaBalanceDao instance;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        // commits the schema and test data, so the connections of other threads see them
+        connection.setAutoCommit(true);
+        instance = new DeltaBalanceDao(connection);
+    }
+
+    @Test
+    @DisplayName("should append a deposit without updating the account row")
+    void deposit_appendsDelta() throws SQLException {
+        instance.deposit(1, new BigDecimal("100.00"));
+        instance.deposit(1, new BigDecimal("0.50"));
+
+        assertEquals(new BigDecimal("1100.50"), instance.getBalance(1));
+        assertEquals(new BigDecimal("1000.00"), selectStoredBalance(1));
+        assertEquals(2, countDeltas(1));
+    }
+
+    @Test
+    @DisplayName("should check a withdrawal against the balance with its pending deltas")
+    void withdrawMoney_checksPendingDeltas() throws SQLException {
+        instance.deposit(6, BigDecimal.valueOf(30));
+
+        instance.withdrawMoney(6, BigDecimal.valueOf(70));
+        assertThrows(InsufficientFundsException.class, () -> instance.withdrawMoney(6, BigDecimal.valueOf(11)));
+
+        assertEquals(new BigDecimal("10.00"), instance.getBalance(6));
+        assertEquals(2, countDeltas(6));
+    }
+
+    @Test
+    @DisplayName("should transfer money by appending a delta to each account")
+    void transferMoney_appendsDeltas() {
+        instance.transferMoney(6, 5, BigDecimal.valueOf(30));
+
+        assertThrows(InsufficientFundsException.class, () -> instance.transferMoney(6, 5, BigDecimal.valueOf(30)));
+        assertEquals(new BigDecimal("20.00"), instance.getBalance(6));
+        assertEquals(new BigDecimal("3030.00"), instance.getBalance(5));
+    }
+
+    @Test
+    @DisplayName("should reject missing accounts and invalid amounts")
+    void operations_invalidArguments() throws SQLException {
+        assertThrows(AccountNotFoundException.class, () -> instance.getBalance(999));
+        assertThrows(AccountNotFoundException.class, () -> instance.deposit(999, BigDecimal.ONE));
+        assertThrows(AccountNotFoundException.class, () -> instance.withdrawMoney(999, BigDecimal.ONE));
+        assertThrows(AccountNotFoundException.class, () -> instance.transferMoney(1, 999, BigDecimal.ONE));
+        assertThrows(IllegalArgumentException.class, () -> instance.transferMoney(1, 1, BigDecimal.ONE));
+        assertThrows(IllegalArgumentException.class, () -> instance.deposit(1, BigDecimal.ZERO));
+
+        assertEquals(0, countDeltas(1));
+        assertEquals(new BigDecimal("1000.00"), instance.getBalance(1));
+    }
+
+    @Test
+    @DisplayName("should fold the pending deltas into the account balance")
+    void foldAll_movesDeltasIntoBalance() throws SQLException {
+        instance.deposit(1, BigDecimal.valueOf(200));
+        instance.transferMoney(1, 2, BigDecimal.valueOf(50));
+
+        assertEquals(3, instance.foldAll());
+
+        assertEquals(new BigDecimal("1150.00"), selectStoredBalance(1));
+        assertEquals(new BigDecimal("2050.00"), selectStoredBalance(2));
+        assertEquals(new BigDecimal("1150.00"), instance.getBalance(1));
+        assertEquals(0, countDeltas(1) + countDeltas(2));
+        assertEquals(0, instance.fold(1));
+    }
+
+    @Test
+    @DisplayName("should not commit a transaction of the caller by switching to auto-commit mode")
+    void autoCommitOperations_whenTransactionOpen_throwIllegalStateException() throws SQLException {
+        connection.setAutoCommit(false);
+        instance.withdrawMoney(1, BigDecimal.TEN);
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO account_balance_deltas (account_id, shard, amount) VALUES (1, 0, 5)")) {
+            statement.executeUpdate();
+        }
+
+        assertThrows(IllegalStateException.class, () -> instance.getBalance(1));
+        assertThrows(IllegalStateException.class, () -> instance.deposit(1, BigDecimal.ONE));
+        assertThrows(IllegalStateException.class, () -> instance.fold(1));
+        assertThrows(IllegalStateException.class, () -> instance.foldAll());
+
+        connection.rollback();
+        assertEquals(new BigDecimal("990.00"), instance.getBalance(1), "Only the committed withdrawal should remain");
+    }
+
+    @Test
+    @DisplayName("should never overdraw an account under concurrent withdrawals and folding")
+    void withdrawMoney_concurrentWithFolding_neverOverdraws() throws Exception {
+        int threads = 16;
+        List<Future<Boolean>> results = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (DeltaBalanceFolder folder = new DeltaBalanceFolder(database.getPool(), Duration.ofMillis(1))) {
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    try (Connection threadConnection = database.getPool().getConnection()) {
+                        DeltaBalanceDao dao = new DeltaBalanceDao(threadConnection);
+                        dao.withdrawMoney(6, BigDecimal.TEN);
+                        return true;
+                    } catch (InsufficientFundsException e) {
+                        return false;
+                    }
+                }));
+            }
+            int succeeded = 0;
+            for (Future<Boolean> result : results) {
+                succeeded += result.get(30, TimeUnit.SECONDS) ? 1 : 0;
+            }
+
+            assertEquals(5, succeeded, "Exactly the withdrawals the balance of 50 covers should succeed");
+            assertEquals(0, folder.getFailedRuns(), "Folding should not fail");
+        } finally {
+            executor.shutdownNow();
+        }
+        instance.foldAll();
+        assertEquals(new BigDecimal("0.00"), selectStoredBalance(6));
+    }
+
+    // on a connection of their own, so they do not open a transaction on the one of the DAO
+    private BigDecimal selectStoredBalance(int accountId) throws SQLException {
+        try (Connection observer = database.getPool().getConnection();
+             PreparedStatement statement = observer.prepareStatement(
+                     "SELECT balance FROM accounts WHERE account_id = ?")) {
+            statement.setInt(1, accountId);
+            ResultSet rs = statement.executeQuery();
+            rs.next();
+            return rs.getBigDecimal(1);
+        }
+    }
+
+    private int countDeltas(int accountId) throws SQLException {
+        try (Connection observer = database.getPool().getConnection();
+             PreparedStatement statement = observer.prepareStatement(
+                     "SELECT COUNT(*) FROM account_balance_deltas WHERE account_id = ?")) {
+            statement.setInt(1, accountId);
+            ResultSet rs = statement.executeQuery();
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
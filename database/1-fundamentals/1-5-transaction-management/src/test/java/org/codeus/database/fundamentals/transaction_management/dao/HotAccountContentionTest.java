@@ -0,0 +1,175 @@
+package org.codeus.database.fundamentals.transaction_management.dao;
+
+import org.codeus.database.common.ConnectionPool;
+import org.codeus.database.common.EmbeddedPostgreSqlSetup;
+import org.codeus.database.common.ScenarioThreads;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Many threads transferring money from accounts of their own to a single hot merchant account: with the balance
+ * kept in the account row, versus appended as deltas.
+ */
+class HotAccountContentionTest extends EmbeddedPostgreSqlSetup {
+
+    private static final int THREADS = 32;
+    private static final int TRANSFERS_PER_THREAD = 100;
+    private static final int HOT_ACCOUNT = 5;
+    private static final BigDecimal AMOUNT = BigDecimal.ONE;
+    private static final BigDecimal EXPECTED_INCREASE = AMOUNT.multiply(BigDecimal.valueOf(THREADS * TRANSFERS_PER_THREAD));
+
+    private final List<Integer> sourceAccounts = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        // commits the schema and test data, so the connections of the threads see them
+        connection.setAutoCommit(true);
+        try (PreparedStatement insert = connection.prepareStatement("""
+                INSERT INTO accounts (customer_id, account_type, balance)
+                SELECT 1, 'checking', 1000 FROM generate_series(1, ?)
+                RETURNING account_id""")) {
+            insert.setInt(1, THREADS);
+            try (ResultSet rs = insert.executeQuery()) {
+                while (rs.next()) {
+                    sourceAccounts.add(rs.getInt(1));
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("should serialize transfers on the row of the hot account")
+    void rowUpdates() throws Exception {
+        BigDecimal before = selectStoredBalance(HOT_ACCOUNT);
+
+        long elapsedNanos = runTransfers(transferConnection -> (from, to) -> transferUpdatingRows(transferConnection, from, to));
+
+        System.out.println("Row updates: " + throughput(elapsedNanos));
+        assertEquals(0, before.add(EXPECTED_INCREASE).compareTo(selectStoredBalance(HOT_ACCOUNT)));
+    }
+
+    @Test
+    @DisplayName("should append transfers to the hot account without waiting for each other")
+    void balanceDeltas() throws Exception {
+        BigDecimal before = selectStoredBalance(HOT_ACCOUNT);
+
+        long elapsedNanos;
+        try (DeltaBalanceFolder folder = new DeltaBalanceFolder(database.getPool(), Duration.ofMillis(10))) {
+            elapsedNanos = runTransfers(transferConnection -> {
+                DeltaBalanceDao dao = new DeltaBalanceDao(transferConnection);
+                return (from, to) -> dao.transferMoney(from, to, AMOUNT);
+            });
+            System.out.println("Balance deltas: " + throughput(elapsedNanos) + ", " + folder.getFolded()
+                    + " deltas folded in " + folder.getRuns() + " runs");
+            assertEquals(0, folder.getFailedRuns());
+        }
+
+        DeltaBalanceDao dao = new DeltaBalanceDao(connection);
+        assertEquals(0, before.add(EXPECTED_INCREASE).compareTo(dao.getBalance(HOT_ACCOUNT)));
+        dao.foldAll();
+        assertEquals(0, before.add(EXPECTED_INCREASE).compareTo(selectStoredBalance(HOT_ACCOUNT)));
+    }
+
+    private long runTransfers(TransferFactory transferFactory) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger ready = new AtomicInteger();
+        try (ConnectionPool pool = new ConnectionPool(database.getDataSource(), 0, THREADS)) {
+            ExecutorService executor = ScenarioThreads.newExecutor("transfer", THREADS);
+            try {
+                List<Future<?>> futures = new ArrayList<>(THREADS);
+                for (int sourceAccount : sourceAccounts) {
+                    futures.add(executor.submit(() -> {
+                        try (Connection transferConnection = pool.getConnection()) {
+                            TransferAction transfer = transferFactory.create(transferConnection);
+                            ready.incrementAndGet();
+                            start.await();
+                            for (int j = 0; j < TRANSFERS_PER_THREAD; j++) {
+                                transfer.transfer(sourceAccount, HOT_ACCOUNT);
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                while (ready.get() < THREADS) {
+                    TimeUnit.MILLISECONDS.sleep(1);
+                }
+                long startNanos = System.nanoTime();
+                start.countDown();
+                for (Future<?> future : futures) {
+                    future.get(2, TimeUnit.MINUTES);
+                }
+                return System.nanoTime() - startNanos;
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * The usual way: both balances are updated in place, so every transfer holds the lock on the hot row
+     * until it commits.
+     */
+    private static void transferUpdatingRows(Connection transferConnection, int from, int to) throws SQLException {
+        transferConnection.setAutoCommit(false);
+        try (PreparedStatement debit = transferConnection.prepareStatement(
+                "UPDATE accounts SET balance = balance - ? WHERE account_id = ? AND balance >= ?");
+             PreparedStatement credit = transferConnection.prepareStatement(
+                     "UPDATE accounts SET balance = balance + ? WHERE account_id = ?")) {
+            debit.setBigDecimal(1, AMOUNT);
+            debit.setInt(2, from);
+            debit.setBigDecimal(3, AMOUNT);
+            assertEquals(1, debit.executeUpdate());
+            credit.setBigDecimal(1, AMOUNT);
+            credit.setInt(2, to);
+            credit.executeUpdate();
+            transferConnection.commit();
+        } catch (SQLException | RuntimeException | Error e) {
+            transferConnection.rollback();
+            throw e;
+        }
+    }
+
+    private static String throughput(long elapsedNanos) {
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        int transfers = THREADS * TRANSFERS_PER_THREAD;
+        return "%d threads, %d transfers to one account in %d ms (%d/s)".formatted(
+                THREADS, transfers, millis, transfers * 1000L / millis);
+    }
+
+    private BigDecimal selectStoredBalance(int accountId) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT balance FROM accounts WHERE account_id = ?")) {
+            statement.setInt(1, accountId);
+            ResultSet rs = statement.executeQuery();
+            rs.next();
+            return rs.getBigDecimal(1);
+        }
+    }
+
+    @FunctionalInterface
+    private interface TransferFactory {
+        TransferAction create(Connection transferConnection) throws SQLException;
+    }
+
+    @FunctionalInterface
+    private interface TransferAction {
+        void transfer(int fromAccountId, int toAccountId) throws SQLException;
+    }
+}
@@ -0,0 +1,79 @@
+package org.codeus.database.fundamentals.transaction_management.dao;
+
+import org.codeus.database.fundamentals.transaction_management.error.InsufficientFundsException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class IdempotentBankingDaoTest {
+
+    private BankingDao delegate;
+    private CompletedOperations completedOperations;
+    private IdempotentBankingDao instance;
+
+    @BeforeEach
+    void setUp() {
+        delegate = mock(BankingDao.class);
+        completedOperations = new CompletedOperations(2);
+        instance = new IdempotentBankingDao(delegate, completedOperations);
+        when(delegate.withdrawMoney("a", 1, BigDecimal.TEN)).thenReturn(true);
+        when(delegate.transferMoney("b", 1, 2, BigDecimal.TEN)).thenReturn(true);
+    }
+
+    @Test
+    @DisplayName("should answer a retry without calling the delegate")
+    void withdrawMoney_retried_shortCircuits() {
+        assertTrue(instance.withdrawMoney("a", 1, BigDecimal.TEN));
+        assertFalse(instance.withdrawMoney("a", 1, BigDecimal.TEN));
+        assertTrue(instance.transferMoney("b", 1, 2, BigDecimal.TEN));
+        assertFalse(instance.transferMoney("b", 1, 2, BigDecimal.TEN));
+
+        verify(delegate, times(1)).withdrawMoney("a", 1, BigDecimal.TEN);
+        verify(delegate, times(1)).transferMoney("b", 1, 2, BigDecimal.TEN);
+        assertEquals(2, completedOperations.getHits());
+    }
+
+    @Test
+    @DisplayName("should reject a key reused for a different request")
+    void withdrawMoney_keyReused_throwsException() {
+        instance.withdrawMoney("a", 1, BigDecimal.TEN);
+
+        assertThrows(IllegalArgumentException.class, () -> instance.withdrawMoney("a", 2, BigDecimal.TEN));
+        assertThrows(IllegalArgumentException.class, () -> instance.transferMoney("a", 1, 2, BigDecimal.TEN));
+    }
+
+    @Test
+    @DisplayName("should not remember the key of a failed operation")
+    void withdrawMoney_failed_notRemembered() {
+        when(delegate.withdrawMoney("c", 6, BigDecimal.TEN))
+                .thenThrow(new InsufficientFundsException("No money"))
+                .thenReturn(true);
+
+        assertThrows(InsufficientFundsException.class, () -> instance.withdrawMoney("c", 6, BigDecimal.TEN));
+        assertTrue(instance.withdrawMoney("c", 6, BigDecimal.TEN));
+    }
+
+    @Test
+    @DisplayName("should ask the delegate again for an evicted key")
+    void withdrawMoney_evicted_callsDelegate() {
+        instance.withdrawMoney("a", 1, BigDecimal.TEN);
+        instance.transferMoney("b", 1, 2, BigDecimal.TEN);
+        instance.withdrawMoney("d", 1, BigDecimal.ONE);
+
+        instance.withdrawMoney("a", 1, BigDecimal.TEN);
+
+        verify(delegate, times(2)).withdrawMoney("a", 1, BigDecimal.TEN);
+        assertEquals(2, completedOperations.size());
+    }
+}
@@ -0,0 +1,143 @@
+package org.codeus.database.fundamentals.transaction_management.dao;
+
+import org.codeus.database.common.EmbeddedPostgreSqlSetup;
+import org.codeus.database.fundamentals.transaction_management.model.Transfer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StatementCacheTest extends EmbeddedPostgreSqlSetup {
+
+    private static final String SELECT_BALANCE = "SELECT balance FROM accounts WHERE account_id = ?";
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        connection.setAutoCommit(true);
+    }
+
+    @Test
+    @DisplayName("should prepare a query once and count hits and misses")
+    void prepare_sameQuery_returnsCachedStatement() throws SQLException {
+        try (StatementCache cache = new StatementCache(connection)) {
+            PreparedStatement first = cache.prepare(SELECT_BALANCE);
+            first.setInt(1, 1);
+            first.executeQuery().close();
+            PreparedStatement second = cache.prepare(SELECT_BALANCE);
+
+            assertSame(first, second);
+            assertEquals(1, cache.getMisses());
+            assertEquals(1, cache.getHits());
+            assertEquals(1, cache.size());
+        }
+    }
+
+    @Test
+    @DisplayName("should prepare a cached statement on the server on its first execution")
+    void prepare_prepareThresholdOne_serverSidePrepareOnFirstExecution() throws SQLException {
+        int before = countServerPreparedStatements();
+        try (StatementCache cache = new StatementCache(connection)) {
+            executeSelectBalance(cache);
+            assertEquals(before + 1, countServerPreparedStatements());
+
+            executeSelectBalance(cache);
+            assertEquals(before + 1, countServerPreparedStatements(), "The server statement should be reused");
+        }
+    }
+
+    @Test
+    @DisplayName("should leave the first executions to the driver's default threshold when asked to")
+    void prepare_defaultDriverThreshold_noServerSidePrepareOnFirstExecution() throws SQLException {
+        int before = countServerPreparedStatements();
+        try (StatementCache cache = new StatementCache(
+                connection, StatementCache.DEFAULT_MAX_SIZE, StatementCache.DRIVER_PREPARE_THRESHOLD)) {
+            executeSelectBalance(cache);
+            assertEquals(before, countServerPreparedStatements());
+        }
+    }
+
+    @Test
+    @DisplayName("should close the least recently used statement when the cache is full")
+    void prepare_cacheFull_evictsLeastRecentlyUsed() throws SQLException {
+        try (StatementCache cache = new StatementCache(connection, 2, 1)) {
+            PreparedStatement first = cache.prepare("SELECT 1");
+            PreparedStatement second = cache.prepare("SELECT 2");
+            cache.prepare("SELECT 1");
+            cache.prepare("SELECT 3");
+
+            assertEquals(2, cache.size());
+            assertTrue(second.isClosed());
+            assertFalse(first.isClosed());
+            assertSame(first, cache.prepare("SELECT 1"));
+        }
+    }
+
+    @Test
+    @DisplayName("should prepare the query again if its statement was closed")
+    void prepare_closedStatement_preparesAgain() throws SQLException {
+        try (StatementCache cache = new StatementCache(connection)) {
+            PreparedStatement first = cache.prepare(SELECT_BALANCE);
+            first.close();
+
+            PreparedStatement second = cache.prepare(SELECT_BALANCE);
+
+            assertNotSame(first, second);
+            assertEquals(2, cache.getMisses());
+            assertEquals(0, cache.getHits());
+        }
+    }
+
+    @Test
+    @DisplayName("should close all statements and leave the connection open")
+    void close_closesStatements() throws SQLException {
+        StatementCache cache = new StatementCache(connection);
+        PreparedStatement statement = cache.prepare(SELECT_BALANCE);
+
+        cache.close();
+
+        assertTrue(statement.isClosed());
+        assertEquals(0, cache.size());
+        assertFalse(connection.isClosed());
+    }
+
+    @Test
+    @DisplayName("should prepare the statements of BankingDaoImpl once")
+    void bankingDao_repeatedCalls_hitCache() {
+        BankingDaoImpl dao = new BankingDaoImpl(connection);
+
+        dao.transferMoneyBatch(List.of(new Transfer(1, 2, BigDecimal.TEN)));
+        long missesAfterFirstCall = dao.getStatementCache().getMisses();
+        dao.transferMoneyBatch(List.of(new Transfer(2, 1, BigDecimal.TEN)));
+
+        assertEquals(missesAfterFirstCall, dao.getStatementCache().getMisses());
+        assertEquals(missesAfterFirstCall, dao.getStatementCache().getHits());
+    }
+
+    private static void executeSelectBalance(StatementCache cache) throws SQLException {
+        PreparedStatement select = cache.prepare(SELECT_BALANCE);
+        select.setInt(1, 1);
+        try (ResultSet resultSet = select.executeQuery()) {
+            assertTrue(resultSet.next());
+        }
+    }
+
+    private int countServerPreparedStatements() throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM pg_prepared_statements")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package org.codeus.database.fundamentals.transaction_management.dao;
+
+import org.codeus.database.common.ConnectionPool;
+import org.codeus.database.common.EmbeddedPostgreSqlSetup;
+import org.codeus.database.common.ScenarioThreads;
+import org.codeus.database.fundamentals.transaction_management.model.Transfer;
+import org.codeus.database.fundamentals.transaction_management.model.TransferBatchResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Many threads transferring money back and forth between a few hot accounts, each on its own connection.
+ */
+class TransferContentionTest extends EmbeddedPostgreSqlSetup {
+
+    private static final int THREADS = 64;
+    private static final int TRANSFERS_PER_THREAD = 25;
+    private static final List<Integer> HOT_ACCOUNTS = List.of(1, 2, 3, 4);
+    private static final BigDecimal AMOUNT = BigDecimal.ONE;
+    private static final String DEADLOCK_DETECTED = "40P01";
+    private static final String SERIALIZATION_FAILURE = "40001";
+    private static final String UPDATE_BALANCE_SQL = "UPDATE accounts SET balance = balance + ? WHERE account_id = ?";
+    private static final String INSERT_TRANSFER_SQL =
+            "INSERT INTO transactions (account_id, transaction_type, amount, description) VALUES (?, 'transfer', ?, ?)";
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        // commits the schema and test data, so the connections of the threads see them
+        connection.setAutoCommit(true);
+    }
+
+    @Test
+    @DisplayName("should not deadlock when transfers lock both accounts in ascending order under REPEATABLE READ")
+    void orderedLockingRepeatableRead_noDeadlocks() throws Exception {
+        BigDecimal totalBefore = selectHotTotal();
+        int ledgerRowsBefore = countTransferRecords();
+
+        ContentionResult result = runContention(transferConnection -> {
+            StatementCache statementCache = new StatementCache(transferConnection);
+            return (from, to) -> transferLockingInOrder(statementCache, from, to);
+        });
+
+        System.out.println("Ordered locking, REPEATABLE READ: " + result);
+        Map<String, Integer> failures = new TreeMap<>(result.failuresBySqlState());
+        int serializationFailures = failures.getOrDefault(SERIALIZATION_FAILURE, 0);
+        failures.remove(SERIALIZATION_FAILURE);
+        // a row updated by a transfer committed after the snapshot was taken cannot be locked, the caller retries
+        assertEquals(Map.of(), failures, "Transfers should fail only on serialization, never on a deadlock");
+        assertTrue(result.committed() > 0, "Some transfers should be committed: " + result);
+        assertEquals(THREADS * TRANSFERS_PER_THREAD, result.committed() + serializationFailures);
+        assertEquals(0, totalBefore.compareTo(selectHotTotal()), "Money should be neither created nor lost");
+        assertEquals(2 * result.committed(), countTransferRecords() - ledgerRowsBefore);
+    }
+
+    @Test
+    @DisplayName("should not deadlock when transfer batches lock their accounts in ascending order")
+    void orderedLockingBatches_noDeadlocks() throws Exception {
+        BigDecimal totalBefore = selectHotTotal();
+        int ledgerRowsBefore = countTransferRecords();
+
+        ContentionResult result = runContention(transferConnection -> {
+            BankingDaoImpl dao = new BankingDaoImpl(transferConnection);
+            return (from, to) -> {
+                TransferBatchResult batch = dao.transferMoneyBatch(List.of(new Transfer(from, to, AMOUNT)));
+                assertTrue(batch.isFullyApplied(), "Transfer should be applied: " + batch);
+            };
+        });
+
+        System.out.println("Ordered locking, batches under READ COMMITTED: " + result);
+        assertEquals(Map.of(), result.failuresBySqlState(), "No transfer should fail");
+        assertEquals(THREADS * TRANSFERS_PER_THREAD, result.committed());
+        assertEquals(0, totalBefore.compareTo(selectHotTotal()), "Money should be neither created nor lost");
+        assertEquals(2 * THREADS * TRANSFERS_PER_THREAD, countTransferRecords() - ledgerRowsBefore);
+    }
+
+    @Test
+    @DisplayName("should deadlock under the same load when each transfer locks its source account first")
+    void sourceFirstLocking_deadlocks() throws Exception {
+        ContentionResult result = runContention(transferConnection -> {
+            try (Statement statement = transferConnection.createStatement()) {
+                // only to keep the test short, the deadlocks are found the same way with the default 1s
+                statement.execute("SET deadlock_timeout = '10ms'");
+            }
+            return (from, to) -> transferLockingSourceFirst(transferConnection, from, to);
+        });
+
+        System.out.println("Source-first locking: " + result);
+        assertTrue(result.failuresBySqlState().getOrDefault(DEADLOCK_DETECTED, 0) > 0,
+                "The load should be enough to make opposite transfers deadlock: " + result);
+    }
+
+    private ContentionResult runContention(TransferFactory transferFactory) throws Exception {
+        Map<String, Integer> failuresBySqlState = new ConcurrentHashMap<>();
+        LongAdder committed = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger ready = new AtomicInteger();
+        long elapsedNanos;
+
+        try (ConnectionPool pool = new ConnectionPool(database.getDataSource(), 0, THREADS)) {
+            ExecutorService executor = ScenarioThreads.newExecutor("transfer", THREADS);
+            try {
+                List<Future<?>> futures = new ArrayList<>(THREADS);
+                for (int i = 0; i < THREADS; i++) {
+                    futures.add(executor.submit(() -> {
+                        try (Connection transferConnection = pool.getConnection()) {
+                            TransferAction transfer = transferFactory.create(transferConnection);
+                            ready.incrementAndGet();
+                            start.await();
+                            for (int j = 0; j < TRANSFERS_PER_THREAD; j++) {
+                                int[] pair = randomPair();
+                                try {
+                                    transfer.transfer(pair[0], pair[1]);
+                                    committed.increment();
+                                } catch (RuntimeException e) {
+                                    failuresBySqlState.merge(findSqlState(e), 1, Integer::sum);
+                                }
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                while (ready.get() < THREADS) {
+                    TimeUnit.MILLISECONDS.sleep(1);
+                }
+                long startNanos = System.nanoTime();
+                start.countDown();
+                for (Future<?> future : futures) {
+                    future.get(2, TimeUnit.MINUTES);
+                }
+                elapsedNanos = System.nanoTime() - startNanos;
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        return new ContentionResult(committed.intValue(), new TreeMap<>(failuresBySqlState), elapsedNanos);
+    }
+
+    /**
+     * The way {@link BankingDao#transferMoney} is specified: locks both accounts with {@link AccountLocks}
+     * under REPEATABLE READ, then updates them and records the transfer.
+     */
+    private static void transferLockingInOrder(StatementCache statementCache, int from, int to) {
+        Connection transferConnection = statementCache.getConnection();
+        try {
+            transferConnection.setAutoCommit(false);
+            transferConnection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            AccountLocks.lockForUpdate(statementCache, List.of(from, to));
+            PreparedStatement update = statementCache.prepare(UPDATE_BALANCE_SQL);
+            update.setBigDecimal(1, AMOUNT.negate());
+            update.setInt(2, from);
+            update.executeUpdate();
+            update.setBigDecimal(1, AMOUNT);
+            update.setInt(2, to);
+            update.executeUpdate();
+            PreparedStatement insert = statementCache.prepare(INSERT_TRANSFER_SQL);
+            insert.setInt(1, from);
+            insert.setBigDecimal(2, AMOUNT);
+            insert.setString(3, "Transfer to " + to);
+            insert.executeUpdate();
+            insert.setInt(1, to);
+            insert.setBigDecimal(2, AMOUNT);
+            insert.setString(3, "Transfer from " + from);
+            insert.executeUpdate();
+            transferConnection.commit();
+        } catch (SQLException e) {
+            rollback(transferConnection, e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The deadlock-prone way: locks the source account, then the destination, with separate statements.
+     */
+    private static void transferLockingSourceFirst(Connection transferConnection, int from, int to) {
+        try {
+            transferConnection.setAutoCommit(false);
+            try (PreparedStatement lock = transferConnection.prepareStatement(
+                    "SELECT balance FROM accounts WHERE account_id = ? FOR UPDATE");
+                 PreparedStatement update = transferConnection.prepareStatement(UPDATE_BALANCE_SQL)) {
+                lock.setInt(1, from);
+                lock.executeQuery().close();
+                lock.setInt(1, to);
+                lock.executeQuery().close();
+                update.setBigDecimal(1, AMOUNT.negate());
+                update.setInt(2, from);
+                update.executeUpdate();
+                update.setBigDecimal(1, AMOUNT);
+                update.setInt(2, to);
+                update.executeUpdate();
+            }
+            transferConnection.commit();
+        } catch (SQLException e) {
+            rollback(transferConnection, e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void rollback(Connection transferConnection, SQLException failure) {
+        try {
+            transferConnection.rollback();
+        } catch (SQLException rollbackException) {
+            failure.addSuppressed(rollbackException);
+        }
+    }
+
+    private static int[] randomPair() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int from = random.nextInt(HOT_ACCOUNTS.size());
+        int to = (from + 1 + random.nextInt(HOT_ACCOUNTS.size() - 1)) % HOT_ACCOUNTS.size();
+        return new int[]{HOT_ACCOUNTS.get(from), HOT_ACCOUNTS.get(to)};
+    }
+
+    private static String findSqlState(Throwable error) {
+        for (Throwable current = error; current != null; current = current.getCause()) {
+            if (current instanceof SQLException sqlException && sqlException.getSQLState() != null) {
+                return sqlException.getSQLState();
+            }
+        }
+        return error.getClass().getSimpleName();
+    }
+
+    private BigDecimal selectHotTotal() throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT SUM(balance) FROM accounts WHERE account_id = ANY (?)")) {
+            statement.setArray(1, connection.createArrayOf("integer", HOT_ACCOUNTS.toArray()));
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return rs.getBigDecimal(1);
+            }
+        }
+    }
+
+    private int countTransferRecords() throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM transactions WHERE transaction_type = 'transfer'")) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    @FunctionalInterface
+    private interface TransferFactory {
+        TransferAction create(Connection transferConnection) throws SQLException;
+    }
+
+    @FunctionalInterface
+    private interface TransferAction {
+        void transfer(int fromAccountId, int toAccountId);
+    }
+
+    private record ContentionResult(int committed, Map<String, Integer> failuresBySqlState, long elapsedNanos) {
+
+        @Override
+        public String toString() {
+            long millis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+            return "%d threads, %d transfers committed in %d ms (%d/s), failures by SQLSTATE %s".formatted(
+                    THREADS, committed, millis, millis == 0 ? 0 : committed * 1000L / millis, failuresBySqlState);
+        }
+    }
+}
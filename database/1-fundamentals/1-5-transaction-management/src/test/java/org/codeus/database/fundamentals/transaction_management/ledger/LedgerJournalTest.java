@@ -0,0 +1,54 @@
+package org.codeus.database.fundamentals.transaction_management.ledger;
+
+import org.codeus.database.fundamentals.transaction_management.model.LedgerEntry;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LedgerJournalTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("should recover the unflushed entries from a journal with a flushed record and a torn tail")
+    void recover_flushedAndTornTail_pendingEntriesKept() throws IOException {
+        Path file = directory.resolve("ledger.journal");
+        try (LedgerJournal journal = LedgerJournal.recover(file).journal()) {
+            journal.append(List.of(pending(1), pending(2), pending(3)));
+            journal.markFlushed(2);
+        }
+        // an entry record torn by a crash: type, then half of its sequence number
+        Files.write(file, new byte[]{1, 0, 0, 0}, StandardOpenOption.APPEND);
+
+        LedgerJournal.Recovered recovered = LedgerJournal.recover(file);
+        try (LedgerJournal journal = recovered.journal()) {
+            assertEquals(List.of(pending(3)), recovered.pending());
+            journal.append(List.of(pending(4)));
+        }
+
+        LedgerJournal.Recovered reopened = LedgerJournal.recover(file);
+        reopened.journal().close();
+        assertEquals(List.of(pending(3), pending(4)), reopened.pending(),
+                "Entries appended after a recovery should follow the recovered ones");
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(List.of(file), files.toList(), "The rewritten journal should replace the old one");
+        }
+    }
+
+    private static LedgerJournal.Pending pending(long sequence) {
+        return new LedgerJournal.Pending(sequence, Instant.ofEpochSecond(1_700_000_000L, sequence),
+                new LedgerEntry((int) sequence, "deposit", new BigDecimal("1.50"), "entry " + sequence));
+    }
+}
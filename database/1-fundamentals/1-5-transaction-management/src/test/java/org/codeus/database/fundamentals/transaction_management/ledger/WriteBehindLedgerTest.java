@@ -0,0 +1,248 @@
+package org.codeus.database.fundamentals.transaction_management.ledger;
+
+import org.codeus.database.common.EmbeddedPostgreSqlSetup;
+import org.codeus.database.fundamentals.transaction_management.dao.BankingDaoImpl;
+import org.codeus.database.fundamentals.transaction_management.model.LedgerEntry;
+import org.codeus.database.fundamentals.transaction_management.model.Transfer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class WriteBehindLedgerTest extends EmbeddedPostgreSqlSetup {
+
+    private static final String AUDIT = "ledger test";
+
+    @TempDir
+    Path directory;
+    private Path journalFile;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        // commits the schema and test data, so the writer's connections see them
+        connection.setAutoCommit(true);
+        journalFile = directory.resolve("ledger.journal");
+    }
+
+    @Test
+    @DisplayName("should write appended entries to the transactions table")
+    void append_flush_entriesWritten() throws SQLException {
+        try (WriteBehindLedger ledger = new WriteBehindLedger(database.getPool(), journalFile)) {
+            ledger.append(List.of(
+                    new LedgerEntry(1, "deposit", new BigDecimal("10.50"), AUDIT + " \"quoted\", with comma"),
+                    new LedgerEntry(2, "withdrawal", new BigDecimal("3.00"), AUDIT + "\nsecond line"),
+                    new LedgerEntry(3, "transfer", new BigDecimal("7.25"), null)));
+            ledger.flush();
+
+            assertEquals(3, ledger.getWritten());
+            assertEquals(0, ledger.getQueued());
+        }
+
+        List<String> descriptions = selectDescriptions();
+        assertEquals(List.of(AUDIT + " \"quoted\", with comma", AUDIT + "\nsecond line"), descriptions);
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT amount, transaction_date FROM transactions WHERE account_id = 3 AND description IS NULL")) {
+            ResultSet rs = statement.executeQuery();
+            assertTrue(rs.next());
+            assertEquals(0, new BigDecimal("7.25").compareTo(rs.getBigDecimal(1)));
+            assertNotNull(rs.getTimestamp(2), "The time of the append should be recorded");
+        }
+    }
+
+    @Test
+    @DisplayName("should write everything queued before close returns")
+    void close_flushesQueue() throws SQLException, IOException {
+        int count = 5_000;
+        WriteBehindLedger ledger = new WriteBehindLedger(database.getPool(), journalFile, 1_000, 500,
+                Duration.ofMillis(50), Duration.ofSeconds(30));
+        ledger.append(entries(count));
+
+        ledger.close();
+
+        assertEquals(count, countAuditRows());
+        assertEquals(0, Files.size(journalFile), "The journal should be empty once everything is written");
+    }
+
+    @Test
+    @DisplayName("should make appenders wait while the queue is full")
+    void append_queueFull_waits() throws Exception {
+        CountDownLatch databaseAvailable = new CountDownLatch(1);
+        DataSource slowDataSource = mock(DataSource.class);
+        when(slowDataSource.getConnection()).thenAnswer(invocation -> {
+            databaseAvailable.await();
+            return database.getPool().getConnection();
+        });
+
+        try (WriteBehindLedger ledger = new WriteBehindLedger(slowDataSource, journalFile, 10, 10,
+                Duration.ofMillis(10), Duration.ofSeconds(30))) {
+            ledger.append(entries(10));
+            CompletableFuture<Void> blocked = CompletableFuture.runAsync(() -> ledger.append(entries(5)));
+
+            assertThrows(TimeoutException.class, () -> blocked.get(300, TimeUnit.MILLISECONDS),
+                    "Append should wait for room in the queue");
+            assertEquals(1, ledger.getBackpressureWaits());
+
+            databaseAvailable.countDown();
+            blocked.get(10, TimeUnit.SECONDS);
+            ledger.flush();
+        }
+        assertEquals(15, countAuditRows());
+    }
+
+    @Test
+    @DisplayName("should reject an append waiting for room once the ledger is closed, and write what was queued")
+    void close_appendWaitingForRoom_rejected() throws Exception {
+        CountDownLatch databaseAvailable = new CountDownLatch(1);
+        DataSource slowDataSource = mock(DataSource.class);
+        when(slowDataSource.getConnection()).thenAnswer(invocation -> {
+            databaseAvailable.await();
+            return database.getPool().getConnection();
+        });
+        WriteBehindLedger ledger = new WriteBehindLedger(slowDataSource, journalFile, 10, 10,
+                Duration.ofMillis(10), Duration.ofSeconds(30));
+        ledger.append(entries(10));
+        CompletableFuture<Void> blocked = CompletableFuture.runAsync(() -> ledger.append(entries(5)));
+        assertThrows(TimeoutException.class, () -> blocked.get(300, TimeUnit.MILLISECONDS));
+
+        Thread closing = new Thread(ledger::close);
+        closing.start();
+        // close() is waiting for the writer once it has stopped accepting entries
+        while (closing.getState() != Thread.State.TIMED_WAITING) {
+            TimeUnit.MILLISECONDS.sleep(1);
+        }
+        databaseAvailable.countDown();
+
+        ExecutionException rejected = assertThrows(ExecutionException.class, () -> blocked.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, rejected.getCause());
+        closing.join(TimeUnit.SECONDS.toMillis(30));
+        assertEquals(10, ledger.getAppended());
+        assertEquals(10, countAuditRows());
+        assertEquals(0, Files.size(journalFile), "Nothing should be left in the journal");
+    }
+
+    @Test
+    @DisplayName("should write the journaled entries once the database is reachable again")
+    void recover_unwrittenEntries_writtenOnce() throws Exception {
+        DataSource unreachable = mock(DataSource.class);
+        when(unreachable.getConnection()).thenThrow(new SQLTransientConnectionException("Database is down"));
+        WriteBehindLedger failing = new WriteBehindLedger(unreachable, journalFile, 100, 10,
+                Duration.ofMillis(10), Duration.ofMillis(200));
+        failing.append(entries(25));
+        failing.close();
+        assertTrue(failing.getFailedBatches() > 0);
+        assertEquals(0, countAuditRows());
+
+        // a record torn by a crash at the end of the journal
+        Files.write(journalFile, new byte[]{1, 0, 0, 0}, StandardOpenOption.APPEND);
+
+        try (WriteBehindLedger ledger = new WriteBehindLedger(database.getPool(), journalFile)) {
+            ledger.flush();
+            assertEquals(25, ledger.getWritten());
+        }
+        assertEquals(25, countAuditRows());
+
+        try (WriteBehindLedger reopened = new WriteBehindLedger(database.getPool(), journalFile)) {
+            reopened.flush();
+            assertEquals(0, reopened.getWritten(), "Written entries should not be written again");
+        }
+        assertEquals(25, countAuditRows());
+    }
+
+    @Test
+    @DisplayName("should drop only the entries the database rejects and write the rest of their batch")
+    void append_rejectedEntries_dropped() throws SQLException {
+        List<LedgerEntry> batch = new ArrayList<>(entries(10));
+        batch.set(3, new LedgerEntry(9999, "deposit", BigDecimal.ONE, AUDIT));
+        batch.set(7, new LedgerEntry(9998, "deposit", BigDecimal.ONE, AUDIT));
+
+        try (WriteBehindLedger ledger = new WriteBehindLedger(database.getPool(), journalFile)) {
+            ledger.append(batch);
+            ledger.flush();
+
+            assertEquals(2, ledger.getDropped());
+            assertEquals(8, ledger.getWritten());
+            assertEquals(0, ledger.getQueued());
+        }
+        assertEquals(8, countAuditRows());
+    }
+
+    @Test
+    @DisplayName("should let the DAO append ledger rows instead of inserting them")
+    void bankingDao_writeBehind() throws SQLException {
+        try (WriteBehindLedger ledger = new WriteBehindLedger(database.getPool(), journalFile)) {
+            BankingDaoImpl dao = new BankingDaoImpl(connection, ledger);
+
+            dao.transferMoneyBatch(List.of(new Transfer(1, 2, BigDecimal.TEN)));
+            dao.withdrawMoneyReturningBalance(3, BigDecimal.ONE);
+            ledger.flush();
+
+            assertEquals(3, ledger.getWritten());
+        }
+        try (PreparedStatement statement = connection.prepareStatement("""
+                SELECT COUNT(*) FROM transactions
+                WHERE (account_id, transaction_type, description) IN
+                      ((1, 'transfer', 'Transfer to 2'), (2, 'transfer', 'Transfer from 1'), (3, 'withdrawal', 'Withdrawal'))""")) {
+            ResultSet rs = statement.executeQuery();
+            rs.next();
+            assertEquals(3, rs.getInt(1));
+        }
+    }
+
+    private static List<LedgerEntry> entries(int count) {
+        List<LedgerEntry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            entries.add(new LedgerEntry(1 + i % 5, "deposit", BigDecimal.ONE, AUDIT));
+        }
+        return entries;
+    }
+
+    private int countAuditRows() throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT COUNT(*) FROM transactions WHERE description = ?")) {
+            statement.setString(1, AUDIT);
+            ResultSet rs = statement.executeQuery();
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+    private List<String> selectDescriptions() throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT description FROM transactions WHERE description LIKE ? ORDER BY transaction_id")) {
+            statement.setString(1, AUDIT + "%");
+            ResultSet rs = statement.executeQuery();
+            List<String> descriptions = new ArrayList<>();
+            while (rs.next()) {
+                descriptions.add(rs.getString(1));
+            }
+            return descriptions;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package org.codeus.database.fundamentals.transaction_management.tx;
+
+import org.codeus.database.common.EmbeddedPostgreSqlSetup;
+import org.codeus.database.fundamentals.transaction_management.error.DaoOperationException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransactionTemplateTest extends EmbeddedPostgreSqlSetup {
+
+    private static final int ACCOUNT_ID = 1;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        // commits the schema and test data, so the connections of the writers see them
+        connection.setAutoCommit(true);
+    }
+
+    @Test
+    @DisplayName("should commit every transaction of concurrent SERIALIZABLE writers by retrying serialization failures")
+    void execute_concurrentSerializableWriters_allCommitted() throws Exception {
+        int writers = 8;
+        int transactionsPerWriter = 20;
+        BigDecimal initialBalance = selectBalance();
+        TransactionTemplate template = new TransactionTemplate(connection,
+                RetryPolicy.builder().maxAttempts(100).maxBackoffMillis(20).build(), RetryBudget.unlimited());
+
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < writers; i++) {
+                futures.add(executor.submit(() -> {
+                    try (Connection writerConnection = database.getPool().getConnection()) {
+                        TransactionTemplate writerTemplate = template.withConnection(writerConnection);
+                        for (int j = 0; j < transactionsPerWriter; j++) {
+                            writerTemplate.execute(Connection.TRANSACTION_SERIALIZABLE, this::depositOne);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        int total = writers * transactionsPerWriter;
+        TransactionMetrics metrics = template.getMetrics();
+        assertEquals(0, initialBalance.add(BigDecimal.valueOf(total)).compareTo(selectBalance()), "Every deposit should be applied once");
+        assertEquals(total, metrics.getCommitted());
+        assertEquals(0, metrics.getFailed());
+        assertEquals(total + metrics.getRetries(), metrics.getAttempts());
+        assertEquals(total, metrics.getCommittedByAttempts().values().stream().mapToLong(Long::longValue).sum());
+        System.out.println("Concurrent SERIALIZABLE deposits: " + metrics);
+    }
+
+    @Test
+    @DisplayName("should roll back a failed attempt before retrying")
+    void execute_retryableFailure_rolledBackAndRetried() throws SQLException {
+        BigDecimal initialBalance = selectBalance();
+        AtomicInteger calls = new AtomicInteger();
+        TransactionTemplate template = new TransactionTemplate(connection);
+
+        template.execute(Connection.TRANSACTION_REPEATABLE_READ, conn -> {
+            depositOne(conn);
+            if (calls.incrementAndGet() < 3) {
+                throw new SQLException("could not serialize access", RetryPolicy.SERIALIZATION_FAILURE);
+            }
+            return null;
+        });
+
+        assertEquals(3, calls.get());
+        assertEquals(0, initialBalance.add(BigDecimal.ONE).compareTo(selectBalance()), "Only the last attempt should be committed");
+        assertEquals(Map.of(3, 1L), template.getMetrics().getCommittedByAttempts());
+        assertEquals(Map.of(RetryPolicy.SERIALIZATION_FAILURE, 2L), template.getMetrics().getRetriesBySqlState());
+        assertTrue(connection.getAutoCommit(), "Auto-commit should be restored");
+    }
+
+    @Test
+    @DisplayName("should not retry failures other than serialization failures and deadlocks")
+    void execute_nonRetryableFailure_notRetried() {
+        AtomicInteger calls = new AtomicInteger();
+        TransactionTemplate template = new TransactionTemplate(connection);
+
+        DaoOperationException exception = assertThrows(DaoOperationException.class,
+                () -> template.execute(Connection.TRANSACTION_SERIALIZABLE, conn -> {
+                    calls.incrementAndGet();
+                    throw new SQLException("duplicate key value", "23505");
+                }));
+
+        assertEquals("23505", ((SQLException) exception.getCause()).getSQLState());
+        assertEquals(1, calls.get());
+        assertEquals(1, template.getMetrics().getFailed());
+        assertEquals(0, template.getMetrics().getRetries());
+    }
+
+    @Test
+    @DisplayName("should give up after the maximum number of attempts or when the retry budget is empty")
+    void retry_attemptsAndBudgetLimited() {
+        AtomicInteger calls = new AtomicInteger();
+        Runnable deadlockVictim = () -> {
+            calls.incrementAndGet();
+            throw new DaoOperationException(new SQLException("deadlock detected", RetryPolicy.DEADLOCK_DETECTED));
+        };
+
+        TransactionTemplate limitedAttempts = new TransactionTemplate(connection,
+                RetryPolicy.builder().maxAttempts(3).initialBackoffMillis(1).build(), RetryBudget.unlimited());
+        assertThrows(DaoOperationException.class, () -> limitedAttempts.retry(deadlockVictim));
+        assertEquals(3, calls.get());
+        assertEquals(1, limitedAttempts.getMetrics().getRetriesExhausted());
+
+        calls.set(0);
+        TransactionTemplate limitedBudget = new TransactionTemplate(connection,
+                RetryPolicy.builder().maxAttempts(10).initialBackoffMillis(1).build(), new RetryBudget(0, 1, 1));
+        assertThrows(DaoOperationException.class, () -> limitedBudget.retry(deadlockVictim));
+        assertEquals(2, calls.get(), "The budget allows a single retry");
+        assertEquals(1, limitedBudget.getMetrics().getBudgetExhausted());
+    }
+
+    private Void depositOne(Connection conn) throws SQLException {
+        BigDecimal balance;
+        try (PreparedStatement select = conn.prepareStatement("SELECT balance FROM accounts WHERE account_id = ?")) {
+            select.setInt(1, ACCOUNT_ID);
+            try (ResultSet resultSet = select.executeQuery()) {
+                resultSet.next();
+                balance = resultSet.getBigDecimal(1);
+            }
+        }
+        try (PreparedStatement update = conn.prepareStatement("UPDATE accounts SET balance = ? WHERE account_id = ?")) {
+            update.setBigDecimal(1, balance.add(BigDecimal.ONE));
+            update.setInt(2, ACCOUNT_ID);
+            update.executeUpdate();
+        }
+        return null;
+    }
+
+    private BigDecimal selectBalance() throws SQLException {
+        try (PreparedStatement select = connection.prepareStatement("SELECT balance FROM accounts WHERE account_id = ?")) {
+            select.setInt(1, ACCOUNT_ID);
+            try (ResultSet resultSet = select.executeQuery()) {
+                resultSet.next();
+                return resultSet.getBigDecimal(1);
+            }
+        }
+    }
+}
@@ -36,6 +36,30 @@ CREATE TABLE transactions
     FOREIGN KEY (account_id) REFERENCES accounts (account_id)
 );
 
+-- Table for the signed balance changes of accounts not yet folded into accounts.balance.
+-- No serial key: its index would make every insert touch the same right-most page,
+-- the shard spreads the inserts of one account over several places of the index instead
+CREATE TABLE account_balance_deltas
+(
+    account_id INTEGER        NOT NULL,
+    shard      SMALLINT       NOT NULL,
+    amount     DECIMAL(15, 2) NOT NULL,
+    FOREIGN KEY (account_id) REFERENCES accounts (account_id)
+);
+
+CREATE INDEX account_balance_deltas_account_shard_idx ON account_balance_deltas (account_id, shard);
+
+-- Table for the idempotency keys of committed money-moving operations,
+-- inserted in the same transaction as the operation itself
+CREATE TABLE operation_log
+(
+    idempotency_key VARCHAR(100) NOT NULL,
+    request         TEXT         NOT NULL,
+    completed_at    TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE UNIQUE INDEX operation_log_idempotency_key_idx ON operation_log (idempotency_key);
+
 -- Table for managing loan details and repayments
 CREATE TABLE loans
 (
@@ -1,6 +1,12 @@
 package org.codeus.database.fundamentals.concurrency_control;
 
 import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.codeus.database.common.ConcurrentScenarioRunner;
+import org.codeus.database.common.InterleavingScheduler;
+import org.codeus.database.common.IsolatedDatabase;
+import org.codeus.database.common.QueryResult;
+import org.codeus.database.common.SharedEmbeddedPostgresExtension;
+import org.codeus.database.common.TableRenderer;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
@@ -8,6 +14,8 @@ import org.junit.jupiter.api.MethodOrderer;
 import org.junit.jupiter.api.Order;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.parallel.Isolated;
 
 import javax.sql.DataSource;
 import java.io.IOException;
@@ -15,14 +23,11 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.*;
+import java.util.concurrent.ExecutionException;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
@@ -32,11 +37,37 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+@ExtendWith(SharedEmbeddedPostgresExtension.class)
+@Isolated("Concurrent transactions are timed, so other tests must not compete for the database")
 public class TransactionConcurrencyTest {
 
     protected static EmbeddedPostgres postgres;
     protected static Connection connection;
     protected static DataSource dataSource;
+    // Scenarios with more legs than the pool has connections open their own ones
+    protected static DataSource unpooledDataSource;
+
+    private static final long BLOCKED_TRANSACTION_HOLD_MILLIS = 2000;
+    private static final int CONCURRENT_WRITERS = 50;
+
+    private static final String PESSIMISTIC_WITHDRAWAL = """
+            DO $$
+            DECLARE
+                current_balance DECIMAL(10, 2);
+            BEGIN
+                SELECT balance INTO current_balance FROM accounts WHERE account_id = 1 FOR UPDATE;
+                UPDATE accounts SET balance = current_balance - 10 WHERE account_id = 1;
+            END $$;
+            """;
+    private static final String OPTIMISTIC_DEPOSIT = """
+            SELECT set_config('app.read_version', version::text, false) FROM accounts WHERE account_id = 2;
+            --BARRIER
+            UPDATE accounts
+            SET balance = balance + 10,
+                version = version + 1
+            WHERE account_id = 2
+              AND version = current_setting('app.read_version')::int;
+            """;
 
     private static final String SCHEMA_FILE = "schema.sql";
     private static final String TEST_DATA_FILE = "test-data.sql";
@@ -52,23 +83,22 @@ public class TransactionConcurrencyTest {
     private static final String TASK_09_DIR = "tasks/09-row-locks-for-share/";
 
     @BeforeAll
-    static void startDatabase() throws IOException {
-        System.out.println("Starting embedded PostgreSQL...");
-        postgres = EmbeddedPostgres.start();
-        postgres.getPostgresDatabase();
+    static void startDatabase(IsolatedDatabase database) {
+        postgres = database.getServer();
         try {
-            dataSource = postgres.getPostgresDatabase();
-            connection = dataSource.getConnection();
+            // Transaction legs take their connections from the pool, the test itself keeps a dedicated one
+            dataSource = database.getPool();
+            unpooledDataSource = database.getDataSource();
+            connection = database.getConnection();
             connection.setAutoCommit(false);
-            System.out.println("PostgreSQL started successfully");
+            System.out.println("Connected to " + database);
         } catch (SQLException e) {
             throw new RuntimeException("Failed to get database connection", e);
         }
     }
 
     @AfterAll
-    static void stopDatabase() throws IOException {
-        System.out.println("Stopping embedded PostgreSQL...");
+    static void stopDatabase() {
         if (connection != null) {
             try {
                 connection.close();
@@ -76,11 +106,7 @@ public class TransactionConcurrencyTest {
                 System.err.println("Error closing connection: " + e.getMessage());
             }
         }
-
-        if (postgres != null) {
-            postgres.close();
-            System.out.println("PostgreSQL stopped successfully");
-        }
+        // The database and the server are cleaned up by SharedEmbeddedPostgresExtension
     }
 
     @BeforeEach
@@ -408,6 +434,38 @@ public class TransactionConcurrencyTest {
         }
     }
 
+    @Test
+    @Order(10)
+    void testPessimisticLockingUnderLoad() throws SQLException, InterruptedException {
+        ConcurrentScenarioRunner.ScenarioResult result = new ConcurrentScenarioRunner(unpooledDataSource)
+                .addLegs("withdrawal", CONCURRENT_WRITERS, PESSIMISTIC_WITHDRAWAL)
+                .run();
+        System.out.println(result.summary());
+
+        assertEquals(CONCURRENT_WRITERS, result.count(ConcurrentScenarioRunner.Outcome.COMPLETED), result.summary());
+        assertEquals(1000.0 - CONCURRENT_WRITERS * 10, selectBalance(1), 0.01,
+                "SELECT ... FOR UPDATE should serialize the writers, so no withdrawal is lost");
+    }
+
+    @Test
+    @Order(11)
+    void testOptimisticLockingUnderLoad() throws SQLException, InterruptedException {
+        // Every writer reads the same version before any of them updates
+        ConcurrentScenarioRunner.ScenarioResult result = new ConcurrentScenarioRunner(unpooledDataSource)
+                .addLegs("deposit", CONCURRENT_WRITERS, OPTIMISTIC_DEPOSIT)
+                .run();
+        System.out.println(result.summary());
+
+        assertEquals(CONCURRENT_WRITERS, result.count(ConcurrentScenarioRunner.Outcome.COMPLETED), result.summary());
+        assertEquals(2010.0, selectBalance(2), 0.01, "Only the first writer should match the version it read");
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT version FROM accounts WHERE account_id = 2")) {
+            rs.next();
+            assertEquals(2, rs.getInt("version"));
+        }
+    }
+
     protected String getResourcePath(String resourceName) {
         // In a real application, you would use a resource loader
         // Here we're simplifying by using a relative path
@@ -420,6 +478,15 @@ public class TransactionConcurrencyTest {
         }
     }
 
+    private double selectBalance(int accountId) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT balance FROM accounts WHERE account_id = " + accountId)) {
+            rs.next();
+            return rs.getDouble("balance");
+        }
+    }
+
     private Map<String, Object> findIsolationLevelResult(List<Map<String, Object>> results, String isolationLevel) {
         return results.stream()
                 .filter(row -> isolationLevel.equalsIgnoreCase(String.valueOf(row.get("isolation_level"))))
@@ -434,104 +501,15 @@ public class TransactionConcurrencyTest {
         return Double.parseDouble(value.toString());
     }
 
+    /**
+     * Runs the first transaction up to {@code --WAIT_HERE}, then the second transaction, then the rest of the first.
+     * Each part starts as soon as the previous one completes or blocks on a lock; a blocked transaction is held
+     * for {@link #BLOCKED_TRANSACTION_HOLD_MILLIS}, so the pessimistic locking task can see a noticeable wait.
+     */
     private void executeConcurrently(String firstTransactionSql, String secondTransactionSql)
             throws InterruptedException, SQLException, ExecutionException {
-        System.out.println("Starting concurrent transactions");
-
-        CountDownLatch firstTransactionStarted = new CountDownLatch(1);
-        CountDownLatch secondTransactionFinished = new CountDownLatch(1);
-
-        ExecutorService executor = Executors.newFixedThreadPool(2);
-
-        Future<?> firstTask = executor.submit(() -> {
-            System.out.println("First transaction: starting");
-            try {
-                try (Connection conn = dataSource.getConnection()) {
-                    String[] parts = firstTransactionSql.split("--WAIT_HERE");
-
-                    System.out.println("First transaction: executing SQL");
-                    try (Statement stmt = conn.createStatement()) {
-                        stmt.execute(parts[0]);
-                    }
-                    System.out.println("First transaction: SQL executed, signaling start");
-                    firstTransactionStarted.countDown();
-
-                    System.out.println("First transaction: sleeping to allow second transaction to execute");
-                    Thread.sleep(3000);
-
-                    System.out.println("First transaction: awake, executing one more read");
-                    try (Statement stmt = conn.createStatement()) {
-                        stmt.execute(parts[1]);
-                    }
-
-                    System.out.println("First transaction: waiting for second transaction to finish");
-                    boolean finished = secondTransactionFinished.await(30, TimeUnit.SECONDS);
-                    if (!finished) {
-                        System.out.println("First transaction: timeout waiting for second transaction to finish");
-                    } else {
-                        System.out.println("First transaction: second transaction finished, committing");
-                    }
-                } finally {
-                    System.out.println("First transaction: closing connection");
-                }
-            } catch (Exception cause) {
-                System.out.println("Exception in first transaction");
-                throw new RuntimeException("Exception in first transaction", cause);
-            }
-        });
-
-        Future<?> secondTask = executor.submit(() -> {
-            System.out.println("Second transaction: waiting for first transaction to start");
-            try {
-                boolean started = firstTransactionStarted.await(30, TimeUnit.SECONDS);
-                if (!started) {
-                    System.out.println("Second transaction: timeout waiting for first transaction to start");
-                    return;
-                }
-
-                System.out.println("Second transaction: first transaction started, executing SQL");
-                try (Connection conn = dataSource.getConnection()) {
-                    System.out.println("Second transaction: executing SQL");
-                    try (Statement stmt = conn.createStatement()) {
-                        stmt.execute(secondTransactionSql);
-                    }
-                    System.out.println("Second transaction: SQL executed, committing");
-                } finally {
-                    System.out.println("Second transaction: closing connection");
-                    System.out.println("Second transaction: signaling completion");
-                    secondTransactionFinished.countDown();
-                }
-            } catch (Exception e) {
-                System.out.println("Exception in second transaction");
-                secondTransactionFinished.countDown();
-                throw new RuntimeException("Exception in second transaction", e);
-            }
-        });
-
-
-        try {
-            System.out.println("Waiting for both transactions to complete");
-            firstTask.get(60, TimeUnit.SECONDS);
-            secondTask.get(60, TimeUnit.SECONDS);
-            System.out.println("Both transactions completed successfully");
-        } catch (ExecutionException e) {
-            System.out.println("Exception during transaction execution");
-            throw new SQLException("Exception during transaction execution", e.getCause());
-        } catch (TimeoutException e) {
-            System.out.println("Timeout during transaction execution");
-            throw new SQLException("Timeout during transaction execution", e);
-        } finally {
-            executor.shutdown();
-            try {
-                if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
-                    System.out.println("Thread pull not terminated, forcing shutdown");
-                    executor.shutdownNow();
-                }
-            } catch (InterruptedException e) {
-                System.out.println("Terminating thread pool interrupted, forcing shutdown");
-                executor.shutdownNow();
-            }
-        }
+        InterleavingScheduler.executeConcurrently(dataSource, firstTransactionSql, secondTransactionSql,
+                BLOCKED_TRANSACTION_HOLD_MILLIS);
     }
 
     public static Throwable getRootCause(Exception throwable) {
@@ -546,67 +524,17 @@ public class TransactionConcurrencyTest {
     private List<Map<String, Object>> executeQuery(String sql) throws SQLException {
         System.out.printf("Executing query:%n%s%n%n", sql);
 
-        List<Map<String, Object>> results = new ArrayList<>();
-
+        QueryResult results;
         try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(sql)) {
-            ResultSetMetaData metaData = resultSet.getMetaData();
-            int columnCount = metaData.getColumnCount();
-
-            List<String> columnNames = new ArrayList<>();
-            int[] columnWidths = new int[columnCount];
-
-            for (int i = 1; i <= columnCount; i++) {
-                String name = metaData.getColumnLabel(i);
-                columnNames.add(name);
-                columnWidths[i - 1] = name.length();
-            }
-
-            while (resultSet.next()) {
-                Map<String, Object> row = new HashMap<>();
-
-                for (int i = 1; i <= columnCount; i++) {
-                    String columnName = columnNames.get(i - 1);
-                    Object value = resultSet.getObject(i);
-                    String valueStr = value == null ? "NULL" : value.toString();
-                    columnWidths[i - 1] = Math.max(columnWidths[i - 1], valueStr.length());
-                    row.put(columnName, value);
-                }
-
-                results.add(row);
-            }
-
-            printRow(columnNames, columnWidths);
-            printSeparator(columnWidths);
-
-            for (Map<String, Object> row : results) {
-                List<String> values = new ArrayList<>();
-                for (String col : columnNames) {
-                    Object value = row.get(col);
-                    values.add(value == null ? "NULL" : value.toString());
-                }
-                printRow(values, columnWidths);
-            }
-
-            System.out.println("\n-------------------------------------------------------\n");
+            results = QueryResult.read(resultSet);
         }
 
-        return results;
-    }
-
-    private void printRow(List<String> values, int[] widths) {
-        StringBuilder sb = new StringBuilder("|");
-        for (int i = 0; i < values.size(); i++) {
-            sb.append(" ").append(String.format("%-" + widths[i] + "s", values.get(i))).append(" |");
-        }
-        System.out.println(sb);
-    }
-
-    private void printSeparator(int[] widths) {
-        StringBuilder sb = new StringBuilder("|");
-        for (int width : widths) {
-            sb.append("-".repeat(width + 2)).append("|");
+        if (TableRenderer.isEnabled()) {
+            StringBuilder out = new StringBuilder();
+            TableRenderer.fromSystemProperties().appendTo(out, results);
+            System.out.print(out.append("\n-------------------------------------------------------\n\n"));
         }
-        System.out.println(sb);
+        return results.asMaps();
     }
 
     private static void executeSqlFile(String fileName) throws IOException, SQLException {
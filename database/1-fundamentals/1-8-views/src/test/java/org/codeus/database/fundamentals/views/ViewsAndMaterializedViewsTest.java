@@ -1,6 +1,7 @@
 package org.codeus.database.fundamentals.views;
 
 import org.codeus.database.common.EmbeddedPostgreSqlSetup;
+import org.codeus.database.common.SqlScriptTokenizer;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.MethodOrderer;
 import org.junit.jupiter.api.Order;
@@ -9,13 +10,11 @@ import org.junit.jupiter.api.TestMethodOrder;
 
 import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -244,75 +243,26 @@ public class ViewsAndMaterializedViewsTest extends EmbeddedPostgreSqlSetup {
     }
 
     protected void executeSqlFile(String filePath) throws IOException, SQLException {
-        Path path = Paths.get(filePath);
-        String sql = Files.readString(path);
-        sql = filterOutCommentedLines(sql);
-
-        List<String> statements = new ArrayList<>();
-        StringBuilder currentStatement = new StringBuilder();
-        boolean insideDollarQuote = false;
-        String dollarTag = null;
-
-        for (String line : sql.split("\n")) {
-            String trimmedLine = line.trim();
-
-            // Detect start of dollar-quoted block (e.g., $$ or $func$)
-            if (!insideDollarQuote && trimmedLine.matches("(?i).*AS \\$[a-zA-Z0-9_]*\\$.*")) {
-                insideDollarQuote = true;
-                int idx = trimmedLine.indexOf("AS $");
-                int start = trimmedLine.indexOf('$', idx + 3);
-                int end = trimmedLine.indexOf('$', start + 1);
-                dollarTag = trimmedLine.substring(start, end + 1); // e.g., $func$
-            }
-
-            currentStatement.append(line).append("\n");
-
-            // If we’re inside a dollar-quoted block, wait until we close it
-            if (insideDollarQuote && trimmedLine.contains(dollarTag) && !trimmedLine.endsWith("AS " + dollarTag)) {
-                insideDollarQuote = false;
-            }
-
-            // If not inside a dollar block, and the line ends with a semicolon, we can consider it a full statement
-            if (!insideDollarQuote && trimmedLine.endsWith(";")) {
-                statements.add(currentStatement.toString().trim());
-                currentStatement.setLength(0);
-            }
-        }
-
-        // In case there's any leftover statement (without semicolon at end)
-        if (!currentStatement.toString().trim().isEmpty()) {
-            statements.add(currentStatement.toString().trim());
-        }
+        try (SqlScriptTokenizer statements = SqlScriptTokenizer.open(Paths.get(filePath))) {
+            String query;
+            while ((query = statements.nextStatement()) != null) {
+                String trimmedLower = query.toLowerCase();
 
-        for (String query : statements) {
-            if (query.isEmpty()) continue;
-
-            String trimmedLower = query.trim().toLowerCase();
-
-            if (trimmedLower.startsWith("refresh materialized view")) {
-                System.out.println("DETECTED: REFRESH MATERIALIZED VIEW");
-            }
+                if (trimmedLower.startsWith("refresh materialized view")) {
+                    System.out.println("DETECTED: REFRESH MATERIALIZED VIEW");
+                }
 
-            System.out.println("Executing query:\n" + query);
+                System.out.println("Executing query:\n" + query);
 
-            if (trimmedLower.startsWith("explain")) {
-                List<Map<String, Object>> result = executeQuery(query);
-                printQueryResults(result);
-            } else {
-                try (Statement statement = connection.createStatement()) {
-                    statement.execute(query);
+                if (trimmedLower.startsWith("explain")) {
+                    List<Map<String, Object>> result = executeQuery(query);
+                    printQueryResults(result);
+                } else {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute(query);
+                    }
                 }
             }
         }
     }
-
-    protected String filterOutCommentedLines(String sql) {
-        StringBuilder builder = new StringBuilder();
-        for (String line : sql.split("\n")) {
-            if (!line.trim().startsWith("--")) {
-                builder.append(line).append("\n");
-            }
-        }
-        return builder.toString();
-    }
-}
\ No newline at end of file
+}
@@ -1,6 +1,10 @@
 package org.codeus.database.fundamentals.data_normalization;
 
 import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.codeus.database.common.IsolatedDatabase;
+import org.codeus.database.common.QueryResult;
+import org.codeus.database.common.SharedEmbeddedPostgresExtension;
+import org.codeus.database.common.TableRenderer;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.ClassOrderer;
@@ -11,19 +15,17 @@ import org.junit.jupiter.api.Order;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestClassOrder;
 import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.jupiter.api.extension.ExtendWith;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -35,34 +37,36 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 @TestClassOrder(ClassOrderer.OrderAnnotation.class)
+@ExtendWith(SharedEmbeddedPostgresExtension.class)
 public class SqlQueriesTest {
 
     protected static EmbeddedPostgres postgres;
+    protected static IsolatedDatabase database;
     protected static Connection connection;
 
     @BeforeAll
-    static void beforeAll() throws IOException {
-        startDatabase();
+    static void beforeAll(IsolatedDatabase isolatedDatabase) {
+        startDatabase(isolatedDatabase);
     }
 
     @AfterAll
-    static void afterAll() throws IOException {
+    static void afterAll() {
         stopDatabase();
     }
 
-    static void startDatabase() throws IOException {
-        postgres = EmbeddedPostgres.builder()
-                .setPort(5434)
-                .start();
+    // The server port (5434) is configured in junit-platform.properties
+    static void startDatabase(IsolatedDatabase isolatedDatabase) {
+        database = isolatedDatabase;
+        postgres = isolatedDatabase.getServer();
         try {
-            connection = postgres.getPostgresDatabase().getConnection();
+            connection = isolatedDatabase.getConnection();
             connection.setAutoCommit(false);
         } catch (SQLException e) {
             throw new RuntimeException("Failed to get database connection", e);
         }
     }
 
-    static void stopDatabase() throws IOException {
+    static void stopDatabase() {
         if (connection != null) {
             try {
                 connection.close();
@@ -70,11 +74,7 @@ public class SqlQueriesTest {
                 System.err.println("Error closing connection: " + e.getMessage());
             }
         }
-
-        if (postgres != null) {
-            postgres.close();
-            System.out.println("PostgreSQL stopped successfully");
-        }
+        // The database and the server are cleaned up by SharedEmbeddedPostgresExtension
     }
 
 
@@ -1260,7 +1260,7 @@ public class SqlQueriesTest {
                 connection.commit();
             }
 
-            try (Connection vacuumConnection = postgres.getPostgresDatabase().getConnection()) {
+            try (Connection vacuumConnection = database.getConnection()) {
                 vacuumConnection.setAutoCommit(true);
                 try (Statement statement = vacuumConnection.createStatement()) {
                     statement.execute("VACUUM FULL customers;");
@@ -1425,32 +1425,14 @@ public class SqlQueriesTest {
     }
 
     private static List<Map<String, Object>> executeQuery(String sql, boolean printQuery) throws SQLException {
-        List<Map<String, Object>> results = new ArrayList<>();
-
         if (printQuery) {
             System.out.println(sql);
         }
 
         try (Statement statement = connection.createStatement();
              ResultSet resultSet = statement.executeQuery(sql)) {
-            ResultSetMetaData metaData = resultSet.getMetaData();
-            int columnCount = metaData.getColumnCount();
-
-            List<String> columnNames = new ArrayList<>();
-            for (int i = 1; i <= columnCount; i++) {
-                columnNames.add(metaData.getColumnLabel(i));
-            }
-
-            while (resultSet.next()) {
-                Map<String, Object> row = new LinkedHashMap<>();
-                for (int i = 1; i <= columnCount; i++) {
-                    row.put(columnNames.get(i - 1), resultSet.getObject(i));
-                }
-                results.add(row);
-            }
+            return QueryResult.read(resultSet).asMaps();
         }
-
-        return results;
     }
 
     private static void executeCUD(String sql) throws SQLException {
@@ -1464,70 +1446,19 @@ public class SqlQueriesTest {
     }
 
     private static void printQueryResults(List<Map<String, Object>> results) {
+        if (!TableRenderer.isEnabled()) {
+            return;
+        }
         if (results.isEmpty()) {
             System.out.println("No results found.");
             return;
         }
 
-        List<String> columnNames = new ArrayList<>(results.get(0).keySet());
-
-        int[] columnWidths = calculateColumnWidths(results, columnNames);
-
-        var wholeLen = 1;
-        for (int columnWidth : columnWidths) {
-            wholeLen += columnWidth + 3;
-        }
-        System.out.println("_".repeat(wholeLen));
-        printRow(columnNames, columnWidths);
-        printSeparator(columnWidths);
-
-        for (Map<String, Object> row : results) {
-            List<String> values = new ArrayList<>();
-            for (String col : columnNames) {
-                Object value = row.get(col);
-                values.add(value == null ? "NULL" : value.toString());
-            }
-            printRow(values, columnWidths);
-        }
-
-        System.out.println("_".repeat(wholeLen) + "\n");
-    }
-
-    private static int[] calculateColumnWidths(List<Map<String, Object>> results, List<String> columnNames) {
-        int[] columnWidths = new int[columnNames.size()];
-
-        // Initialize with header widths
-        for (int i = 0; i < columnNames.size(); i++) {
-            columnWidths[i] = columnNames.get(i).length();
-        }
-
-        // Update with data widths
-        for (Map<String, Object> row : results) {
-            for (int i = 0; i < columnNames.size(); i++) {
-                String columnName = columnNames.get(i);
-                Object value = row.get(columnName);
-                String valueStr = value == null ? "NULL" : value.toString();
-                columnWidths[i] = Math.max(columnWidths[i], valueStr.length());
-            }
-        }
-
-        return columnWidths;
-    }
-
-    private static void printRow(List<String> values, int[] widths) {
-        StringBuilder sb = new StringBuilder("|");
-        for (int i = 0; i < values.size(); i++) {
-            sb.append(" ").append(String.format("%-" + widths[i] + "s", values.get(i))).append(" |");
-        }
-        System.out.println(sb);
-    }
-
-    private static void printSeparator(int[] widths) {
-        StringBuilder sb = new StringBuilder("|");
-        for (int width : widths) {
-            sb.append("-".repeat(width + 2)).append("|");
-        }
-        System.out.println(sb);
+        StringBuilder table = new StringBuilder();
+        TableRenderer.fromSystemProperties().appendTo(table, results);
+        String border = "_".repeat(table.indexOf(System.lineSeparator()));
+        System.out.print(new StringBuilder(border).append(System.lineSeparator()).append(table)
+                .append(border).append(System.lineSeparator()).append(System.lineSeparator()));
     }
 
 }
\ No newline at end of file
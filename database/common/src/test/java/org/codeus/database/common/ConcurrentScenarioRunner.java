@@ -0,0 +1,265 @@
+package org.codeus.database.common;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Runs any number of SQL scripts ("legs") at the same time, each on its own connection and thread
+ * (a virtual one if {@link ScenarioThreads} is configured so), e.g. fifty writers updating the same account:
+ * <pre>
+ * ScenarioResult result = new ConcurrentScenarioRunner(database.getPool())
+ *   .addLegs("writer", 50, "UPDATE accounts SET balance = balance + 1 WHERE account_id = 1")
+ *   .run();
+ * assertEquals(50, result.count(Outcome.COMPLETED));
+ * </pre>
+ * All legs connect first and then start together. A script can be split into phases by
+ * {@value #BARRIER_MARKER} lines; a leg starts its next phase only when every leg has finished the previous one
+ * (or has no phases left, or has failed). Unlike {@link InterleavingScheduler}, the order within a phase is up
+ * to the database.
+ * <p>
+ * Connections are auto-commit, transactions are controlled by the scripts. A failed leg skips its remaining
+ * phases; its connection goes back to the data source, which should roll back whatever is left open
+ * ({@link ConnectionPool} does). A {@link ConnectionPool} must allow at least as many connections as there are
+ * legs, or they would never all connect.
+ */
+public class ConcurrentScenarioRunner {
+
+  public static final String BARRIER_MARKER = "--BARRIER";
+  public static final long DEFAULT_TIMEOUT_MILLIS = 60_000;
+
+  private static final Pattern BARRIER_LINE =
+    Pattern.compile("^[ \\t]*" + BARRIER_MARKER + "[ \\t]*$", Pattern.MULTILINE);
+  private static final String QUERY_CANCELED = "57014";
+
+  private final DataSource dataSource;
+  private final List<Leg> legs = new ArrayList<>();
+  private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+  public ConcurrentScenarioRunner(DataSource dataSource) {
+    this.dataSource = dataSource;
+  }
+
+  public ConcurrentScenarioRunner addLeg(String name, String sql) {
+    if (legs.stream().anyMatch(leg -> leg.name.equals(name))) {
+      throw new IllegalArgumentException("Duplicate leg " + name);
+    }
+    legs.add(new Leg(name, List.of(BARRIER_LINE.split(sql, -1))));
+    return this;
+  }
+
+  /**
+   * Adds {@code count} legs running the same script, named {@code namePrefix-1} to {@code namePrefix-count}.
+   */
+  public ConcurrentScenarioRunner addLegs(String namePrefix, int count, String sql) {
+    for (int i = 1; i <= count; i++) {
+      addLeg(namePrefix + "-" + i, sql);
+    }
+    return this;
+  }
+
+  /**
+   * How long the whole scenario may take; statements still running then are cancelled.
+   */
+  public ConcurrentScenarioRunner timeout(long millis) {
+    this.timeoutMillis = millis;
+    return this;
+  }
+
+  public ScenarioResult run() throws InterruptedException {
+    if (legs.isEmpty()) {
+      throw new IllegalStateException("No legs to run");
+    }
+    checkPoolSize();
+
+    Phaser barrier = new Phaser(legs.size());
+    ExecutorService executor = Executors.newFixedThreadPool(legs.size(), ScenarioThreads.factory("scenario-leg"));
+    long start = System.nanoTime();
+    long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    try {
+      List<Future<?>> futures = new ArrayList<>(legs.size());
+      for (Leg leg : legs) {
+        futures.add(executor.submit(() -> leg.run(dataSource, barrier)));
+      }
+      for (Future<?> future : futures) {
+        try {
+          future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+          // Leg.run records its own outcome
+        } catch (TimeoutException e) {
+          System.out.println("Scenario timed out after " + timeoutMillis + " ms, cancelling the remaining legs");
+          break;
+        }
+      }
+    } finally {
+      for (Leg leg : legs) {
+        leg.cancel();
+      }
+      executor.shutdownNow();
+      if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+        System.err.println("Some scenario legs did not stop after being cancelled");
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+
+    List<LegResult> results = new ArrayList<>(legs.size());
+    for (Leg leg : legs) {
+      results.add(leg.result());
+    }
+    return new ScenarioResult(results, elapsed);
+  }
+
+  private void checkPoolSize() {
+    try {
+      if (dataSource.isWrapperFor(ConnectionPool.class)) {
+        int maxSize = dataSource.unwrap(ConnectionPool.class).getMaxSize();
+        if (maxSize < legs.size()) {
+          throw new IllegalStateException(legs.size() + " legs need as many connections, but the pool has at most "
+            + maxSize + ". Use a bigger pool or an unpooled data source.");
+        }
+      }
+    } catch (SQLException e) {
+      throw new RuntimeException("Failed to check the connection pool size", e);
+    }
+  }
+
+  public enum Outcome {
+    COMPLETED, FAILED, TIMED_OUT
+  }
+
+  /**
+   * @param elapsedNanos    from the common start to the end of the leg's last phase or its failure
+   * @param completedPhases number of phases run without an error
+   * @param sqlState        SQLSTATE of the failure, e.g. {@code 40001} or {@code 40P01}, {@code null} if none
+   * @param failure         the error of a failed leg, {@code null} otherwise
+   */
+  public record LegResult(String name, Outcome outcome, long elapsedNanos, int completedPhases, String sqlState,
+                          SQLException failure) {
+
+    public long elapsedMillis() {
+      return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+  }
+
+  public record ScenarioResult(List<LegResult> legs, long elapsedNanos) {
+
+    public LegResult leg(String name) {
+      return legs.stream()
+        .filter(leg -> leg.name().equals(name))
+        .findFirst()
+        .orElseThrow(() -> new IllegalArgumentException("No leg " + name));
+    }
+
+    public long count(Outcome outcome) {
+      return legs.stream().filter(leg -> leg.outcome() == outcome).count();
+    }
+
+    /**
+     * Number of legs per SQLSTATE of their error, timed out legs included.
+     */
+    public Map<String, Long> countBySqlState() {
+      return legs.stream()
+        .filter(leg -> leg.sqlState() != null)
+        .collect(Collectors.groupingBy(LegResult::sqlState, TreeMap::new, Collectors.counting()));
+    }
+
+    public String summary() {
+      return legs.size() + " legs in " + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + " ms: "
+        + count(Outcome.COMPLETED) + " completed, " + count(Outcome.FAILED) + " failed, "
+        + count(Outcome.TIMED_OUT) + " timed out" + (countBySqlState().isEmpty() ? "" : ", SQLSTATE " + countBySqlState());
+    }
+  }
+
+  private static final class Leg {
+
+    private final String name;
+    private final List<String> phases;
+    private volatile Statement statement;
+    private volatile boolean cancelled;
+    private volatile Outcome outcome = Outcome.TIMED_OUT;
+    private volatile long elapsedNanos;
+    private volatile int completedPhases;
+    private volatile SQLException failure;
+
+    private Leg(String name, List<String> phases) {
+      this.name = name;
+      this.phases = phases;
+    }
+
+    private void run(DataSource dataSource, Phaser barrier) {
+      boolean registered = true;
+      long start = 0;
+      try (Connection connection = dataSource.getConnection()) {
+        connection.setAutoCommit(true);
+        barrier.awaitAdvanceInterruptibly(barrier.arrive());
+        start = System.nanoTime();
+        for (int i = 0; i < phases.size(); i++) {
+          try (Statement current = connection.createStatement()) {
+            statement = current;
+            if (cancelled) {
+              return;
+            }
+            current.execute(phases.get(i));
+          } finally {
+            statement = null;
+          }
+          completedPhases = i + 1;
+          if (i < phases.size() - 1) {
+            barrier.awaitAdvanceInterruptibly(barrier.arrive());
+          }
+        }
+        barrier.arriveAndDeregister();
+        registered = false;
+        outcome = Outcome.COMPLETED;
+      } catch (SQLException e) {
+        failure = e;
+        // A statement cancelled at the scenario timeout stays TIMED_OUT
+        if (!(cancelled && QUERY_CANCELED.equals(e.getSQLState()))) {
+          outcome = Outcome.FAILED;
+          System.out.println("Leg " + name + " failed: " + e.getMessage());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        if (start != 0) {
+          elapsedNanos = System.nanoTime() - start;
+        }
+        if (registered) {
+          // let the other legs through the barriers this leg will never reach
+          barrier.arriveAndDeregister();
+        }
+      }
+    }
+
+    private void cancel() {
+      cancelled = true;
+      Statement current = statement;
+      if (current != null) {
+        try {
+          current.cancel();
+        } catch (SQLException e) {
+          System.err.println("Failed to cancel the statement of leg " + name + ": " + e.getMessage());
+        }
+      }
+    }
+
+    private LegResult result() {
+      return new LegResult(name, outcome, elapsedNanos, completedPhases, failure == null ? null : failure.getSQLState(),
+        failure);
+    }
+  }
+}
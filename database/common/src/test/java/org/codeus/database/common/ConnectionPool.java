@@ -0,0 +1,318 @@
+package org.codeus.database.common;
+
+import org.postgresql.core.BaseConnection;
+import org.postgresql.core.TransactionState;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * A small pool of PostgreSQL connections for tests that open many short-lived connections,
+ * e.g. concurrent transaction scenarios.
+ * <p>
+ * {@link #getConnection()} hands out a wrapper; closing it returns the physical connection to the pool
+ * after a reset: an open transaction is rolled back, auto-commit and read-only are restored and
+ * {@code DISCARD ALL} drops whatever the session changed (isolation level, {@code SET} parameters,
+ * temporary tables, advisory locks, prepared statements). A connection that fails the reset is closed.
+ * <p>
+ * A connection not returned within the leak detection threshold is reported to {@code System.err}
+ * together with the stack trace of the code that took it.
+ */
+public class ConnectionPool implements DataSource, Closeable {
+
+  public static final int DEFAULT_MIN_IDLE = 2;
+  public static final int DEFAULT_MAX_SIZE = 20;
+  public static final long DEFAULT_CONNECTION_TIMEOUT_MILLIS = 30_000;
+  public static final long DEFAULT_LEAK_DETECTION_MILLIS = 60_000;
+
+  private static final ScheduledExecutorService LEAK_DETECTOR = Executors.newSingleThreadScheduledExecutor(task -> {
+    Thread thread = new Thread(task, "connection-leak-detector");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final DataSource target;
+  private final int maxSize;
+  private final long connectionTimeoutMillis;
+  private final long leakDetectionMillis;
+  private final Semaphore permits;
+  private final BlockingDeque<Connection> idle = new LinkedBlockingDeque<>();
+  private final Set<Lease> leases = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger totalConnections = new AtomicInteger();
+  private volatile boolean closed;
+
+  public ConnectionPool(DataSource target) throws SQLException {
+    this(target, DEFAULT_MIN_IDLE, DEFAULT_MAX_SIZE);
+  }
+
+  public ConnectionPool(DataSource target, int minIdle, int maxSize) throws SQLException {
+    this(target, minIdle, maxSize, DEFAULT_CONNECTION_TIMEOUT_MILLIS, DEFAULT_LEAK_DETECTION_MILLIS);
+  }
+
+  /**
+   * @param minIdle connections opened up front, so the first callers do not pay for the connection setup
+   * @param maxSize maximum number of connections handed out at the same time
+   * @param connectionTimeoutMillis how long {@link #getConnection()} waits for a free connection
+   * @param leakDetectionMillis how long a connection can be held before it is reported, 0 to disable
+   */
+  public ConnectionPool(DataSource target, int minIdle, int maxSize, long connectionTimeoutMillis,
+                        long leakDetectionMillis) throws SQLException {
+    if (maxSize < 1 || minIdle < 0 || minIdle > maxSize) {
+      throw new IllegalArgumentException("Invalid pool size: min idle " + minIdle + ", max " + maxSize);
+    }
+    this.target = target;
+    this.maxSize = maxSize;
+    this.connectionTimeoutMillis = connectionTimeoutMillis;
+    this.leakDetectionMillis = leakDetectionMillis;
+    this.permits = new Semaphore(maxSize, true);
+    for (int i = 0; i < minIdle; i++) {
+      idle.add(openConnection());
+    }
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    if (closed) {
+      throw new SQLException("Connection pool is closed");
+    }
+    try {
+      if (!permits.tryAcquire(connectionTimeoutMillis, TimeUnit.MILLISECONDS)) {
+        throw new SQLTransientConnectionException("No connection available in " + connectionTimeoutMillis
+          + " ms, all " + maxSize + " connections are in use");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for a connection", e);
+    }
+
+    try {
+      Connection physical;
+      do {
+        physical = idle.pollFirst();
+        if (physical == null) {
+          physical = openConnection();
+        } else if (physical.isClosed()) {
+          discard(physical);
+          physical = null;
+        }
+      } while (physical == null);
+      return new Lease(physical).proxy;
+    } catch (SQLException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    throw new SQLFeatureNotSupportedException("The pool only hands out connections of its own user");
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public int getTotalConnections() {
+    return totalConnections.get();
+  }
+
+  public int getIdleConnections() {
+    return idle.size();
+  }
+
+  public int getActiveConnections() {
+    return leases.size();
+  }
+
+  /**
+   * Closes idle connections right away and connections still in use when they are returned.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    if (!leases.isEmpty()) {
+      System.err.println("Closing connection pool with " + leases.size() + " connection(s) still in use");
+    }
+    Connection physical;
+    while ((physical = idle.pollFirst()) != null) {
+      discard(physical);
+    }
+  }
+
+  private Connection openConnection() throws SQLException {
+    Connection physical = target.getConnection();
+    totalConnections.incrementAndGet();
+    return physical;
+  }
+
+  private void giveBack(Lease lease) {
+    leases.remove(lease);
+    try {
+      if (!closed && reset(lease.physical)) {
+        idle.addFirst(lease.physical);
+      } else {
+        discard(lease.physical);
+      }
+      // close() might have drained the idle connections in between
+      if (closed && idle.remove(lease.physical)) {
+        discard(lease.physical);
+      }
+    } finally {
+      permits.release();
+    }
+  }
+
+  private static boolean reset(Connection physical) {
+    try {
+      if (physical.isClosed()) {
+        return false;
+      }
+      if (!physical.getAutoCommit()) {
+        physical.rollback();
+        physical.setAutoCommit(true);
+      }
+      if (physical.isReadOnly()) {
+        physical.setReadOnly(false);
+      }
+      try (Statement statement = physical.createStatement()) {
+        // A script run in auto-commit mode can leave a transaction open with a plain BEGIN
+        if (physical.isWrapperFor(BaseConnection.class)
+          && physical.unwrap(BaseConnection.class).getTransactionState() != TransactionState.IDLE) {
+          statement.execute("ROLLBACK");
+        }
+        statement.execute("DISCARD ALL");
+      }
+      physical.clearWarnings();
+      return true;
+    } catch (SQLException e) {
+      System.err.println("Discarding a pooled connection that failed to reset: " + e.getMessage());
+      return false;
+    }
+  }
+
+  private void discard(Connection physical) {
+    totalConnections.decrementAndGet();
+    try {
+      physical.close();
+    } catch (SQLException e) {
+      System.err.println("Error closing pooled connection: " + e.getMessage());
+    }
+  }
+
+  @Override
+  public PrintWriter getLogWriter() throws SQLException {
+    return target.getLogWriter();
+  }
+
+  @Override
+  public void setLogWriter(PrintWriter out) throws SQLException {
+    target.setLogWriter(out);
+  }
+
+  @Override
+  public void setLoginTimeout(int seconds) throws SQLException {
+    target.setLoginTimeout(seconds);
+  }
+
+  @Override
+  public int getLoginTimeout() throws SQLException {
+    return target.getLoginTimeout();
+  }
+
+  @Override
+  public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+    throw new SQLFeatureNotSupportedException();
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    return iface.isInstance(this) ? iface.cast(this) : target.unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return iface.isInstance(this) || target.isWrapperFor(iface);
+  }
+
+  /**
+   * One checkout of a physical connection. The proxy stops working once closed,
+   * so a connection given back cannot be used by mistake while someone else holds it.
+   */
+  private final class Lease implements InvocationHandler {
+
+    private final Connection physical;
+    private final Connection proxy;
+    private final ScheduledFuture<?> leakReport;
+    private volatile boolean returned;
+
+    private Lease(Connection physical) {
+      this.physical = physical;
+      this.proxy = (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+        new Class<?>[]{Connection.class}, this);
+      if (leakDetectionMillis > 0) {
+        Exception acquiredAt = new Exception("Connection acquired by " + Thread.currentThread().getName());
+        leakReport = LEAK_DETECTOR.schedule(() -> {
+          System.err.println("Possible connection leak: a connection has not been returned to the pool for "
+            + leakDetectionMillis + " ms");
+          acquiredAt.printStackTrace();
+        }, leakDetectionMillis, TimeUnit.MILLISECONDS);
+      } else {
+        leakReport = null;
+      }
+      leases.add(this);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "close":
+          if (!returned) {
+            returned = true;
+            if (leakReport != null) {
+              leakReport.cancel(false);
+            }
+            giveBack(this);
+          }
+          return null;
+        case "isClosed":
+          return returned || physical.isClosed();
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "toString":
+          return "Pooled " + physical;
+        default:
+          if (returned) {
+            throw new SQLException("Connection has been returned to the pool");
+          }
+          try {
+            return method.invoke(physical, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+      }
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package org.codeus.database.common;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(SharedEmbeddedPostgresExtension.class)
+class ConnectionPoolTest {
+
+  private IsolatedDatabase database;
+  private ConnectionPool pool;
+
+  @BeforeEach
+  void setUp(IsolatedDatabase isolatedDatabase) throws SQLException {
+    database = isolatedDatabase;
+    try (Connection connection = database.getConnection();
+         Statement statement = connection.createStatement()) {
+      statement.execute("DROP TABLE IF EXISTS pooled; CREATE TABLE pooled (id INTEGER)");
+    }
+  }
+
+  @AfterEach
+  void tearDown() {
+    if (pool != null) {
+      pool.close();
+    }
+  }
+
+  @Test
+  @DisplayName("should hand out the returned physical connection again")
+  void getConnection_returned_reused() throws SQLException {
+    pool = new ConnectionPool(database.getDataSource(), 0, 2, 1_000, 0);
+
+    Connection first = pool.getConnection();
+    int backend = selectInt(first, "SELECT pg_backend_pid()");
+    first.close();
+    assertTrue(first.isClosed());
+    assertThrows(SQLException.class, first::createStatement, "A returned connection should not be usable");
+
+    try (Connection second = pool.getConnection()) {
+      assertEquals(backend, selectInt(second, "SELECT pg_backend_pid()"));
+    }
+    assertEquals(1, pool.getTotalConnections());
+    assertEquals(1, pool.getIdleConnections());
+    assertEquals(0, pool.getActiveConnections());
+  }
+
+  @Test
+  @DisplayName("should roll back and reset a connection returned inside a transaction")
+  void close_inTransaction_rolledBackAndReset() throws SQLException {
+    pool = new ConnectionPool(database.getDataSource(), 0, 1, 1_000, 0);
+
+    Connection connection = pool.getConnection();
+    connection.setAutoCommit(false);
+    connection.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("INSERT INTO pooled VALUES (1)");
+      statement.execute("SET statement_timeout = '5s'");
+      statement.execute("CREATE TEMPORARY TABLE leftover (id INTEGER)");
+    }
+    connection.close();
+
+    try (Connection reused = pool.getConnection()) {
+      assertTrue(reused.getAutoCommit());
+      assertEquals(0, selectInt(reused, "SELECT COUNT(*) FROM pooled"), "The open transaction should be rolled back");
+      assertEquals(0, selectInt(reused, "SELECT COUNT(*) FROM pg_tables WHERE tablename = 'leftover'"));
+      assertEquals("0", selectString(reused, "SHOW statement_timeout"));
+      assertEquals("read committed", selectString(reused, "SHOW transaction_isolation"));
+    }
+  }
+
+  @Test
+  @DisplayName("should roll back a transaction opened with a plain BEGIN in auto-commit mode")
+  void close_afterPlainBegin_rolledBack() throws SQLException {
+    pool = new ConnectionPool(database.getDataSource(), 0, 1, 1_000, 0);
+
+    Connection connection = pool.getConnection();
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("BEGIN");
+      statement.execute("INSERT INTO pooled VALUES (1)");
+    }
+    connection.close();
+
+    try (Connection reused = pool.getConnection()) {
+      assertEquals(0, selectInt(reused, "SELECT COUNT(*) FROM pooled"));
+    }
+    assertEquals(1, pool.getTotalConnections());
+  }
+
+  @Test
+  @DisplayName("should make callers wait for a connection and fail once the timeout is over")
+  void getConnection_exhausted_waitsThenFails() throws Exception {
+    pool = new ConnectionPool(database.getDataSource(), 1, 1, 1_000, 0);
+
+    Connection held = pool.getConnection();
+    assertThrows(SQLTransientConnectionException.class, pool::getConnection);
+
+    CompletableFuture<Integer> waiting = CompletableFuture.supplyAsync(() -> {
+      try (Connection connection = pool.getConnection()) {
+        return selectInt(connection, "SELECT 1");
+      } catch (SQLException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    assertThrows(TimeoutException.class, () -> waiting.get(100, TimeUnit.MILLISECONDS));
+    held.close();
+
+    assertEquals(1, waiting.get(10, TimeUnit.SECONDS));
+    assertEquals(1, pool.getTotalConnections());
+  }
+
+  @Test
+  @DisplayName("should close idle connections and the ones in use once they are returned after the pool is closed")
+  void close_connectionInUse_closedOnReturn() throws SQLException {
+    pool = new ConnectionPool(database.getDataSource(), 2, 2, 1_000, 0);
+    Connection inUse = pool.getConnection();
+
+    pool.close();
+    assertEquals(0, pool.getIdleConnections());
+    assertThrows(SQLException.class, pool::getConnection);
+    assertEquals(1, selectInt(inUse, "SELECT 1"), "A connection in use should keep working until it is returned");
+
+    inUse.close();
+    assertEquals(0, pool.getTotalConnections());
+  }
+
+  private static int selectInt(Connection connection, String sql) throws SQLException {
+    return Integer.parseInt(selectString(connection, sql));
+  }
+
+  private static String selectString(Connection connection, String sql) throws SQLException {
+    try (Statement statement = connection.createStatement();
+         ResultSet resultSet = statement.executeQuery(sql)) {
+      resultSet.next();
+      return resultSet.getString(1);
+    }
+  }
+}
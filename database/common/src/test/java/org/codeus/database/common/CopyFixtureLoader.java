@@ -0,0 +1,357 @@
+package org.codeus.database.common;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Loads fixture data with {@code COPY ... FROM STDIN}, which is much faster than replaying {@code INSERT}s.
+ * <p>
+ * Supported fixtures:
+ * <ul>
+ *   <li>{@code <table>.csv} - CSV with a header line naming the columns;</li>
+ *   <li>{@code <table>.tsv} - PostgreSQL text format (tab separated, {@code \N} for NULL) with a header line;</li>
+ *   <li>a directory with such files, loaded in file name order. A numeric prefix like {@code 01_customers.csv}
+ *   can be used to load referenced tables first, it is not a part of the table name;</li>
+ *   <li>{@code .sql} scripts - {@code INSERT INTO t (...) VALUES (...), (...)} statements with plain literals
+ *   are converted to CSV on the fly, consecutive inserts into the same table share one {@code COPY}.
+ *   Any other statement (or an insert with {@code DEFAULT}, function calls, {@code ON CONFLICT} etc.)
+ *   is executed as is.</li>
+ * </ul>
+ * Rows can also be generated in code with {@link #copy(Connection, String, List, Stream)}.
+ */
+public class CopyFixtureLoader {
+
+  private static final Pattern ORDER_PREFIX = Pattern.compile("^\\d+[_-]");
+  private static final Pattern INSERT_HEAD = Pattern.compile(
+    "^insert\\s+into\\s+([\\w.\"]+)\\s*(?:\\(([^)]*)\\))?\\s*values\\s*", Pattern.CASE_INSENSITIVE);
+  private static final Pattern NUMBER = Pattern.compile("[-+]?(\\d+\\.?\\d*|\\.\\d+)([eE][-+]?\\d+)?");
+  private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Loads a fixture file or a directory of fixture files.
+   *
+   * @return number of rows copied
+   */
+  public long load(Connection connection, Path fixture) throws IOException, SQLException {
+    if (Files.isDirectory(fixture)) {
+      List<Path> files;
+      try (Stream<Path> list = Files.list(fixture)) {
+        files = list.filter(Files::isRegularFile).sorted().toList();
+      }
+      long rows = 0;
+      for (Path file : files) {
+        rows += load(connection, file);
+      }
+      return rows;
+    }
+
+    long start = System.nanoTime();
+    String fileName = fixture.getFileName().toString();
+    String extension = fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+    long rows = switch (extension) {
+      case "csv" -> copyFile(connection, fixture, ',', "FORMAT csv");
+      case "tsv" -> copyFile(connection, fixture, '\t', "FORMAT text");
+      case "sql" -> copyScript(connection, fixture);
+      default -> throw new IllegalArgumentException("Unsupported fixture file: " + fixture);
+    };
+
+    long elapsedNanos = System.nanoTime() - start;
+    System.out.printf("Copied %s: %d rows in %.1f ms (%.0f rows/sec)%n", fileName, rows, elapsedNanos / 1_000_000.0,
+      elapsedNanos == 0 ? 0 : rows * 1_000_000_000.0 / elapsedNanos);
+    return rows;
+  }
+
+  /**
+   * Streams generated rows into a table, e.g. millions of transactions for query plan tests.
+   * {@code null} values become SQL NULLs, other values are sent as their {@code toString()}.
+   *
+   * @return number of rows copied
+   */
+  public long copy(Connection connection, String table, List<String> columns, Stream<Object[]> rows)
+    throws SQLException {
+    CopyIn copyIn = copyManager(connection).copyIn(copySql(table, String.join(", ", columns), "FORMAT csv"));
+    try (CopyWriter writer = new CopyWriter(copyIn)) {
+      StringBuilder line = new StringBuilder();
+      Iterator<Object[]> iterator = rows.iterator();
+      while (iterator.hasNext()) {
+        line.setLength(0);
+        Object[] row = iterator.next();
+        for (int i = 0; i < row.length; i++) {
+          if (i > 0) {
+            line.append(',');
+          }
+          if (row[i] instanceof Number || row[i] instanceof Boolean) {
+            line.append(row[i]);
+          } else if (row[i] != null) {
+            appendCsvString(line, row[i].toString());
+          }
+        }
+        writer.write(line.append('\n'));
+      }
+      return writer.finish();
+    }
+  }
+
+  private long copyFile(Connection connection, Path file, char delimiter, String format)
+    throws IOException, SQLException {
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String header = reader.readLine();
+      if (header == null) {
+        return 0;
+      }
+      List<String> columns = new ArrayList<>();
+      for (String column : header.split(Pattern.quote(String.valueOf(delimiter)))) {
+        columns.add(column.trim());
+      }
+      String sql = copySql(tableName(file), String.join(", ", columns), format);
+      return copyManager(connection).copyIn(sql, reader, WRITE_BUFFER_SIZE);
+    }
+  }
+
+  private long copyScript(Connection connection, Path script) throws IOException, SQLException {
+    CopyManager copyManager = copyManager(connection);
+    long rows = 0;
+    String currentTarget = null;
+    CopyWriter writer = null;
+
+    try (SqlScriptTokenizer statements = SqlScriptTokenizer.open(script);
+         Statement statement = connection.createStatement()) {
+      String sql;
+      while ((sql = statements.nextStatement()) != null) {
+        ConvertedInsert insert = convertInsert(sql);
+
+        if (writer != null && (insert == null || !insert.target().equals(currentTarget))) {
+          rows += writer.finish();
+          writer = null;
+          currentTarget = null;
+        }
+        if (insert == null) {
+          statement.execute(sql);
+          continue;
+        }
+        if (writer == null) {
+          writer = new CopyWriter(copyManager.copyIn(insert.target()));
+          currentTarget = insert.target();
+        }
+        writer.write(insert.csv());
+      }
+
+      if (writer != null) {
+        rows += writer.finish();
+      }
+    } finally {
+      if (writer != null) {
+        writer.close();
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * Converts {@code INSERT INTO t (a, b) VALUES (1, 'x'), (2, NULL)} into a {@code COPY} statement and CSV rows,
+   * or returns {@code null} if the statement has anything but plain literals in it.
+   */
+  static ConvertedInsert convertInsert(String sql) {
+    Matcher head = INSERT_HEAD.matcher(sql);
+    if (!head.find()) {
+      return null;
+    }
+
+    StringBuilder csv = new StringBuilder(sql.length());
+    int position = head.end();
+    int length = sql.length();
+    while (true) {
+      position = skipWhitespace(sql, position);
+      if (position >= length || sql.charAt(position) != '(') {
+        return null;
+      }
+      position++;
+
+      boolean firstValue = true;
+      while (true) {
+        position = skipWhitespace(sql, position);
+        if (!firstValue) {
+          csv.append(',');
+        }
+        position = appendValue(sql, position, csv);
+        if (position < 0) {
+          return null;
+        }
+        position = skipWhitespace(sql, position);
+        if (position >= length) {
+          return null;
+        }
+        char c = sql.charAt(position++);
+        if (c == ')') {
+          break;
+        }
+        if (c != ',') {
+          return null;
+        }
+        firstValue = false;
+      }
+      csv.append('\n');
+
+      position = skipWhitespace(sql, position);
+      if (position == length) {
+        break;
+      }
+      if (sql.charAt(position++) != ',') {
+        return null;
+      }
+    }
+
+    String columns = head.group(2) == null ? null : head.group(2).trim();
+    return new ConvertedInsert(copySql(head.group(1), columns, "FORMAT csv"), csv);
+  }
+
+  /**
+   * Appends one literal as a CSV field and returns the position right after it, or -1 if it is not a plain literal.
+   */
+  private static int appendValue(String sql, int position, StringBuilder csv) {
+    int length = sql.length();
+    if (position >= length) {
+      return -1;
+    }
+
+    int end;
+    if (sql.charAt(position) == '\'') {
+      StringBuilder value = new StringBuilder();
+      end = position + 1;
+      while (true) {
+        if (end >= length) {
+          return -1;
+        }
+        char c = sql.charAt(end++);
+        if (c == '\'') {
+          if (end < length && sql.charAt(end) == '\'') {
+            value.append('\'');
+            end++;
+            continue;
+          }
+          break;
+        }
+        value.append(c);
+      }
+      appendCsvString(csv, value.toString());
+    } else {
+      end = position;
+      while (end < length && (Character.isLetterOrDigit(sql.charAt(end)) || "+-.".indexOf(sql.charAt(end)) >= 0)) {
+        end++;
+      }
+      String token = sql.substring(position, end);
+      if (token.equalsIgnoreCase("null")) {
+        // an unquoted empty field is NULL in CSV
+      } else if (token.equalsIgnoreCase("true") || token.equalsIgnoreCase("false")) {
+        csv.append(token.toLowerCase(Locale.ROOT));
+      } else if (NUMBER.matcher(token).matches()) {
+        csv.append(token);
+      } else {
+        return -1;
+      }
+    }
+
+    // A cast to a simple type, e.g. '2024-01-01'::date, is redundant: COPY parses the text by the column type
+    if (end + 1 < length && sql.charAt(end) == ':' && sql.charAt(end + 1) == ':') {
+      end += 2;
+      while (end < length && (Character.isLetterOrDigit(sql.charAt(end)) || sql.charAt(end) == '_')) {
+        end++;
+      }
+    }
+    return end;
+  }
+
+  private static int skipWhitespace(String sql, int position) {
+    while (position < sql.length() && Character.isWhitespace(sql.charAt(position))) {
+      position++;
+    }
+    return position;
+  }
+
+  private static void appendCsvString(StringBuilder csv, String value) {
+    csv.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"') {
+        csv.append('"');
+      }
+      csv.append(c);
+    }
+    csv.append('"');
+  }
+
+  private static String copySql(String table, String columns, String format) {
+    String columnList = columns == null || columns.isEmpty() ? "" : " (" + columns + ")";
+    return "COPY " + table + columnList + " FROM STDIN WITH (" + format + ")";
+  }
+
+  private static String tableName(Path file) {
+    String fileName = file.getFileName().toString();
+    return ORDER_PREFIX.matcher(fileName.substring(0, fileName.lastIndexOf('.'))).replaceFirst("");
+  }
+
+  private static CopyManager copyManager(Connection connection) throws SQLException {
+    return connection.unwrap(PGConnection.class).getCopyAPI();
+  }
+
+  record ConvertedInsert(String target, CharSequence csv) {
+  }
+
+  /**
+   * Buffers rows and hands them over to the driver in large chunks.
+   */
+  private static class CopyWriter implements AutoCloseable {
+
+    private final CopyIn copyIn;
+    private final StringBuilder buffer = new StringBuilder(WRITE_BUFFER_SIZE);
+
+    CopyWriter(CopyIn copyIn) {
+      this.copyIn = copyIn;
+    }
+
+    void write(CharSequence rows) throws SQLException {
+      buffer.append(rows);
+      if (buffer.length() >= WRITE_BUFFER_SIZE) {
+        flush();
+      }
+    }
+
+    long finish() throws SQLException {
+      flush();
+      return copyIn.endCopy();
+    }
+
+    private void flush() throws SQLException {
+      if (buffer.isEmpty()) {
+        return;
+      }
+      byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+      copyIn.writeToCopy(bytes, 0, bytes.length);
+      buffer.setLength(0);
+    }
+
+    @Override
+    public void close() throws SQLException {
+      if (copyIn.isActive()) {
+        copyIn.cancelCopy();
+      }
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package org.codeus.database.common;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+@ExtendWith(SharedEmbeddedPostgresExtension.class)
+class CopyFixtureLoaderTest {
+
+  @TempDir
+  Path directory;
+  private IsolatedDatabase database;
+
+  @BeforeEach
+  void setUp(IsolatedDatabase isolatedDatabase) throws SQLException {
+    database = isolatedDatabase;
+    try (Connection connection = database.getConnection();
+         Statement statement = connection.createStatement()) {
+      statement.execute("""
+        DROP TABLE IF EXISTS items;
+        CREATE TABLE items (id INTEGER PRIMARY KEY, name TEXT, price NUMERIC(10, 2), active BOOLEAN, created DATE)""");
+    }
+  }
+
+  @Test
+  @DisplayName("should convert a multi-row insert into a COPY statement and CSV rows")
+  void convertInsert_multiRowValues() {
+    CopyFixtureLoader.ConvertedInsert insert = CopyFixtureLoader.convertInsert("""
+      INSERT INTO items (id, name, price) VALUES
+        (1, 'plain', 10.50),
+        (2, 'it''s "quoted", with comma', -1e2),
+        (3, NULL, null)""");
+
+    assertEquals("COPY items (id, name, price) FROM STDIN WITH (FORMAT csv)", insert.target());
+    assertEquals("""
+      1,"plain",10.50
+      2,"it's ""quoted"", with comma",-1e2
+      3,,
+      """, insert.csv().toString());
+  }
+
+  @Test
+  @DisplayName("should keep an empty string apart from NULL and drop redundant casts")
+  void convertInsert_emptyStringAndCasts() {
+    CopyFixtureLoader.ConvertedInsert insert =
+      CopyFixtureLoader.convertInsert("insert into items values (4, '', NULL, TRUE, '2024-01-31'::date)");
+
+    assertEquals("COPY items FROM STDIN WITH (FORMAT csv)", insert.target());
+    assertEquals("4,\"\",,true,\"2024-01-31\"\n", insert.csv().toString());
+  }
+
+  @Test
+  @DisplayName("should leave statements with anything but plain literals to be executed as they are")
+  void convertInsert_notPlainLiterals() {
+    assertNull(CopyFixtureLoader.convertInsert("INSERT INTO items (id, created) VALUES (1, now())"));
+    assertNull(CopyFixtureLoader.convertInsert("INSERT INTO items (id, name) VALUES (1, DEFAULT)"));
+    assertNull(CopyFixtureLoader.convertInsert("INSERT INTO items (id) VALUES (1) ON CONFLICT DO NOTHING"));
+    assertNull(CopyFixtureLoader.convertInsert("INSERT INTO items (id) SELECT 1"));
+    assertNull(CopyFixtureLoader.convertInsert("INSERT INTO items (id, name) VALUES (1, 'unterminated)"));
+    assertNull(CopyFixtureLoader.convertInsert("UPDATE items SET name = 'x'"));
+  }
+
+  @Test
+  @DisplayName("should load an SQL script through COPY and execute its other statements")
+  void load_sqlScript() throws IOException, SQLException {
+    Path script = Files.writeString(directory.resolve("items.sql"), """
+      INSERT INTO items (id, name, price, active) VALUES (1, 'it''s', 1.25, true), (2, '', NULL, false);
+      INSERT INTO items (id, name) VALUES (3, 'a;b');
+      UPDATE items SET price = 9 WHERE id = 3;
+      INSERT INTO items (id, name) VALUES (4, upper('x'));
+      """);
+
+    try (Connection connection = database.getConnection()) {
+      assertEquals(3, new CopyFixtureLoader().load(connection, script));
+    }
+
+    assertEquals(List.of(
+      List.of("1", "it's", "1.25", "true"),
+      Arrays.asList("2", "", null, "false"),
+      Arrays.asList("3", "a;b", "9.00", null),
+      Arrays.asList("4", "X", null, null)), selectItems());
+  }
+
+  @Test
+  @DisplayName("should copy generated rows with NULLs and quotes")
+  void copy_generatedRows() throws SQLException {
+    try (Connection connection = database.getConnection()) {
+      long copied = new CopyFixtureLoader().copy(connection, "items", List.of("id", "name", "active"), Stream.of(
+        new Object[]{1, "say \"hi\", bye", true},
+        new Object[]{2, null, null},
+        new Object[]{3, "", false}));
+
+      assertEquals(3, copied);
+    }
+
+    assertEquals(List.of(
+      Arrays.asList("1", "say \"hi\", bye", null, "true"),
+      Arrays.asList("2", null, null, null),
+      Arrays.asList("3", "", null, "false")), selectItems());
+  }
+
+  private List<List<String>> selectItems() throws SQLException {
+    List<List<String>> rows = new ArrayList<>();
+    try (Connection connection = database.getConnection();
+         Statement statement = connection.createStatement();
+         ResultSet resultSet = statement.executeQuery("SELECT id, name, price, active FROM items ORDER BY id")) {
+      while (resultSet.next()) {
+        rows.add(Arrays.asList(resultSet.getString(1), resultSet.getString(2), resultSet.getString(3),
+          resultSet.getString(4) == null ? null : String.valueOf(resultSet.getBoolean(4))));
+      }
+    }
+    return rows;
+  }
+}
@@ -1,58 +1,89 @@
 package org.codeus.database.common;
 
 import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
-import org.junit.jupiter.api.AfterAll;
-import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.extension.ExtendWith;
 
 import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.*;
 import java.util.*;
+import java.util.stream.Stream;
 
+@ExtendWith(SharedEmbeddedPostgresExtension.class)
 public abstract class EmbeddedPostgreSqlSetup {
 
-  protected static Connection connection;
-  protected static EmbeddedPostgres postgres;
+  /**
+   * Connection of the current test. Every test gets its own connection (and, in template mode, its own database),
+   * so test classes can safely run in parallel, see the {@code parallel-tests} profile in {@code database/pom.xml}
+   * and the README of the database modules.
+   */
+  protected Connection connection;
+  protected EmbeddedPostgres postgres;
+  protected IsolatedDatabase database;
 
   private static final String SCHEMA_FILE = "schema.sql";
   private static final String TEST_DATA_FILE = "test-data.sql";
 
-  @BeforeAll
-  static void startDatabase() throws IOException {
-    System.out.println("Starting embedded PostgreSQL...");
-    postgres = EmbeddedPostgres.start();
-    try {
-      connection = postgres.getPostgresDatabase().getConnection();
-      connection.setAutoCommit(false); // For transaction control
-      System.out.println("PostgreSQL started successfully");
-    } catch (SQLException e) {
-      throw new RuntimeException("Failed to get database connection", e);
-    }
+  private String currentClone;
+
+  /**
+   * Opt-in switch for template mode: schema and test data are loaded once into a template database
+   * and every test gets its own fresh copy made with {@code CREATE DATABASE ... TEMPLATE}.
+   * When disabled (the default), the public schema is dropped and the scripts are replayed before each test.
+   * <p>
+   * Tests of a class in template mode do not share any state, so the class may also be annotated with
+   * {@code @Execution(ExecutionMode.CONCURRENT)} to run its test methods in parallel.
+   */
+  protected boolean useTemplateDatabase() {
+    return false;
   }
 
-  @AfterAll
-  static void stopDatabase() throws IOException {
-    System.out.println("Stopping embedded PostgreSQL...");
-    if (connection != null) {
-      try {
-        connection.close();
-      } catch (SQLException e) {
-        System.err.println("Error closing connection: " + e.getMessage());
-      }
-    }
+  /**
+   * Number of template clones prepared in the background while tests are running. Used only in template mode.
+   */
+  protected int getTemplateClonePoolSize() {
+    return 1;
+  }
 
-    if (postgres != null) {
-      postgres.close();
-      System.out.println("PostgreSQL stopped successfully");
-    }
+  /**
+   * Test data loaded after the schema, relative to {@code src/test/resources}. Besides an SQL script it can be
+   * a CSV/TSV file or a directory of them, which are loaded with {@code COPY}, see {@link CopyFixtureLoader}.
+   */
+  protected String getTestDataFile() {
+    return TEST_DATA_FILE;
+  }
+
+  /**
+   * Load an SQL test data script through {@link CopyFixtureLoader} as well, converting its multi-row
+   * {@code INSERT ... VALUES} statements into {@code COPY}. Pays off for large data sets.
+   */
+  protected boolean loadTestDataWithCopy() {
+    return false;
+  }
+
+  /**
+   * Maximum number of statements of a setup script sent to the server in one round trip.
+   */
+  protected int getScriptBatchSize() {
+    return SqlScriptExecutor.DEFAULT_BATCH_SIZE;
   }
 
   @BeforeEach
-  void setupSchema() throws SQLException, IOException {
+  void setupSchema(IsolatedDatabase isolatedDatabase) throws SQLException, IOException {
+    // The server is shared by all test classes, this class only gets its own database on it
+    database = isolatedDatabase;
+    postgres = isolatedDatabase.getServer();
+
+    if (useTemplateDatabase()) {
+      switchToTemplateClone();
+      return;
+    }
+
     System.out.println("Setting up database schema and test data...");
+    connection = database.getConnection();
     // Start a transaction that will be rolled back after each test
     connection.setAutoCommit(false);
 
@@ -63,11 +94,49 @@ public abstract class EmbeddedPostgreSqlSetup {
     executeSqlFile(getResourcePath(SCHEMA_FILE));
 
     // Load test data
-    executeSqlFile(getResourcePath(TEST_DATA_FILE));
+    if (copiesTestData()) {
+      copyTestData(connection);
+    } else {
+      executeSqlFile(getResourcePath(getTestDataFile()));
+    }
 
     System.out.println("Setup complete");
   }
 
+  @AfterEach
+  void closeConnection() {
+    if (connection != null) {
+      try {
+        connection.close();
+      } catch (SQLException e) {
+        System.err.println("Error closing connection: " + e.getMessage());
+      }
+    }
+
+    if (currentClone != null) {
+      database.getTemplate().release(currentClone);
+      currentClone = null;
+    }
+    // The class database and the server are cleaned up by SharedEmbeddedPostgresExtension
+  }
+
+  private void switchToTemplateClone() throws SQLException, IOException {
+    TemplateDatabase templateDatabase = database.getOrCreateTemplate(getTemplateClonePoolSize(), templateConnection -> {
+      System.out.println("Loading database schema and test data into a template database...");
+      executeSqlFile(templateConnection, getResourcePath(SCHEMA_FILE));
+      if (copiesTestData()) {
+        copyTestData(templateConnection);
+      } else {
+        executeSqlFile(templateConnection, getResourcePath(getTestDataFile()));
+      }
+    });
+
+    currentClone = templateDatabase.acquire();
+    connection = templateDatabase.getDataSource(currentClone).getConnection();
+    connection.setAutoCommit(false);
+    System.out.println("Switched to a fresh copy of the template database: " + currentClone);
+  }
+
   private void clearDatabase() throws SQLException {
     try (Statement statement = connection.createStatement()) {
       statement.execute("DROP SCHEMA public CASCADE; CREATE SCHEMA public;");
@@ -75,18 +144,26 @@ public abstract class EmbeddedPostgreSqlSetup {
   }
 
   protected void executeSqlFile(String filePath) throws IOException, SQLException {
-    Path path = Paths.get(filePath);
-    String sql = Files.readString(path);
-    sql = filterOutCommentedLines(sql);
-    try (Statement statement = connection.createStatement()) {
-      // Execute each statement separately
-      for (String query : sql.split(";")) {
-        if (!query.trim().isEmpty()) {
-          statement.execute(query);
-        }
-      }
+    executeSqlFile(connection, filePath);
+  }
+
+  private void executeSqlFile(Connection target, String filePath) throws IOException, SQLException {
+    try {
+      new SqlScriptExecutor(getScriptBatchSize()).execute(target, Paths.get(filePath)).print();
     } catch (SQLException e) {
-      connection.rollback();
+      target.rollback();
+    }
+  }
+
+  private boolean copiesTestData() {
+    return loadTestDataWithCopy() || !getTestDataFile().endsWith(".sql");
+  }
+
+  private void copyTestData(Connection target) throws IOException, SQLException {
+    try {
+      new CopyFixtureLoader().load(target, Paths.get(getResourcePath(getTestDataFile())));
+    } catch (SQLException e) {
+      target.rollback();
     }
   }
 
@@ -115,120 +192,56 @@ public abstract class EmbeddedPostgreSqlSetup {
     executeSqlFile(fileFullPath);
   }
 
-  protected String filterOutCommentedLines(String sql) {
-    StringBuilder builder = new StringBuilder();
-    String commentOperator = "--";
-    for (String line: sql.split("\n")) {
-      if (!line.trim().startsWith(commentOperator)) {
-        builder.append(line);
-      }
-    }
-    return builder.toString();
-  }
-
   /**
    * Executes an SQL query and returns the results as a list of maps.
    */
   protected List<Map<String, Object>> executeQuery(String sql) throws SQLException {
-    List<Map<String, Object>> results = new ArrayList<>();
-
     try (Statement statement = connection.createStatement();
          ResultSet resultSet = statement.executeQuery(sql)) {
-      ResultSetMetaData metaData = resultSet.getMetaData();
-      int columnCount = metaData.getColumnCount();
-
-      List<String> columnNames = new ArrayList<>();
-      for (int i = 1; i <= columnCount; i++) {
-        columnNames.add(metaData.getColumnLabel(i));
-      }
-
-      while (resultSet.next()) {
-        Map<String, Object> row = new LinkedHashMap<>();
-        for (int i = 1; i <= columnCount; i++) {
-          row.put(columnNames.get(i - 1), resultSet.getObject(i));
-        }
-        results.add(row);
-      }
+      return QueryResult.read(resultSet).asMaps();
     }
-
-    return results;
   }
 
   /**
-   * Prints query results in a formatted table.
+   * Streams the rows through a cursor {@link QueryCursor#DEFAULT_FETCH_SIZE} rows at a time, for results
+   * too large to hold as a list of maps. The same {@link RowView} is passed for every row.
+   *
+   * @return number of rows read
    */
-  protected void printQueryResults(List<Map<String, Object>> results) {
-    if (results.isEmpty()) {
-      System.out.println("No results found.");
-      return;
-    }
-
-    // Extract column names from the first row
-    List<String> columnNames = new ArrayList<>(results.get(0).keySet());
-
-    // Calculate column widths
-    int[] columnWidths = calculateColumnWidths(results, columnNames);
-
-    // Print the message header
-    int borderLength = 120;
-    System.out.println("-".repeat(borderLength));
-    System.out.println("QUERY RESULT");
-    System.out.println("-".repeat(borderLength));
-
-    // Print the table header
-    printRow(columnNames, columnWidths);
-    printSeparator(columnWidths);
-
-    // Print each row of results
-    for (Map<String, Object> row : results) {
-      List<String> values = new ArrayList<>();
-      for (String col : columnNames) {
-        Object value = row.get(col);
-        values.add(value == null ? "NULL" : value.toString());
-      }
-      printRow(values, columnWidths);
-    }
-
-    System.out.println("-".repeat(borderLength));
+  protected long forEachRow(String sql, QueryCursor.RowCallback callback) throws SQLException {
+    return QueryCursor.forEach(connection, sql, QueryCursor.DEFAULT_FETCH_SIZE, callback);
   }
 
   /**
-   * Calculates the width needed for each column based on data and headers.
+   * Same as {@link #forEachRow(String, QueryCursor.RowCallback)} but as a stream, which must be closed.
    */
-  private int[] calculateColumnWidths(List<Map<String, Object>> results, List<String> columnNames) {
-    int[] columnWidths = new int[columnNames.size()];
-
-    // Initialize with header widths
-    for (int i = 0; i < columnNames.size(); i++) {
-      columnWidths[i] = columnNames.get(i).length();
-    }
-
-    // Update with data widths
-    for (Map<String, Object> row : results) {
-      for (int i = 0; i < columnNames.size(); i++) {
-        String columnName = columnNames.get(i);
-        Object value = row.get(columnName);
-        String valueStr = value == null ? "NULL" : value.toString();
-        columnWidths[i] = Math.max(columnWidths[i], valueStr.length());
-      }
-    }
-
-    return columnWidths;
+  protected Stream<RowView> streamQuery(String sql) throws SQLException {
+    return QueryCursor.stream(connection, sql, QueryCursor.DEFAULT_FETCH_SIZE);
   }
 
-  private void printRow(List<String> values, int[] widths) {
-    StringBuilder sb = new StringBuilder("|");
-    for (int i = 0; i < values.size(); i++) {
-      sb.append(" ").append(String.format("%-" + widths[i] + "s", values.get(i))).append(" |");
-    }
-    System.out.println(sb);
+  /**
+   * Reads the result into per-column arrays, e.g. for aggregating a numeric column of a large table.
+   */
+  protected QueryResult executeColumnarQuery(String sql) throws SQLException {
+    return QueryCursor.columnar(connection, sql, QueryCursor.DEFAULT_FETCH_SIZE);
   }
 
-  private void printSeparator(int[] widths) {
-    StringBuilder sb = new StringBuilder("|");
-    for (int width : widths) {
-      sb.append("-".repeat(width + 2)).append("|");
+  /**
+   * Prints query results in a formatted table.
+   */
+  protected void printQueryResults(List<Map<String, Object>> results) {
+    if (!TableRenderer.isEnabled()) {
+      return;
+    }
+    if (results.isEmpty()) {
+      System.out.println("No results found.");
+      return;
     }
-    System.out.println(sb);
+
+    // Print the message header and the table in one go
+    String border = "-".repeat(120) + System.lineSeparator();
+    StringBuilder out = new StringBuilder(border).append("QUERY RESULT").append(System.lineSeparator()).append(border);
+    TableRenderer.fromSystemProperties().appendTo(out, results);
+    System.out.print(out.append(border));
   }
-}
\ No newline at end of file
+}
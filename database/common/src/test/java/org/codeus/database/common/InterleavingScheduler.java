@@ -0,0 +1,396 @@
+package org.codeus.database.common;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs SQL scripts on separate connections, interleaving their steps in a declared order.
+ * <p>
+ * A script is split into steps by marker lines:
+ * <pre>
+ * BEGIN;
+ * --STEP t1:1
+ * SELECT balance FROM accounts WHERE account_id = 1;
+ * --STEP t1:2
+ * SELECT balance FROM accounts WHERE account_id = 1;
+ * COMMIT;
+ * </pre>
+ * {@code t1} names the transaction (every transaction gets its own connection) and {@code 1}, {@code 2} number
+ * its steps. Text before the first marker belongs to the first step; a script without markers is a single step.
+ * By default steps run in the order of their numbers, transactions in the order they were added:
+ * {@code t1:1, t2:1, t1:2, t2:2, ...}; {@link #order(String...)} declares any other order.
+ * <p>
+ * The next step is started as soon as the current one completes or {@link LockWaitProbe} finds it waiting for
+ * a lock held by another transaction, so a scenario takes as long as its SQL, not as long as its sleeps. Steps of one transaction
+ * always run one after another on its connection.
+ * <p>
+ * Connections are auto-commit, transactions are controlled by the scripts. If a step fails, the remaining steps
+ * of its transaction are skipped and the connection goes back to the data source, which should roll back
+ * whatever is left open ({@link ConnectionPool} does).
+ */
+public class InterleavingScheduler {
+
+  public static final String STEP_MARKER = "--STEP";
+  /**
+   * The separator of the two-transaction scenarios: the first transaction stops there until the second one
+   * completes or blocks.
+   */
+  public static final String WAIT_MARKER = "--WAIT_HERE";
+  public static final long DEFAULT_STEP_TIMEOUT_MILLIS = 30_000;
+
+  private static final Pattern STEP_LINE =
+    Pattern.compile("^[ \\t]*" + STEP_MARKER + "[ \\t]+(\\w+):(\\d+)[ \\t]*$", Pattern.MULTILINE);
+
+  private final DataSource dataSource;
+  private final Map<String, Transaction> transactions = new LinkedHashMap<>();
+  private final List<String> order = new ArrayList<>();
+  private long blockedStepHoldMillis;
+  private long stepTimeoutMillis = DEFAULT_STEP_TIMEOUT_MILLIS;
+
+  public InterleavingScheduler(DataSource dataSource) {
+    this.dataSource = dataSource;
+  }
+
+  /**
+   * Two transactions split by {@value #WAIT_MARKER}: the first one runs up to the marker, then the second one
+   * runs completely (or until it blocks), then the first one runs the rest.
+   */
+  public static InterleavingScheduler forWaitMarker(DataSource dataSource, String firstSql, String secondSql) {
+    String[] firstParts = firstSql.split(WAIT_MARKER, -1);
+    InterleavingScheduler scheduler = new InterleavingScheduler(dataSource);
+    for (int i = 0; i < firstParts.length; i++) {
+      scheduler.addStep("t1", i + 1, firstParts[i]);
+    }
+    scheduler.addStep("t2", 1, secondSql);
+    return scheduler;
+  }
+
+  /**
+   * Runs a {@link #forWaitMarker} scenario for the concurrency exercises. If a transaction fails, throws an
+   * {@link SQLException} caused by a {@code RuntimeException("Exception in first|second transaction")},
+   * which in turn is caused by the database error, so tests can check {@code e.getCause().getCause()}.
+   *
+   * @param blockedStepHoldMillis see {@link #holdBlockedSteps(long)}
+   */
+  public static void executeConcurrently(DataSource dataSource, String firstSql, String secondSql,
+                                         long blockedStepHoldMillis) throws SQLException, InterruptedException {
+    System.out.println("Starting concurrent transactions");
+    List<StepResult> results;
+    try {
+      results = forWaitMarker(dataSource, firstSql, secondSql)
+        .holdBlockedSteps(blockedStepHoldMillis)
+        .run();
+    } catch (TimeoutException e) {
+      System.out.println("Timeout during transaction execution");
+      throw new SQLException("Timeout during transaction execution", e);
+    }
+
+    for (StepResult result : results) {
+      if (result.failure() != null) {
+        String transaction = result.transaction().equals("t1") ? "first" : "second";
+        System.out.println("Exception during transaction execution");
+        throw new SQLException("Exception during transaction execution",
+          new RuntimeException("Exception in " + transaction + " transaction", result.failure()));
+      }
+    }
+    System.out.println("Both transactions completed successfully");
+  }
+
+  /**
+   * Adds a script split into steps by {@value #STEP_MARKER} lines, see the class description.
+   */
+  public InterleavingScheduler addScript(String sql) {
+    Matcher marker = STEP_LINE.matcher(sql);
+    if (!marker.find()) {
+      return addStep("t" + (transactions.size() + 1), 1, sql);
+    }
+    String preamble = sql.substring(0, marker.start());
+    while (true) {
+      String transaction = marker.group(1);
+      int number = Integer.parseInt(marker.group(2));
+      int start = marker.end();
+      boolean last = !marker.find();
+      String body = sql.substring(start, last ? sql.length() : marker.start());
+      addStep(transaction, number, preamble + body);
+      preamble = "";
+      if (last) {
+        return this;
+      }
+    }
+  }
+
+  public InterleavingScheduler addStep(String transaction, int number, String sql) {
+    Transaction target = transactions.computeIfAbsent(transaction, Transaction::new);
+    if (target.steps.stream().anyMatch(step -> step.number == number)) {
+      throw new IllegalArgumentException("Duplicate step " + transaction + ":" + number);
+    }
+    target.steps.add(new Step(target, number, sql));
+    target.steps.sort(Comparator.comparingInt(step -> step.number));
+    return this;
+  }
+
+  /**
+   * Declares the order of the steps, e.g. {@code order("t1:1", "t2:1", "t2:2", "t1:2")}.
+   * Steps of a transaction must stay in the order of their numbers.
+   */
+  public InterleavingScheduler order(String... stepIds) {
+    order.clear();
+    order.addAll(List.of(stepIds));
+    return this;
+  }
+
+  /**
+   * Keeps a blocked step waiting for the given time before the next step is started, e.g. to let a test
+   * see how long a lock was held. 0 (the default) starts the next step right away.
+   */
+  public InterleavingScheduler holdBlockedSteps(long millis) {
+    this.blockedStepHoldMillis = millis;
+    return this;
+  }
+
+  public InterleavingScheduler stepTimeout(long millis) {
+    this.stepTimeoutMillis = millis;
+    return this;
+  }
+
+  /**
+   * Runs the scenario.
+   *
+   * @return results of all steps in the order they were started
+   * @throws TimeoutException if a step neither completes nor blocks within the step timeout,
+   *                          or the scenario is not finished within the timeout after the last step was started
+   */
+  public List<StepResult> run() throws SQLException, InterruptedException, TimeoutException {
+    List<Step> schedule = schedule();
+    try (LockWaitProbe probe = new LockWaitProbe(dataSource)) {
+      for (Transaction transaction : transactions.values()) {
+        transaction.open(dataSource);
+      }
+
+      for (Step step : schedule) {
+        step.future = step.transaction.executor.submit(step::execute);
+        awaitCompletedOrBlocked(step, probe);
+      }
+      for (Step step : schedule) {
+        awaitCompleted(step);
+      }
+    } finally {
+      for (Transaction transaction : transactions.values()) {
+        transaction.cancelRunningStatement();
+      }
+      for (Transaction transaction : transactions.values()) {
+        transaction.close(stepTimeoutMillis);
+      }
+    }
+
+    List<StepResult> results = new ArrayList<>(schedule.size());
+    for (Step step : schedule) {
+      results.add(new StepResult(step.id(), step.status, step.blocked, step.elapsedNanos, step.failure));
+    }
+    return results;
+  }
+
+  private List<Step> schedule() {
+    List<Step> schedule = new ArrayList<>();
+    if (order.isEmpty()) {
+      transactions.values().forEach(transaction -> schedule.addAll(transaction.steps));
+      // stable sort: same step numbers keep the order transactions were added in
+      schedule.sort(Comparator.comparingInt(step -> step.number));
+      return schedule;
+    }
+
+    Map<String, Step> steps = new LinkedHashMap<>();
+    transactions.values().forEach(transaction -> transaction.steps.forEach(step -> steps.put(step.id(), step)));
+    for (String id : order) {
+      Step step = steps.remove(id);
+      if (step == null) {
+        throw new IllegalArgumentException("Unknown or repeated step " + id + " in order " + order);
+      }
+      int index = step.transaction.steps.indexOf(step);
+      if (index > 0 && !schedule.contains(step.transaction.steps.get(index - 1))) {
+        throw new IllegalArgumentException("Step " + id + " is ordered before the previous step of its transaction");
+      }
+      schedule.add(step);
+    }
+    if (!steps.isEmpty()) {
+      throw new IllegalArgumentException("Steps " + steps.keySet() + " are missing in order " + order);
+    }
+    return schedule;
+  }
+
+  private void awaitCompletedOrBlocked(Step step, LockWaitProbe probe)
+    throws SQLException, InterruptedException, TimeoutException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(stepTimeoutMillis);
+    long pollInterval = LockWaitProbe.MIN_POLL_INTERVAL_MICROS;
+    while (!step.future.isDone()) {
+      if (isBlocked(step, probe)) {
+        step.blocked = true;
+        System.out.println("Step " + step.id() + " is blocked, starting the next step");
+        if (blockedStepHoldMillis > 0) {
+          awaitQuietly(step.future, blockedStepHoldMillis);
+        }
+        return;
+      }
+      if (System.nanoTime() > deadline) {
+        throw new TimeoutException("Step " + step.id() + " neither completed nor blocked in " + stepTimeoutMillis + " ms");
+      }
+      TimeUnit.MICROSECONDS.sleep(pollInterval);
+      pollInterval = Math.min(pollInterval * 2, LockWaitProbe.MAX_POLL_INTERVAL_MICROS);
+    }
+  }
+
+  private static boolean isBlocked(Step step, LockWaitProbe probe) throws SQLException {
+    Step running = step.transaction.running;
+    if (running != step) {
+      // Either not started yet because an earlier step of the transaction is still blocked, or already done
+      return running != null;
+    }
+    return probe.isWaiting(step.transaction.backendPid);
+  }
+
+  private void awaitCompleted(Step step) throws InterruptedException, TimeoutException {
+    try {
+      step.future.get(stepTimeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (ExecutionException e) {
+      // Step.execute records its own failure
+    } catch (TimeoutException e) {
+      throw new TimeoutException("Step " + step.id() + " did not complete in " + stepTimeoutMillis + " ms");
+    }
+  }
+
+  private static void awaitQuietly(Future<?> future, long millis) throws InterruptedException {
+    try {
+      future.get(millis, TimeUnit.MILLISECONDS);
+    } catch (ExecutionException | TimeoutException e) {
+      // the step is still running or has failed, either way it is time to move on
+    }
+  }
+
+  public enum Status {
+    COMPLETED, FAILED, SKIPPED
+  }
+
+  /**
+   * @param blocked whether the step was found waiting for a lock before it completed
+   * @param failure the error of a failed step, {@code null} otherwise
+   */
+  public record StepResult(String stepId, Status status, boolean blocked, long elapsedNanos, SQLException failure) {
+
+    public String transaction() {
+      return stepId.substring(0, stepId.indexOf(':'));
+    }
+  }
+
+  private static final class Transaction {
+
+    private final String name;
+    private final List<Step> steps = new ArrayList<>();
+    private Connection connection;
+    private ExecutorService executor;
+    private int backendPid;
+    private volatile Step running;
+    private volatile Statement statement;
+    private volatile boolean failed;
+
+    private Transaction(String name) {
+      this.name = name;
+    }
+
+    private void open(DataSource dataSource) throws SQLException {
+      connection = dataSource.getConnection();
+      connection.setAutoCommit(true);
+      backendPid = LockWaitProbe.backendPid(connection);
+      // one thread per transaction, so its steps never overlap even when one of them blocks
+      executor = Executors.newSingleThreadExecutor(ScenarioThreads.factory("transaction-" + name));
+    }
+
+    private void cancelRunningStatement() {
+      Statement current = statement;
+      if (current != null) {
+        try {
+          current.cancel();
+        } catch (SQLException e) {
+          System.err.println("Failed to cancel a statement of " + name + ": " + e.getMessage());
+        }
+      }
+    }
+
+    private void close(long timeoutMillis) throws InterruptedException {
+      if (executor != null) {
+        executor.shutdown();
+        if (!executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+          executor.shutdownNow();
+        }
+      }
+      if (connection != null) {
+        try {
+          connection.close();
+        } catch (SQLException e) {
+          System.err.println("Error closing connection of " + name + ": " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  private static final class Step {
+
+    private final Transaction transaction;
+    private final int number;
+    private final String sql;
+    private Future<?> future;
+    private volatile Status status = Status.SKIPPED;
+    private volatile boolean blocked;
+    private volatile long elapsedNanos;
+    private volatile SQLException failure;
+
+    private Step(Transaction transaction, int number, String sql) {
+      this.transaction = transaction;
+      this.number = number;
+      this.sql = sql;
+    }
+
+    private String id() {
+      return transaction.name + ":" + number;
+    }
+
+    private void execute() {
+      if (transaction.failed) {
+        System.out.println("Step " + id() + " skipped, the transaction has failed");
+        return;
+      }
+      transaction.running = this;
+      long start = System.nanoTime();
+      try (Statement current = transaction.connection.createStatement()) {
+        transaction.statement = current;
+        System.out.println("Step " + id() + " started");
+        current.execute(sql);
+        status = Status.COMPLETED;
+        System.out.println("Step " + id() + " completed");
+      } catch (SQLException e) {
+        failure = e;
+        status = Status.FAILED;
+        transaction.failed = true;
+        System.out.println("Step " + id() + " failed: " + e.getMessage());
+      } finally {
+        elapsedNanos = System.nanoTime() - start;
+        transaction.statement = null;
+        transaction.running = null;
+      }
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package org.codeus.database.common;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A database created on the shared embedded PostgreSQL server for a single test class.
+ * Nothing a test class does inside it (dropping the public schema included) is visible to other classes.
+ */
+public class IsolatedDatabase {
+
+  private static final String DEFAULT_USER = "postgres";
+
+  private final EmbeddedPostgres server;
+  private final String name;
+  private TemplateDatabase template;
+  private ConnectionPool pool;
+
+  IsolatedDatabase(EmbeddedPostgres server, String name) {
+    this.server = server;
+    this.name = name;
+  }
+
+  public EmbeddedPostgres getServer() {
+    return server;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public DataSource getDataSource() {
+    return server.getDatabase(DEFAULT_USER, name);
+  }
+
+  public Connection getConnection() throws SQLException {
+    return getDataSource().getConnection();
+  }
+
+  /**
+   * Returns the connection pool of this database, opening it on the first call.
+   * Use it where a test needs many connections, e.g. for concurrent transactions.
+   */
+  public synchronized ConnectionPool getPool() throws SQLException {
+    if (pool == null) {
+      pool = new ConnectionPool(getDataSource());
+    }
+    return pool;
+  }
+
+  /**
+   * Returns the template database of this test class, creating and loading it on the first call.
+   * Parallel tests of the class share the template, so only one of them runs the loader.
+   */
+  public synchronized TemplateDatabase getOrCreateTemplate(int clonePoolSize, TemplateDatabase.TemplateLoader loader)
+    throws SQLException, IOException {
+    if (template == null) {
+      template = TemplateDatabase.create(server, clonePoolSize, loader);
+    }
+    return template;
+  }
+
+  public synchronized TemplateDatabase getTemplate() {
+    return template;
+  }
+
+  synchronized void closePool() {
+    if (pool != null) {
+      pool.close();
+      pool = null;
+    }
+  }
+
+  synchronized void closeTemplate() {
+    if (template != null) {
+      template.close();
+      template = null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return name + "@localhost:" + server.getPort();
+  }
+}
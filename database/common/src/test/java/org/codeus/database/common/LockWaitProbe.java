@@ -0,0 +1,245 @@
+package org.codeus.database.common;
+
+import javax.sql.DataSource;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Tells whether a backend is waiting for a lock, so a test can wait exactly until a transaction blocks
+ * instead of sleeping for "long enough":
+ * <pre>
+ * try (LockWaitProbe probe = new LockWaitProbe(dataSource)) {
+ *   LockWait wait = probe.awaitWaitingOn("accounts", 5_000);
+ *   assertEquals(List.of(firstPid), wait.blockingPids());
+ * }
+ * </pre>
+ * Polls {@code pg_locks} with a short, growing interval (from {@value #MIN_POLL_INTERVAL_MICROS} µs up to
+ * {@value #MAX_POLL_INTERVAL_MICROS} µs) on a connection of its own, which must not be one of the waiting ones.
+ * <p>
+ * A transaction waiting for a row usually waits for the transaction that locked it, not for the row itself:
+ * its ungranted lock is a {@code transactionid} one, and the row shows up as the {@code tuple} lock
+ * it holds meanwhile. {@link LockWait} reports the relation and the row from either of them.
+ */
+public class LockWaitProbe implements AutoCloseable {
+
+  public static final long MIN_POLL_INTERVAL_MICROS = 100;
+  public static final long MAX_POLL_INTERVAL_MICROS = 10_000;
+
+  // A backend can hold more than one tuple lock, DISTINCT ON keeps a single row per waiting backend
+  private static final String LOCK_WAITS_SQL = """
+    SELECT DISTINCT ON (waiting.pid)
+           waiting.pid,
+           waiting.locktype,
+           waiting.mode,
+           COALESCE(waiting.relation, held_tuple.relation)::regclass::text AS relation,
+           COALESCE(waiting.page, held_tuple.page) AS page,
+           COALESCE(waiting.tuple, held_tuple.tuple) AS tuple,
+           pg_blocking_pids(waiting.pid) AS blocking_pids,
+           activity.query
+    FROM pg_locks waiting
+           JOIN pg_stat_activity activity ON activity.pid = waiting.pid
+           LEFT JOIN pg_locks held_tuple ON held_tuple.pid = waiting.pid
+      AND held_tuple.locktype = 'tuple'
+      AND held_tuple.granted
+    WHERE NOT waiting.granted
+      AND activity.datname = current_database()
+    """;
+  private static final String ORDER_BY_PID = "\nORDER BY waiting.pid";
+  private static final String BY_PID = LOCK_WAITS_SQL + "  AND waiting.pid = ?" + ORDER_BY_PID;
+  private static final String BY_RELATION_CONDITION =
+    "  AND COALESCE(waiting.relation, held_tuple.relation) = to_regclass(?)";
+  private static final String BY_RELATION = LOCK_WAITS_SQL + BY_RELATION_CONDITION + ORDER_BY_PID;
+  private static final String BY_TUPLE = LOCK_WAITS_SQL + BY_RELATION_CONDITION
+    + "  AND COALESCE(waiting.page, held_tuple.page) = ? AND COALESCE(waiting.tuple, held_tuple.tuple) = ?"
+    + ORDER_BY_PID;
+
+  private final Connection connection;
+  private final boolean ownsConnection;
+  private final PreparedStatement byPid;
+  private final PreparedStatement byRelation;
+  private final PreparedStatement byTuple;
+
+  /**
+   * Takes a connection from the data source and gives it back on {@link #close()}.
+   */
+  public LockWaitProbe(DataSource dataSource) throws SQLException {
+    this(dataSource.getConnection(), true);
+  }
+
+  /**
+   * Uses the given connection, {@link #close()} leaves it open.
+   */
+  public LockWaitProbe(Connection connection) throws SQLException {
+    this(connection, false);
+  }
+
+  private LockWaitProbe(Connection connection, boolean ownsConnection) throws SQLException {
+    this.connection = connection;
+    this.ownsConnection = ownsConnection;
+    try {
+      this.byPid = connection.prepareStatement(BY_PID);
+      this.byRelation = connection.prepareStatement(BY_RELATION);
+      this.byTuple = connection.prepareStatement(BY_TUPLE);
+    } catch (SQLException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * The backend process id of a connection, the one {@code pg_locks} knows it by.
+   */
+  public static int backendPid(Connection connection) throws SQLException {
+    try (PreparedStatement statement = connection.prepareStatement("SELECT pg_backend_pid()");
+         ResultSet resultSet = statement.executeQuery()) {
+      resultSet.next();
+      return resultSet.getInt(1);
+    }
+  }
+
+  public boolean isWaiting(int pid) throws SQLException {
+    return findWait(pid).isPresent();
+  }
+
+  public Optional<LockWait> findWait(int pid) throws SQLException {
+    byPid.setInt(1, pid);
+    List<LockWait> waits = read(byPid);
+    return waits.isEmpty() ? Optional.empty() : Optional.of(waits.get(0));
+  }
+
+  /**
+   * Backends waiting for a lock on the relation or on one of its rows.
+   *
+   * @param relation table name, schema-qualified if it is not on the search path
+   */
+  public List<LockWait> findWaitsOn(String relation) throws SQLException {
+    byRelation.setString(1, relation);
+    return read(byRelation);
+  }
+
+  /**
+   * Backends waiting for a row, identified by its {@code ctid} {@code (page, tuple)}.
+   */
+  public List<LockWait> findWaitsOn(String relation, int page, int tuple) throws SQLException {
+    byTuple.setString(1, relation);
+    byTuple.setInt(2, page);
+    byTuple.setInt(3, tuple);
+    return read(byTuple);
+  }
+
+  /**
+   * Waits until the backend is waiting for a lock.
+   *
+   * @throws TimeoutException if it does not happen within the timeout
+   */
+  public LockWait awaitWaiting(int pid, long timeoutMillis)
+    throws SQLException, InterruptedException, TimeoutException {
+    return await(() -> findWait(pid).orElse(null), timeoutMillis, "backend " + pid);
+  }
+
+  /**
+   * Waits until some backend is waiting for a lock on the relation or on one of its rows.
+   *
+   * @throws TimeoutException if it does not happen within the timeout
+   */
+  public LockWait awaitWaitingOn(String relation, long timeoutMillis)
+    throws SQLException, InterruptedException, TimeoutException {
+    return await(() -> first(findWaitsOn(relation)), timeoutMillis, "a lock on " + relation);
+  }
+
+  /**
+   * Waits until some backend is waiting for the row {@code (page, tuple)} of the relation.
+   *
+   * @throws TimeoutException if it does not happen within the timeout
+   */
+  public LockWait awaitWaitingOn(String relation, int page, int tuple, long timeoutMillis)
+    throws SQLException, InterruptedException, TimeoutException {
+    return await(() -> first(findWaitsOn(relation, page, tuple)), timeoutMillis,
+      "row (" + page + "," + tuple + ") of " + relation);
+  }
+
+  @Override
+  public void close() throws SQLException {
+    if (ownsConnection) {
+      connection.close();
+    } else {
+      for (PreparedStatement statement : new PreparedStatement[]{byPid, byRelation, byTuple}) {
+        if (statement != null) {
+          statement.close();
+        }
+      }
+    }
+  }
+
+  private static LockWait await(Check check, long timeoutMillis, String description)
+    throws SQLException, InterruptedException, TimeoutException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    long pollInterval = MIN_POLL_INTERVAL_MICROS;
+    while (true) {
+      LockWait wait = check.find();
+      if (wait != null) {
+        return wait;
+      }
+      if (System.nanoTime() > deadline) {
+        throw new TimeoutException("No lock wait for " + description + " in " + timeoutMillis + " ms");
+      }
+      TimeUnit.MICROSECONDS.sleep(pollInterval);
+      pollInterval = Math.min(pollInterval * 2, MAX_POLL_INTERVAL_MICROS);
+    }
+  }
+
+  private static LockWait first(List<LockWait> waits) {
+    return waits.isEmpty() ? null : waits.get(0);
+  }
+
+  private static List<LockWait> read(PreparedStatement statement) throws SQLException {
+    List<LockWait> waits = new ArrayList<>();
+    try (ResultSet resultSet = statement.executeQuery()) {
+      while (resultSet.next()) {
+        Array blocking = resultSet.getArray("blocking_pids");
+        List<Integer> blockingPids = new ArrayList<>();
+        for (Integer pid : (Integer[]) blocking.getArray()) {
+          blockingPids.add(pid);
+        }
+        waits.add(new LockWait(
+          resultSet.getInt("pid"),
+          resultSet.getString("locktype"),
+          resultSet.getString("mode"),
+          resultSet.getString("relation"),
+          (Integer) resultSet.getObject("page"),
+          (Integer) resultSet.getObject("tuple"),
+          List.copyOf(blockingPids),
+          resultSet.getString("query")));
+      }
+    }
+    return waits;
+  }
+
+  @FunctionalInterface
+  private interface Check {
+    LockWait find() throws SQLException;
+  }
+
+  /**
+   * A lock a backend is waiting for.
+   *
+   * @param lockType     {@code pg_locks.locktype} of the ungranted lock, e.g. {@code transactionid} or {@code tuple}
+   * @param mode         requested lock mode, e.g. {@code ShareLock}
+   * @param relation     the locked table, {@code null} if not known (e.g. an advisory lock)
+   * @param page         page of the locked row, {@code null} if not a row lock
+   * @param tuple        position of the locked row on its page, {@code null} if not a row lock
+   * @param blockingPids backends holding or queued ahead for the lock
+   * @param query        the statement that is waiting
+   */
+  public record LockWait(int pid, String lockType, String mode, String relation, Integer page, Integer tuple,
+                         List<Integer> blockingPids, String query) {
+  }
+}
@@ -0,0 +1,144 @@
+package org.codeus.database.common;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(SharedEmbeddedPostgresExtension.class)
+class LockWaitProbeTest {
+
+  private static final String UPDATE_FIRST_ROW = "UPDATE items SET quantity = quantity + 1 WHERE id = 1";
+  private static final long TIMEOUT_MILLIS = 10_000;
+
+  private IsolatedDatabase database;
+  private Connection holder;
+  private LockWaitProbe probe;
+  private final List<Connection> waiters = new ArrayList<>();
+  private final List<CompletableFuture<Void>> updates = new ArrayList<>();
+
+  @BeforeEach
+  void setUp(IsolatedDatabase isolatedDatabase) throws SQLException {
+    database = isolatedDatabase;
+    try (Connection connection = database.getConnection();
+         Statement statement = connection.createStatement()) {
+      statement.execute("""
+        DROP TABLE IF EXISTS items;
+        CREATE TABLE items (id INTEGER PRIMARY KEY, quantity INTEGER NOT NULL);
+        INSERT INTO items VALUES (1, 0), (2, 0)""");
+    }
+    holder = database.getConnection();
+    holder.setAutoCommit(false);
+    probe = new LockWaitProbe(database.getDataSource());
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    holder.rollback();
+    for (CompletableFuture<Void> update : updates) {
+      update.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    for (Connection waiter : waiters) {
+      waiter.close();
+    }
+    holder.close();
+    probe.close();
+  }
+
+  @Test
+  @DisplayName("should report a backend blocked on a row exactly once, with the row and the blocking backend")
+  void awaitWaiting_blockedOnRow_oneWait() throws Exception {
+    int[] ctid = selectCtid();
+    execute(holder, UPDATE_FIRST_ROW);
+    int holderPid = LockWaitProbe.backendPid(holder);
+
+    int waiterPid = startUpdate();
+    LockWaitProbe.LockWait wait = probe.awaitWaiting(waiterPid, TIMEOUT_MILLIS);
+
+    assertEquals(waiterPid, wait.pid());
+    assertEquals("transactionid", wait.lockType());
+    assertEquals("items", wait.relation());
+    assertEquals(ctid[0], wait.page());
+    assertEquals(ctid[1], wait.tuple());
+    assertEquals(List.of(holderPid), wait.blockingPids());
+    assertEquals(UPDATE_FIRST_ROW, wait.query());
+    assertEquals(List.of(wait), probe.findWaitsOn("items"));
+    assertEquals(List.of(wait), probe.findWaitsOn("items", ctid[0], ctid[1]));
+    assertEquals(List.of(), probe.findWaitsOn("items", ctid[0], ctid[1] + 1));
+
+    holder.rollback();
+    updates.get(0).get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    assertFalse(probe.isWaiting(waiterPid));
+  }
+
+  @Test
+  @DisplayName("should report every backend queued for a row once")
+  void findWaitsOn_queuedBackends_onePerBackend() throws Exception {
+    execute(holder, UPDATE_FIRST_ROW);
+
+    int firstPid = startUpdate();
+    probe.awaitWaiting(firstPid, TIMEOUT_MILLIS);
+    int secondPid = startUpdate();
+    LockWaitProbe.LockWait second = probe.awaitWaiting(secondPid, TIMEOUT_MILLIS);
+
+    List<Integer> pids = probe.findWaitsOn("items").stream().map(LockWaitProbe.LockWait::pid).toList();
+    assertEquals(List.of(Math.min(firstPid, secondPid), Math.max(firstPid, secondPid)), pids);
+    // the second one queues for the row itself, behind the first
+    assertEquals("tuple", second.lockType());
+    assertEquals(List.of(firstPid), second.blockingPids());
+  }
+
+  @Test
+  @DisplayName("should time out when no backend blocks")
+  void awaitWaitingOn_notBlocked_timesOut() throws SQLException {
+    execute(holder, UPDATE_FIRST_ROW);
+
+    assertTrue(probe.findWaitsOn("items").isEmpty());
+    assertThrows(TimeoutException.class, () -> probe.awaitWaitingOn("items", 50));
+  }
+
+  private int startUpdate() throws SQLException {
+    Connection waiter = database.getConnection();
+    waiters.add(waiter);
+    int pid = LockWaitProbe.backendPid(waiter);
+    updates.add(CompletableFuture.runAsync(() -> {
+      try {
+        execute(waiter, UPDATE_FIRST_ROW);
+      } catch (SQLException e) {
+        throw new IllegalStateException(e);
+      }
+    }));
+    return pid;
+  }
+
+  private int[] selectCtid() throws SQLException {
+    try (Statement statement = holder.createStatement();
+         ResultSet resultSet = statement.executeQuery(
+           "SELECT (ctid::text::point)[0]::int, (ctid::text::point)[1]::int FROM items WHERE id = 1")) {
+      resultSet.next();
+      return new int[]{resultSet.getInt(1), resultSet.getInt(2)};
+    }
+  }
+
+  private static void execute(Connection connection, String sql) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      statement.execute(sql);
+    }
+  }
+}
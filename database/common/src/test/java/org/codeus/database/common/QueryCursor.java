@@ -0,0 +1,137 @@
+package org.codeus.database.common;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads query results through a server-side cursor instead of loading them into memory at once.
+ * <p>
+ * pgJDBC fetches rows in chunks of {@code fetchSize} only for a forward-only result set of a single statement
+ * with auto-commit disabled, so auto-commit is switched off for the duration of the query when needed and
+ * restored afterwards.
+ */
+public final class QueryCursor {
+
+  public static final int DEFAULT_FETCH_SIZE = 1000;
+
+  private QueryCursor() {
+  }
+
+  @FunctionalInterface
+  public interface RowCallback {
+    void accept(RowView row) throws SQLException;
+  }
+
+  /**
+   * Calls {@code callback} for every row, passing the same {@link RowView} each time.
+   *
+   * @return number of rows read
+   */
+  public static long forEach(Connection connection, String sql, int fetchSize, RowCallback callback)
+    throws SQLException {
+    try (Cursor cursor = new Cursor(connection, sql, fetchSize)) {
+      long rows = 0;
+      while (cursor.resultSet.next()) {
+        callback.accept(cursor.row);
+        rows++;
+      }
+      return rows;
+    }
+  }
+
+  /**
+   * Returns the rows as a lazy stream backed by the cursor. The stream holds a statement open,
+   * so it must be closed, e.g. with try-with-resources.
+   */
+  public static Stream<RowView> stream(Connection connection, String sql, int fetchSize) throws SQLException {
+    Cursor cursor = new Cursor(connection, sql, fetchSize);
+    Spliterator<RowView> rows = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE,
+      Spliterator.ORDERED | Spliterator.NONNULL) {
+      @Override
+      public boolean tryAdvance(Consumer<? super RowView> action) {
+        try {
+          if (!cursor.resultSet.next()) {
+            return false;
+          }
+        } catch (SQLException e) {
+          throw new RuntimeException("Failed to fetch the next row", e);
+        }
+        action.accept(cursor.row);
+        return true;
+      }
+    };
+    return StreamSupport.stream(rows, false).onClose(() -> {
+      try {
+        cursor.close();
+      } catch (SQLException e) {
+        throw new RuntimeException("Failed to close the cursor", e);
+      }
+    });
+  }
+
+  /**
+   * Reads the whole result into per-column arrays, primitive ones for integer and floating point columns.
+   */
+  public static QueryResult columnar(Connection connection, String sql, int fetchSize) throws SQLException {
+    try (Cursor cursor = new Cursor(connection, sql, fetchSize)) {
+      QueryResult result = new QueryResult(cursor.resultSet.getMetaData());
+      while (cursor.resultSet.next()) {
+        result.append(cursor.resultSet);
+      }
+      return result;
+    }
+  }
+
+  private static final class Cursor implements AutoCloseable {
+
+    private final Connection connection;
+    private final boolean autoCommit;
+    private final Statement statement;
+    private final ResultSet resultSet;
+    private final RowView row;
+
+    private Cursor(Connection connection, String sql, int fetchSize) throws SQLException {
+      this.connection = connection;
+      this.autoCommit = connection.getAutoCommit();
+      if (autoCommit) {
+        connection.setAutoCommit(false);
+      }
+      Statement created = null;
+      try {
+        created = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        created.setFetchSize(fetchSize);
+        resultSet = created.executeQuery(sql);
+        row = new RowView(resultSet);
+        statement = created;
+      } catch (SQLException e) {
+        if (created != null) {
+          created.close();
+        }
+        restoreAutoCommit();
+        throw e;
+      }
+    }
+
+    @Override
+    public void close() throws SQLException {
+      try {
+        statement.close();
+      } finally {
+        restoreAutoCommit();
+      }
+    }
+
+    private void restoreAutoCommit() throws SQLException {
+      if (autoCommit) {
+        connection.setAutoCommit(true);
+      }
+    }
+  }
+}
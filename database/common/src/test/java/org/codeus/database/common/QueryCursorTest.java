@@ -0,0 +1,113 @@
+package org.codeus.database.common;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(SharedEmbeddedPostgresExtension.class)
+class QueryCursorTest {
+
+  private static final int FETCH_SIZE = 100;
+  // nextval is not rolled back nor isolated, so another session sees how many rows the server has produced so far
+  private static final String PRODUCED_ROWS_SQL =
+    "SELECT g AS id, nextval('produced') AS produced FROM generate_series(1, 250) g";
+
+  private Connection connection;
+  private Connection observer;
+
+  @BeforeEach
+  void setUp(IsolatedDatabase database) throws SQLException {
+    connection = database.getConnection();
+    observer = database.getConnection();
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("DROP SEQUENCE IF EXISTS produced; CREATE SEQUENCE produced");
+    }
+  }
+
+  @AfterEach
+  void tearDown() throws SQLException {
+    connection.close();
+    observer.close();
+  }
+
+  @Test
+  @DisplayName("should fetch the rows from the server in chunks of the fetch size")
+  void forEach_fetchesInChunks() throws SQLException {
+    List<Long> producedAtRow = new ArrayList<>();
+    long rows = QueryCursor.forEach(connection, PRODUCED_ROWS_SQL, FETCH_SIZE, row -> {
+      int id = row.getInt("id");
+      if (id == 1 || id == 101 || id == 201) {
+        producedAtRow.add(selectProduced());
+      }
+    });
+
+    assertEquals(250, rows);
+    assertEquals(List.of(100L, 200L, 250L), producedAtRow);
+  }
+
+  @Test
+  @DisplayName("should turn auto-commit off for the query and restore it afterwards")
+  void forEach_restoresAutoCommit() throws SQLException {
+    List<Boolean> autoCommitDuringQuery = new ArrayList<>();
+    QueryCursor.forEach(connection, "SELECT 1", FETCH_SIZE,
+      row -> autoCommitDuringQuery.add(connection.getAutoCommit()));
+
+    assertEquals(List.of(false), autoCommitDuringQuery);
+    assertTrue(connection.getAutoCommit());
+
+    assertThrows(SQLException.class,
+      () -> QueryCursor.forEach(connection, "SELECT * FROM missing", FETCH_SIZE, row -> {
+      }));
+    assertTrue(connection.getAutoCommit(), "Auto-commit should be restored when the query fails");
+  }
+
+  @Test
+  @DisplayName("should leave a transaction of the caller open")
+  void forEach_inTransaction_keepsTransaction() throws SQLException {
+    connection.setAutoCommit(false);
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("CREATE TABLE uncommitted (id INTEGER)");
+    }
+
+    assertEquals(0, QueryCursor.forEach(connection, "SELECT * FROM uncommitted", FETCH_SIZE, row -> {
+    }));
+
+    assertFalse(connection.getAutoCommit());
+    connection.rollback();
+  }
+
+  @Test
+  @DisplayName("should stream the rows lazily and restore auto-commit once the stream is closed")
+  void stream_lazyUntilClosed() throws SQLException {
+    try (Stream<RowView> rows = QueryCursor.stream(connection, PRODUCED_ROWS_SQL, FETCH_SIZE)) {
+      assertEquals(List.of(1L, 2L, 3L), rows.limit(3).map(row -> row.getLong("id")).toList());
+      assertEquals(100, selectProduced(), "Only the first chunk should be fetched");
+      assertFalse(connection.getAutoCommit());
+    }
+
+    assertTrue(connection.getAutoCommit());
+  }
+
+  private long selectProduced() throws SQLException {
+    try (Statement statement = observer.createStatement();
+         ResultSet resultSet = statement.executeQuery("SELECT last_value FROM produced")) {
+      resultSet.next();
+      return resultSet.getLong(1);
+    }
+  }
+}
@@ -0,0 +1,525 @@
+package org.codeus.database.common;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Query result stored column by column. Column names are kept once for the whole result and values
+ * are kept in per-column arrays, primitive ones where the type allows:
+ * <ul>
+ *   <li>{@code int2}/{@code int4} - {@code int[]}, {@code int8} - {@code long[]}, {@code float8} - {@code double[]};</li>
+ *   <li>{@code numeric} - unscaled {@code long[]} plus a scale per value;</li>
+ *   <li>{@code timestamp} - microseconds since the epoch in {@code long[]};</li>
+ *   <li>everything else - {@code Object[]}.</li>
+ * </ul>
+ * Values that do not fit (a {@code numeric} wider than 18 digits, {@code NaN}, {@code infinity} timestamps)
+ * are kept as they are. NULLs are tracked in a bit set per column.
+ * <p>
+ * {@link #asMaps()} presents the rows as read-only maps with the same keys, key order and values
+ * the JDBC driver's {@code getObject} returns, so code written against {@code List<Map<String, Object>>}
+ * keeps working.
+ */
+public class QueryResult {
+
+  private static final int INITIAL_CAPACITY = 64;
+  private static final double[] POWERS_OF_TEN = new double[19];
+
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+  }
+
+  private final List<String> columnNames;
+  private final Map<String, Integer> columnIndex;
+  private final Column[] columns;
+  // Keys and columns of the row maps: a repeated label keeps its first position and its last value,
+  // the same way it ends up in a LinkedHashMap
+  private final Map<String, Integer> mapIndex;
+  private final String[] mapKeys;
+  private final int[] mapColumns;
+  private int rowCount;
+
+  QueryResult(ResultSetMetaData metaData) throws SQLException {
+    int columnCount = metaData.getColumnCount();
+    List<String> names = new ArrayList<>(columnCount);
+    Map<String, Integer> index = new HashMap<>(columnCount * 2);
+    Map<String, Integer> lastIndex = new LinkedHashMap<>(columnCount * 2);
+    columns = new Column[columnCount];
+    for (int i = 0; i < columnCount; i++) {
+      String name = metaData.getColumnLabel(i + 1);
+      names.add(name);
+      index.putIfAbsent(name, i);
+      lastIndex.put(name, i);
+      columns[i] = switch (metaData.getColumnType(i + 1)) {
+        case Types.SMALLINT, Types.INTEGER -> new IntColumn();
+        case Types.BIGINT -> new LongColumn();
+        case Types.DOUBLE -> new DoubleColumn();
+        case Types.NUMERIC, Types.DECIMAL -> new DecimalColumn();
+        case Types.TIMESTAMP -> new TimestampColumn();
+        default -> new ObjectColumn();
+      };
+    }
+    this.columnNames = Collections.unmodifiableList(names);
+    this.columnIndex = index;
+    this.mapIndex = lastIndex;
+    this.mapKeys = lastIndex.keySet().toArray(new String[0]);
+    this.mapColumns = lastIndex.values().stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /**
+   * Reads all remaining rows of the result set.
+   */
+  public static QueryResult read(ResultSet resultSet) throws SQLException {
+    QueryResult result = new QueryResult(resultSet.getMetaData());
+    while (resultSet.next()) {
+      result.append(resultSet);
+    }
+    return result;
+  }
+
+  void append(ResultSet resultSet) throws SQLException {
+    for (int i = 0; i < columns.length; i++) {
+      columns[i].read(resultSet, i + 1, rowCount);
+    }
+    rowCount++;
+  }
+
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  public List<String> getColumnNames() {
+    return columnNames;
+  }
+
+  /**
+   * 0-based index of the first column with the given label.
+   */
+  public int findColumn(String label) {
+    Integer index = columnIndex.get(label);
+    if (index == null) {
+      throw new IllegalArgumentException("No column " + label + " in " + columnNames);
+    }
+    return index;
+  }
+
+  /**
+   * The rows as maps backed by this result. The list itself is a regular {@code ArrayList},
+   * so it can be sorted or filtered; the maps are read-only.
+   */
+  public List<Map<String, Object>> asMaps() {
+    List<Map<String, Object>> rows = new ArrayList<>(rowCount);
+    for (int row = 0; row < rowCount; row++) {
+      rows.add(new RowMap(row));
+    }
+    return rows;
+  }
+
+  public boolean isNull(int row, int column) {
+    checkRow(row);
+    return columns[column].nulls.get(row);
+  }
+
+  /**
+   * The value as the JDBC driver's {@code getObject} returned it.
+   */
+  public Object getObject(int row, int column) {
+    checkRow(row);
+    return columns[column].get(row);
+  }
+
+  public Object getObject(int row, String label) {
+    return getObject(row, findColumn(label));
+  }
+
+  /**
+   * Returns 0 for SQL NULL, check {@link #isNull(int, int)} when it matters.
+   */
+  public long getLong(int row, int column) {
+    checkRow(row);
+    Column values = columns[column];
+    if (values.isPrimitive(row)) {
+      if (values instanceof IntColumn intColumn) {
+        return intColumn.values[row];
+      }
+      if (values instanceof LongColumn longColumn) {
+        return longColumn.values[row];
+      }
+    }
+    Object value = values.get(row);
+    return value == null ? 0 : ((Number) value).longValue();
+  }
+
+  public long getLong(int row, String label) {
+    return getLong(row, findColumn(label));
+  }
+
+  /**
+   * Returns 0 for SQL NULL, check {@link #isNull(int, int)} when it matters.
+   */
+  public double getDouble(int row, int column) {
+    checkRow(row);
+    Column values = columns[column];
+    if (values.isPrimitive(row)) {
+      if (values instanceof DoubleColumn doubleColumn) {
+        return doubleColumn.values[row];
+      }
+      if (values instanceof DecimalColumn decimalColumn) {
+        return decimalColumn.unscaled[row] / POWERS_OF_TEN[decimalColumn.scales[row]];
+      }
+      if (values instanceof IntColumn intColumn) {
+        return intColumn.values[row];
+      }
+      if (values instanceof LongColumn longColumn) {
+        return longColumn.values[row];
+      }
+    }
+    Object value = values.get(row);
+    return value == null ? 0 : ((Number) value).doubleValue();
+  }
+
+  public double getDouble(int row, String label) {
+    return getDouble(row, findColumn(label));
+  }
+
+  public BigDecimal getBigDecimal(int row, int column) {
+    checkRow(row);
+    Object value = columns[column].get(row);
+    if (value == null || value instanceof BigDecimal) {
+      return (BigDecimal) value;
+    }
+    if (value instanceof Long || value instanceof Integer) {
+      return BigDecimal.valueOf(((Number) value).longValue());
+    }
+    return new BigDecimal(value.toString());
+  }
+
+  public BigDecimal getBigDecimal(int row, String label) {
+    return getBigDecimal(row, findColumn(label));
+  }
+
+  /**
+   * Microseconds since the epoch of a {@code timestamp} value, 0 for SQL NULL.
+   */
+  public long getTimestampMicros(int row, int column) {
+    checkRow(row);
+    if (columns[column] instanceof TimestampColumn timestampColumn && timestampColumn.isPrimitive(row)) {
+      return timestampColumn.micros[row];
+    }
+    Object value = columns[column].get(row);
+    if (value == null) {
+      return 0;
+    }
+    if (value instanceof Timestamp timestamp) {
+      return TimestampColumn.toMicros(timestamp);
+    }
+    throw new IllegalArgumentException("Column " + columnNames.get(column) + " is not a timestamp column");
+  }
+
+  /**
+   * Values of an integer column, NULLs read as 0.
+   */
+  public int[] getInts(String label) {
+    if (columns[findColumn(label)] instanceof IntColumn intColumn) {
+      return Arrays.copyOf(intColumn.values, rowCount);
+    }
+    throw new IllegalArgumentException("Column " + label + " is not an int2/int4 column");
+  }
+
+  /**
+   * Values of an integer column, NULLs read as 0.
+   */
+  public long[] getLongs(String label) {
+    int column = findColumn(label);
+    if (columns[column] instanceof LongColumn longColumn) {
+      return Arrays.copyOf(longColumn.values, rowCount);
+    }
+    if (columns[column] instanceof IntColumn intColumn) {
+      return Arrays.stream(intColumn.values, 0, rowCount).asLongStream().toArray();
+    }
+    throw new IllegalArgumentException("Column " + label + " is not an integer column");
+  }
+
+  /**
+   * Values of a numeric column converted to {@code double}, NULLs read as 0.
+   */
+  public double[] getDoubles(String label) {
+    int column = findColumn(label);
+    if (columns[column] instanceof DoubleColumn doubleColumn) {
+      return Arrays.copyOf(doubleColumn.values, rowCount);
+    }
+    double[] values = new double[rowCount];
+    for (int row = 0; row < rowCount; row++) {
+      values[row] = getDouble(row, column);
+    }
+    return values;
+  }
+
+  private void checkRow(int row) {
+    if (row < 0 || row >= rowCount) {
+      throw new IndexOutOfBoundsException("Row " + row + " out of " + rowCount);
+    }
+  }
+
+  /**
+   * Read-only view of one row; keys are shared by all rows of the result.
+   */
+  private final class RowMap extends AbstractMap<String, Object> {
+
+    private final int row;
+
+    private RowMap(int row) {
+      this.row = row;
+    }
+
+    @Override
+    public Object get(Object key) {
+      Integer column = mapIndex.get(key);
+      return column == null ? null : columns[column].get(row);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return mapIndex.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+      return mapKeys.length;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+      return new AbstractSet<>() {
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+          return new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+              return next < mapKeys.length;
+            }
+
+            @Override
+            public Entry<String, Object> next() {
+              if (next >= mapKeys.length) {
+                throw new NoSuchElementException();
+              }
+              int i = next++;
+              return new SimpleImmutableEntry<>(mapKeys[i], columns[mapColumns[i]].get(row));
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return mapKeys.length;
+        }
+      };
+    }
+  }
+
+  private abstract static class Column {
+
+    final BitSet nulls = new BitSet();
+    // Values that could not be stored in the primitive array, by row
+    Map<Integer, Object> others;
+
+    abstract void read(ResultSet resultSet, int column, int row) throws SQLException;
+
+    abstract Object primitive(int row);
+
+    Object get(int row) {
+      if (nulls.get(row)) {
+        return null;
+      }
+      if (others != null && others.containsKey(row)) {
+        return others.get(row);
+      }
+      return primitive(row);
+    }
+
+    boolean isPrimitive(int row) {
+      return !nulls.get(row) && (others == null || !others.containsKey(row));
+    }
+
+    void keep(int row, Object value) {
+      if (others == null) {
+        others = new HashMap<>();
+      }
+      others.put(row, value);
+    }
+  }
+
+  private static final class IntColumn extends Column {
+
+    int[] values = new int[INITIAL_CAPACITY];
+
+    @Override
+    void read(ResultSet resultSet, int column, int row) throws SQLException {
+      if (row == values.length) {
+        values = Arrays.copyOf(values, values.length * 2);
+      }
+      values[row] = resultSet.getInt(column);
+      if (resultSet.wasNull()) {
+        nulls.set(row);
+      }
+    }
+
+    @Override
+    Object primitive(int row) {
+      return values[row];
+    }
+  }
+
+  private static final class LongColumn extends Column {
+
+    long[] values = new long[INITIAL_CAPACITY];
+
+    @Override
+    void read(ResultSet resultSet, int column, int row) throws SQLException {
+      if (row == values.length) {
+        values = Arrays.copyOf(values, values.length * 2);
+      }
+      values[row] = resultSet.getLong(column);
+      if (resultSet.wasNull()) {
+        nulls.set(row);
+      }
+    }
+
+    @Override
+    Object primitive(int row) {
+      return values[row];
+    }
+  }
+
+  private static final class DoubleColumn extends Column {
+
+    double[] values = new double[INITIAL_CAPACITY];
+
+    @Override
+    void read(ResultSet resultSet, int column, int row) throws SQLException {
+      if (row == values.length) {
+        values = Arrays.copyOf(values, values.length * 2);
+      }
+      values[row] = resultSet.getDouble(column);
+      if (resultSet.wasNull()) {
+        nulls.set(row);
+      }
+    }
+
+    @Override
+    Object primitive(int row) {
+      return values[row];
+    }
+  }
+
+  private static final class DecimalColumn extends Column {
+
+    long[] unscaled = new long[INITIAL_CAPACITY];
+    byte[] scales = new byte[INITIAL_CAPACITY];
+
+    @Override
+    void read(ResultSet resultSet, int column, int row) throws SQLException {
+      if (row == unscaled.length) {
+        unscaled = Arrays.copyOf(unscaled, unscaled.length * 2);
+        scales = Arrays.copyOf(scales, scales.length * 2);
+      }
+      // getObject, not getBigDecimal: a numeric NaN comes back as a Double
+      Object value = resultSet.getObject(column);
+      if (value == null) {
+        nulls.set(row);
+      } else if (value instanceof BigDecimal decimal && decimal.scale() >= 0
+        && decimal.scale() < POWERS_OF_TEN.length && decimal.unscaledValue().bitLength() < 64) {
+        unscaled[row] = decimal.unscaledValue().longValue();
+        scales[row] = (byte) decimal.scale();
+      } else {
+        keep(row, value);
+      }
+    }
+
+    @Override
+    Object primitive(int row) {
+      return BigDecimal.valueOf(unscaled[row], scales[row]);
+    }
+  }
+
+  private static final class TimestampColumn extends Column {
+
+    long[] micros = new long[INITIAL_CAPACITY];
+
+    @Override
+    void read(ResultSet resultSet, int column, int row) throws SQLException {
+      if (row == micros.length) {
+        micros = Arrays.copyOf(micros, micros.length * 2);
+      }
+      Object value = resultSet.getObject(column);
+      if (value == null) {
+        nulls.set(row);
+        return;
+      }
+      if (value.getClass() == Timestamp.class) {
+        try {
+          micros[row] = toMicros((Timestamp) value);
+          return;
+        } catch (ArithmeticException e) {
+          // infinity is reported as a timestamp far outside the range of epoch microseconds
+        }
+      }
+      keep(row, value);
+    }
+
+    @Override
+    Object primitive(int row) {
+      Timestamp timestamp = new Timestamp(Math.floorDiv(micros[row], 1_000_000L) * 1000);
+      timestamp.setNanos((int) Math.floorMod(micros[row], 1_000_000L) * 1000);
+      return timestamp;
+    }
+
+    static long toMicros(Timestamp timestamp) {
+      long seconds = Math.floorDiv(timestamp.getTime(), 1000L);
+      return Math.addExact(Math.multiplyExact(seconds, 1_000_000L), timestamp.getNanos() / 1000);
+    }
+  }
+
+  private static final class ObjectColumn extends Column {
+
+    Object[] values = new Object[INITIAL_CAPACITY];
+
+    @Override
+    void read(ResultSet resultSet, int column, int row) throws SQLException {
+      if (row == values.length) {
+        values = Arrays.copyOf(values, values.length * 2);
+      }
+      values[row] = resultSet.getObject(column);
+      if (values[row] == null) {
+        nulls.set(row);
+      }
+    }
+
+    @Override
+    Object primitive(int row) {
+      return values[row];
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package org.codeus.database.common;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The current row of a forward-only cursor. There is a single view per query that moves along with the cursor,
+ * so no objects are allocated per row: read what you need inside the callback and do not keep the view itself,
+ * use {@link #toMap()} to take a copy of the row.
+ * <p>
+ * Columns can be addressed by a 1-based index or by label; label lookup uses an index built once per query.
+ * SQL errors are rethrown as unchecked exceptions, so the view can be used in lambdas and streams.
+ */
+public class RowView {
+
+  private final ResultSet resultSet;
+  private final List<String> columnNames;
+  private final Map<String, Integer> columnIndex;
+
+  RowView(ResultSet resultSet) throws SQLException {
+    this.resultSet = resultSet;
+    ResultSetMetaData metaData = resultSet.getMetaData();
+    int columnCount = metaData.getColumnCount();
+    List<String> names = new ArrayList<>(columnCount);
+    Map<String, Integer> index = new HashMap<>(columnCount * 2);
+    for (int i = 1; i <= columnCount; i++) {
+      String name = metaData.getColumnLabel(i);
+      names.add(name);
+      index.putIfAbsent(name, i);
+    }
+    this.columnNames = Collections.unmodifiableList(names);
+    this.columnIndex = index;
+  }
+
+  public int getColumnCount() {
+    return columnNames.size();
+  }
+
+  public List<String> getColumnNames() {
+    return columnNames;
+  }
+
+  public int findColumn(String label) {
+    Integer index = columnIndex.get(label);
+    if (index == null) {
+      throw new IllegalArgumentException("No column " + label + " in " + columnNames);
+    }
+    return index;
+  }
+
+  public Object get(int column) {
+    try {
+      return resultSet.getObject(column);
+    } catch (SQLException e) {
+      throw new RuntimeException("Failed to read column " + column, e);
+    }
+  }
+
+  public Object get(String label) {
+    return get(findColumn(label));
+  }
+
+  /**
+   * Returns 0 for SQL NULL, check {@link #isNull(int)} when it matters.
+   */
+  public long getLong(int column) {
+    try {
+      return resultSet.getLong(column);
+    } catch (SQLException e) {
+      throw new RuntimeException("Failed to read column " + column, e);
+    }
+  }
+
+  public long getLong(String label) {
+    return getLong(findColumn(label));
+  }
+
+  public int getInt(int column) {
+    try {
+      return resultSet.getInt(column);
+    } catch (SQLException e) {
+      throw new RuntimeException("Failed to read column " + column, e);
+    }
+  }
+
+  public int getInt(String label) {
+    return getInt(findColumn(label));
+  }
+
+  public double getDouble(int column) {
+    try {
+      return resultSet.getDouble(column);
+    } catch (SQLException e) {
+      throw new RuntimeException("Failed to read column " + column, e);
+    }
+  }
+
+  public double getDouble(String label) {
+    return getDouble(findColumn(label));
+  }
+
+  public BigDecimal getBigDecimal(int column) {
+    try {
+      return resultSet.getBigDecimal(column);
+    } catch (SQLException e) {
+      throw new RuntimeException("Failed to read column " + column, e);
+    }
+  }
+
+  public BigDecimal getBigDecimal(String label) {
+    return getBigDecimal(findColumn(label));
+  }
+
+  public String getString(int column) {
+    try {
+      return resultSet.getString(column);
+    } catch (SQLException e) {
+      throw new RuntimeException("Failed to read column " + column, e);
+    }
+  }
+
+  public String getString(String label) {
+    return getString(findColumn(label));
+  }
+
+  public boolean isNull(int column) {
+    try {
+      resultSet.getObject(column);
+      return resultSet.wasNull();
+    } catch (SQLException e) {
+      throw new RuntimeException("Failed to read column " + column, e);
+    }
+  }
+
+  public boolean isNull(String label) {
+    return isNull(findColumn(label));
+  }
+
+  /**
+   * Copies the current row into a map in the same format {@code executeQuery} returns.
+   */
+  public Map<String, Object> toMap() {
+    Map<String, Object> row = new LinkedHashMap<>();
+    for (int i = 1; i <= columnNames.size(); i++) {
+      row.put(columnNames.get(i - 1), get(i));
+    }
+    return row;
+  }
+
+  ResultSet getResultSet() {
+    return resultSet;
+  }
+}
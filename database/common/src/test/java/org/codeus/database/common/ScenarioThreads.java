@@ -0,0 +1,95 @@
+package org.codeus.database.common;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads for concurrent transactions and load tests: virtual threads when asked for with
+ * {@code -D}{@value #VIRTUAL_PROPERTY}{@code =true} (or {@code mvn test -Pvirtual-threads}) on JDK 21 or newer,
+ * platform threads otherwise.
+ * <p>
+ * The sources are compiled for Java 17, so virtual threads are looked up at run time. Asking for them on an
+ * older JDK prints a warning and falls back to platform threads.
+ */
+public final class ScenarioThreads {
+
+  public static final String VIRTUAL_PROPERTY = "codeus.threads.virtual";
+
+  private static final ThreadFactoryBuilder VIRTUAL = findVirtualThreadBuilder();
+  private static volatile boolean unavailableReported;
+
+  private ScenarioThreads() {
+  }
+
+  public static boolean isVirtualAvailable() {
+    return VIRTUAL != null;
+  }
+
+  public static boolean useVirtual() {
+    if (!Boolean.getBoolean(VIRTUAL_PROPERTY)) {
+      return false;
+    }
+    if (VIRTUAL == null && !unavailableReported) {
+      unavailableReported = true;
+      System.err.println(VIRTUAL_PROPERTY + " is set, but virtual threads need JDK 21 or newer, running on "
+        + Runtime.version() + ". Using platform threads.");
+    }
+    return VIRTUAL != null;
+  }
+
+  /**
+   * Threads named {@code namePrefix-1}, {@code namePrefix-2}, ... Platform threads are daemons,
+   * so a leg stuck on a lock does not keep the JVM alive.
+   */
+  public static ThreadFactory factory(String namePrefix) {
+    if (useVirtual()) {
+      return VIRTUAL.build(namePrefix + "-");
+    }
+    AtomicInteger counter = new AtomicInteger();
+    return task -> {
+      Thread thread = new Thread(task, namePrefix + "-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /**
+   * An executor for many short tasks: as many virtual threads as there are tasks in flight,
+   * or a fixed pool of {@code platformThreads} platform threads.
+   */
+  public static ExecutorService newExecutor(String namePrefix, int platformThreads) {
+    if (useVirtual()) {
+      return Executors.newCachedThreadPool(factory(namePrefix));
+    }
+    return Executors.newFixedThreadPool(platformThreads, factory(namePrefix));
+  }
+
+  private static ThreadFactoryBuilder findVirtualThreadBuilder() {
+    try {
+      Method ofVirtual = Thread.class.getMethod("ofVirtual");
+      Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+      Method name = builderType.getMethod("name", String.class, long.class);
+      Method factory = builderType.getMethod("factory");
+      // JDK 19 and 20 have the method, but it only works with --enable-preview
+      ofVirtual.invoke(null);
+      return prefix -> {
+        try {
+          Object builder = name.invoke(ofVirtual.invoke(null), prefix, 1L);
+          return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+          throw new IllegalStateException("Failed to create a virtual thread factory", e);
+        }
+      };
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  @FunctionalInterface
+  private interface ThreadFactoryBuilder {
+    ThreadFactory build(String prefix);
+  }
+}
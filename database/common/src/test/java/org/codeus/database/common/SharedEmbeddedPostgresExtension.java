@@ -0,0 +1,127 @@
+package org.codeus.database.common;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.ParameterContext;
+import org.junit.jupiter.api.extension.ParameterResolutionException;
+import org.junit.jupiter.api.extension.ParameterResolver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Boots one embedded PostgreSQL server per JVM and hands out an {@link IsolatedDatabase} per test class.
+ * <p>
+ * The server lives in the root {@link ExtensionContext.Store}, so JUnit shuts it down once the whole run is over.
+ * Each class database lives in the store of the class that asked for it and is dropped when that class finishes.
+ * A test class (or its base class) gets its database by declaring an {@link IsolatedDatabase} parameter
+ * of a lifecycle method, e.g.:
+ * <pre>
+ * &#64;ExtendWith(SharedEmbeddedPostgresExtension.class)
+ * class MyTest {
+ *   &#64;BeforeEach
+ *   void setupSchema(IsolatedDatabase database) { ... }
+ * }
+ * </pre>
+ * The database is resolved for the class the test method belongs to, so {@code @Nested} classes get their own one
+ * and classes running in parallel never see each other's data.
+ * The server listens on a random free port unless the {@value #PORT_PARAMETER} configuration parameter is set
+ * (e.g. in {@code junit-platform.properties}), which is handy when you want to connect to it from your IDE.
+ */
+public class SharedEmbeddedPostgresExtension implements ParameterResolver {
+
+  public static final String PORT_PARAMETER = "codeus.embedded.postgres.port";
+
+  private static final ExtensionContext.Namespace NAMESPACE =
+    ExtensionContext.Namespace.create(SharedEmbeddedPostgresExtension.class);
+  private static final AtomicInteger DATABASE_SEQUENCE = new AtomicInteger();
+
+  @Override
+  public boolean supportsParameter(ParameterContext parameterContext, ExtensionContext extensionContext) {
+    return parameterContext.getParameter().getType() == IsolatedDatabase.class;
+  }
+
+  @Override
+  public Object resolveParameter(ParameterContext parameterContext, ExtensionContext extensionContext) {
+    ExtensionContext classContext = findClassContext(extensionContext);
+    return classContext.getStore(NAMESPACE)
+      .getOrComputeIfAbsent(ClassDatabaseResource.class,
+        key -> createClassDatabase(classContext), ClassDatabaseResource.class)
+      .database();
+  }
+
+  /**
+   * Returns the shared server, starting it on first use.
+   */
+  public static EmbeddedPostgres getServer(ExtensionContext context) {
+    return context.getRoot().getStore(NAMESPACE)
+      .getOrComputeIfAbsent(ServerResource.class, key -> startServer(context), ServerResource.class)
+      .server();
+  }
+
+  private static ClassDatabaseResource createClassDatabase(ExtensionContext classContext) {
+    EmbeddedPostgres server = getServer(classContext);
+    String name = "%s_%d".formatted(
+      classContext.getRequiredTestClass().getSimpleName().toLowerCase(Locale.ROOT), DATABASE_SEQUENCE.incrementAndGet());
+    try {
+      executeAdminStatement(server, "CREATE DATABASE " + name);
+    } catch (SQLException e) {
+      throw new ParameterResolutionException("Failed to create database " + name, e);
+    }
+    System.out.println("Created database " + name + " for " + classContext.getDisplayName());
+    return new ClassDatabaseResource(new IsolatedDatabase(server, name));
+  }
+
+  private static ServerResource startServer(ExtensionContext context) {
+    System.out.println("Starting shared embedded PostgreSQL...");
+    try {
+      EmbeddedPostgres.Builder builder = EmbeddedPostgres.builder();
+      context.getConfigurationParameter(PORT_PARAMETER, Integer::parseInt).ifPresent(builder::setPort);
+      EmbeddedPostgres server = builder.start();
+      System.out.println("PostgreSQL started successfully on port " + server.getPort());
+      return new ServerResource(server);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to start embedded PostgreSQL", e);
+    }
+  }
+
+  private static ExtensionContext findClassContext(ExtensionContext context) {
+    ExtensionContext current = context;
+    while (current.getTestMethod().isPresent() && current.getParent().isPresent()) {
+      current = current.getParent().get();
+    }
+    return current;
+  }
+
+  private static void executeAdminStatement(EmbeddedPostgres server, String sql) throws SQLException {
+    try (Connection connection = server.getPostgresDatabase().getConnection();
+         Statement statement = connection.createStatement()) {
+      statement.execute(sql);
+    }
+  }
+
+  private record ServerResource(EmbeddedPostgres server) implements ExtensionContext.Store.CloseableResource {
+
+    @Override
+    public void close() throws IOException {
+      System.out.println("Stopping shared embedded PostgreSQL...");
+      server.close();
+      System.out.println("PostgreSQL stopped successfully");
+    }
+  }
+
+  private record ClassDatabaseResource(IsolatedDatabase database) implements ExtensionContext.Store.CloseableResource {
+
+    @Override
+    public void close() throws SQLException {
+      database.closePool();
+      database.closeTemplate();
+      executeAdminStatement(database.getServer(), "DROP DATABASE IF EXISTS " + database.getName() + " WITH (FORCE)");
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package org.codeus.database.common;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Executes SQL scripts with as few round trips to the server as possible.
+ * <p>
+ * Consecutive {@code INSERT}/{@code UPDATE}/{@code DELETE} statements are sent as a JDBC batch.
+ * All other statements, DDL mostly, are joined into a single multi-statement string, which pgJDBC
+ * sends to the server in one go. Statement order is preserved: a pending batch is always flushed
+ * before a statement of the other kind is sent.
+ * <p>
+ * Callers print the returned {@link Stats} of every script, which is turned off with
+ * {@code mvn test -D}{@value #PRINT_STATS_PROPERTY}{@code =false}.
+ */
+public class SqlScriptExecutor {
+
+  public static final String PRINT_STATS_PROPERTY = "codeus.scripts.print";
+  public static final int DEFAULT_BATCH_SIZE = 500;
+
+  private static final Pattern BATCHABLE = Pattern.compile("^(insert|update|delete)\\b");
+  private static final Pattern RETURNING = Pattern.compile("\\breturning\\b");
+  // Statements that refuse to run inside the implicit transaction of a multi-statement string
+  private static final Pattern STANDALONE =
+    Pattern.compile("^(vacuum|create\\s+database|drop\\s+database|alter\\s+system|create\\s+(unique\\s+)?index\\s+concurrently)\\b");
+
+  private final int batchSize;
+
+  public SqlScriptExecutor() {
+    this(DEFAULT_BATCH_SIZE);
+  }
+
+  /**
+   * @param batchSize maximum number of statements sent to the server in one round trip
+   */
+  public SqlScriptExecutor(int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+    }
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * @return statement and round trip counts of the script, for callers that want to report them
+   */
+  public Stats execute(Connection connection, Path script) throws IOException, SQLException {
+    long start = System.nanoTime();
+    int statements = 0;
+    int roundTrips = 0;
+
+    try (SqlScriptTokenizer tokenizer = SqlScriptTokenizer.open(script);
+         Statement batch = connection.createStatement();
+         Statement statement = connection.createStatement()) {
+      StringBuilder pipeline = new StringBuilder();
+      int batched = 0;
+      int pipelined = 0;
+
+      String sql;
+      while ((sql = tokenizer.nextStatement()) != null) {
+        statements++;
+        String lowerCase = sql.toLowerCase(Locale.ROOT);
+
+        if (BATCHABLE.matcher(lowerCase).find() && !RETURNING.matcher(lowerCase).find()) {
+          if (pipelined > 0) {
+            roundTrips += flushPipeline(statement, pipeline);
+            pipelined = 0;
+          }
+          batch.addBatch(sql);
+          if (++batched == batchSize) {
+            roundTrips += flushBatch(batch);
+            batched = 0;
+          }
+          continue;
+        }
+
+        if (batched > 0) {
+          roundTrips += flushBatch(batch);
+          batched = 0;
+        }
+        if (STANDALONE.matcher(lowerCase).find()) {
+          roundTrips += flushPipeline(statement, pipeline);
+          pipelined = 0;
+          statement.execute(sql);
+          roundTrips++;
+          continue;
+        }
+
+        pipeline.append(sql).append(";\n");
+        if (++pipelined == batchSize) {
+          roundTrips += flushPipeline(statement, pipeline);
+          pipelined = 0;
+        }
+      }
+
+      if (batched > 0) {
+        roundTrips += flushBatch(batch);
+      }
+      roundTrips += flushPipeline(statement, pipeline);
+    }
+
+    return new Stats(script, statements, roundTrips, System.nanoTime() - start);
+  }
+
+  private static int flushBatch(Statement batch) throws SQLException {
+    batch.executeBatch();
+    batch.clearBatch();
+    return 1;
+  }
+
+  private static int flushPipeline(Statement statement, StringBuilder pipeline) throws SQLException {
+    if (pipeline.isEmpty()) {
+      return 0;
+    }
+    statement.execute(pipeline.toString());
+    pipeline.setLength(0);
+    return 1;
+  }
+
+  public record Stats(Path script, int statements, int roundTrips, long elapsedNanos) {
+
+    public double statementsPerSecond() {
+      return elapsedNanos == 0 ? 0 : statements * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    /**
+     * Prints the stats unless {@value #PRINT_STATS_PROPERTY} is set to {@code false}.
+     */
+    public void print() {
+      if (!"false".equalsIgnoreCase(System.getProperty(PRINT_STATS_PROPERTY))) {
+        System.out.println(this);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Executed %s: %d statements in %d round trips, %.1f ms (%.0f statements/sec)",
+        script.getFileName(), statements, roundTrips, elapsedNanos / 1_000_000.0, statementsPerSecond());
+    }
+  }
+}
@@ -0,0 +1,260 @@
+package org.codeus.database.common;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Splits a PostgreSQL script into separate statements in a single pass over a {@link Reader}.
+ * <p>
+ * A {@code ;} ends a statement only outside of string literals ({@code '...'}, {@code E'...'}),
+ * quoted identifiers ({@code "..."}), dollar-quoted bodies ({@code $$...$$}, {@code $fn$...$fn$})
+ * and comments. Line comments and (nested) block comments are dropped from the returned statements,
+ * while the line breaks around them are kept. Statements are returned lazily, one at a time,
+ * so the script is never loaded into memory as a whole.
+ * <pre>
+ * try (SqlScriptTokenizer statements = SqlScriptTokenizer.open(path)) {
+ *   String sql;
+ *   while ((sql = statements.nextStatement()) != null) {
+ *     statement.execute(sql);
+ *   }
+ * }
+ * </pre>
+ */
+public class SqlScriptTokenizer implements Iterator<String>, Closeable {
+
+  private static final int NONE = -2;
+
+  private final Reader reader;
+  private final StringBuilder statement = new StringBuilder();
+  private int pushedBack = NONE;
+  private String next;
+
+  public SqlScriptTokenizer(Reader reader) {
+    this.reader = reader instanceof BufferedReader ? reader : new BufferedReader(reader);
+  }
+
+  public static SqlScriptTokenizer open(Path path) throws IOException {
+    return new SqlScriptTokenizer(Files.newBufferedReader(path, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Returns the next statement without the trailing {@code ;}, or {@code null} when the script is over.
+   * Statements that consist of whitespace and comments only are skipped.
+   */
+  public String nextStatement() throws IOException {
+    if (next != null) {
+      String result = next;
+      next = null;
+      return result;
+    }
+
+    String result;
+    do {
+      result = readStatement();
+    } while (result != null && result.isEmpty());
+    return result;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (next == null) {
+      try {
+        next = nextStatement();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return next != null;
+  }
+
+  @Override
+  public String next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    String result = next;
+    next = null;
+    return result;
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  private String readStatement() throws IOException {
+    statement.setLength(0);
+    int c = read();
+    if (c < 0) {
+      return null;
+    }
+
+    while (c >= 0 && c != ';') {
+      switch (c) {
+        case '\'' -> readQuoted('\'', isEscapeStringPrefix());
+        case '"' -> readQuoted('"', false);
+        case '$' -> readDollar();
+        case '-' -> readAfterDash();
+        case '/' -> readAfterSlash();
+        default -> statement.append((char) c);
+      }
+      c = read();
+    }
+    return statement.toString().trim();
+  }
+
+  /**
+   * Reads a literal or a quoted identifier up to the closing quote. A doubled quote stands for the quote itself
+   * and does not end the literal, so an {@code E'...'} literal keeps its backslash escapes after it.
+   */
+  private void readQuoted(char quote, boolean backslashEscapes) throws IOException {
+    statement.append(quote);
+    int c;
+    while ((c = read()) >= 0) {
+      statement.append((char) c);
+      if (c == quote) {
+        int following = read();
+        if (following != quote) {
+          unread(following);
+          return;
+        }
+        statement.append(quote);
+      } else if (backslashEscapes && c == '\\') {
+        int escaped = read();
+        if (escaped >= 0) {
+          statement.append((char) escaped);
+        }
+      }
+    }
+  }
+
+  /**
+   * {@code E'...'} (or {@code e'...'}) literal, unless the {@code E} is the last letter of a longer word.
+   */
+  private boolean isEscapeStringPrefix() {
+    int length = statement.length();
+    if (length == 0 || Character.toUpperCase(statement.charAt(length - 1)) != 'E') {
+      return false;
+    }
+    return length == 1 || !isIdentifierPart(statement.charAt(length - 2));
+  }
+
+  /**
+   * Either the opening {@code $tag$} of a dollar-quoted body or just a {@code $}
+   * that is a part of something else, e.g. a {@code $1} parameter or an identifier.
+   */
+  private void readDollar() throws IOException {
+    int length = statement.length();
+    boolean canOpenQuote = length == 0 || !isIdentifierPart(statement.charAt(length - 1));
+
+    int tagStart = statement.length();
+    statement.append('$');
+    if (!canOpenQuote) {
+      return;
+    }
+
+    int c = read();
+    boolean first = true;
+    while (c >= 0 && c != '$' && (first ? isIdentifierStart((char) c) : isIdentifierPart((char) c))) {
+      statement.append((char) c);
+      first = false;
+      c = read();
+    }
+
+    if (c != '$') {
+      unread(c);
+      return;
+    }
+    statement.append('$');
+
+    String tag = statement.substring(tagStart);
+    int bodyStart = statement.length();
+    while ((c = read()) >= 0) {
+      statement.append((char) c);
+      if (c == '$' && endsWithClosingTag(tag, bodyStart)) {
+        return;
+      }
+    }
+  }
+
+  private boolean endsWithClosingTag(String tag, int bodyStart) {
+    int tagStart = statement.length() - tag.length();
+    if (tagStart < bodyStart) {
+      return false;
+    }
+    for (int i = 0; i < tag.length(); i++) {
+      if (statement.charAt(tagStart + i) != tag.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void readAfterDash() throws IOException {
+    int c = read();
+    if (c != '-') {
+      statement.append('-');
+      unread(c);
+      return;
+    }
+
+    while ((c = read()) >= 0 && c != '\n') {
+      // skip the line comment
+    }
+    if (c == '\n') {
+      statement.append('\n');
+    }
+  }
+
+  private void readAfterSlash() throws IOException {
+    int c = read();
+    if (c != '*') {
+      statement.append('/');
+      unread(c);
+      return;
+    }
+
+    int depth = 1;
+    int previous = NONE;
+    while (depth > 0 && (c = read()) >= 0) {
+      if (previous == '/' && c == '*') {
+        depth++;
+        c = NONE;
+      } else if (previous == '*' && c == '/') {
+        depth--;
+        c = NONE;
+      }
+      previous = c;
+    }
+    statement.append(' ');
+  }
+
+  private int read() throws IOException {
+    if (pushedBack != NONE) {
+      int c = pushedBack;
+      pushedBack = NONE;
+      return c;
+    }
+    return reader.read();
+  }
+
+  private void unread(int c) {
+    pushedBack = c;
+  }
+
+  private static boolean isIdentifierStart(char c) {
+    return Character.isLetter(c) || c == '_';
+  }
+
+  private static boolean isIdentifierPart(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+  }
+}
@@ -0,0 +1,73 @@
+package org.codeus.database.common;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SqlScriptTokenizerTest {
+
+  @Test
+  @DisplayName("should split statements on semicolons and skip empty ones")
+  void split_plainStatements() {
+    assertEquals(List.of("SELECT 1", "SELECT 2"), split("SELECT 1;\n;  ;\nSELECT 2"));
+  }
+
+  @Test
+  @DisplayName("should not split on a semicolon inside literals and quoted identifiers")
+  void split_semicolonInsideLiterals() {
+    assertEquals(List.of("INSERT INTO t VALUES ('a;b', 'it''s; fine')", "SELECT \"odd;name\" FROM t"),
+      split("INSERT INTO t VALUES ('a;b', 'it''s; fine');SELECT \"odd;name\" FROM t;"));
+  }
+
+  @Test
+  @DisplayName("should keep backslash escapes of an E-string after a doubled quote")
+  void split_escapeStringWithDoubledQuote() {
+    assertEquals(List.of("SELECT E'it''s \\' ; x'", "SELECT 2"), split("SELECT E'it''s \\' ; x';SELECT 2;"));
+    assertEquals(List.of("SELECT e'\\\\'", "SELECT 'a\\'", "SELECT 3"),
+      split("SELECT e'\\\\';SELECT 'a\\';SELECT 3"));
+  }
+
+  @Test
+  @DisplayName("should not treat a word ending with E as an escape string prefix")
+  void split_wordEndingWithE() {
+    assertEquals(List.of("SELECT * FROM t WHERE name='a\\'", "SELECT 2"),
+      split("SELECT * FROM t WHERE name='a\\';SELECT 2"));
+  }
+
+  @Test
+  @DisplayName("should not split inside dollar-quoted bodies with and without a tag")
+  void split_dollarQuotes() {
+    String function = """
+      CREATE FUNCTION f() RETURNS text AS $fn$
+      BEGIN
+        RETURN $$a;b$$ || $x$ $fn ; $x$;
+      END;
+      $fn$ LANGUAGE plpgsql""";
+
+    assertEquals(List.of(function, "SELECT $1, a$b FROM t"), split(function + ";\nSELECT $1, a$b FROM t;"));
+  }
+
+  @Test
+  @DisplayName("should drop line and nested block comments but keep the line breaks")
+  void split_comments() {
+    assertEquals(List.of("SELECT 1   \n- 2", "SELECT 3 / 4"),
+      split("SELECT 1 /* outer /* inner; */ still; */ -- trailing; comment\n- 2;\n-- only a comment;\nSELECT 3 / 4"));
+  }
+
+  @Test
+  @DisplayName("should return an unterminated last statement")
+  void split_unterminated() {
+    assertEquals(List.of("SELECT 1", "SELECT 'open;"), split("SELECT 1; SELECT 'open;"));
+  }
+
+  private static List<String> split(String script) {
+    List<String> statements = new ArrayList<>();
+    new SqlScriptTokenizer(new StringReader(script)).forEachRemaining(statements::add);
+    return statements;
+  }
+}
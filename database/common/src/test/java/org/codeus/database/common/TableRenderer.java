@@ -0,0 +1,153 @@
+package org.codeus.database.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renders query results as a text table:
+ * <pre>
+ * | id | name  |
+ * |----|-------|
+ * | 1  | Alice |
+ * </pre>
+ * Large results are cut down to the first {@code head} and the last {@code tail} rows, so only those rows
+ * are ever converted to strings, each cell exactly once. The whole table is written to {@code System.out}
+ * with a single call.
+ * <p>
+ * Configured with system properties, e.g. {@code mvn test -Dcodeus.results.print=false}:
+ * <ul>
+ *   <li>{@value #ENABLED_PROPERTY} - set to {@code false} to skip printing altogether;</li>
+ *   <li>{@value #HEAD_PROPERTY}, {@value #TAIL_PROPERTY} - number of leading and trailing rows to print,
+ *   {@value #DEFAULT_HEAD} and {@value #DEFAULT_TAIL} by default.</li>
+ * </ul>
+ */
+public class TableRenderer {
+
+  public static final String ENABLED_PROPERTY = "codeus.results.print";
+  public static final String HEAD_PROPERTY = "codeus.results.head";
+  public static final String TAIL_PROPERTY = "codeus.results.tail";
+  public static final int DEFAULT_HEAD = 50;
+  public static final int DEFAULT_TAIL = 10;
+
+  private static final String NULL = "NULL";
+
+  private final int head;
+  private final int tail;
+
+  public TableRenderer(int head, int tail) {
+    if (head < 0 || tail < 0) {
+      throw new IllegalArgumentException("Row limits must not be negative: head " + head + ", tail " + tail);
+    }
+    this.head = head;
+    this.tail = tail;
+  }
+
+  /**
+   * A renderer with the row limits from the system properties, read on every call so tests can change them.
+   */
+  public static TableRenderer fromSystemProperties() {
+    return new TableRenderer(Integer.getInteger(HEAD_PROPERTY, DEFAULT_HEAD),
+      Integer.getInteger(TAIL_PROPERTY, DEFAULT_TAIL));
+  }
+
+  public static boolean isEnabled() {
+    return !"false".equalsIgnoreCase(System.getProperty(ENABLED_PROPERTY));
+  }
+
+  public void print(List<Map<String, Object>> rows) {
+    if (isEnabled()) {
+      StringBuilder out = new StringBuilder();
+      appendTo(out, rows);
+      System.out.print(out);
+    }
+  }
+
+  public void print(QueryResult result) {
+    if (isEnabled()) {
+      StringBuilder out = new StringBuilder();
+      appendTo(out, result);
+      System.out.print(out);
+    }
+  }
+
+  /**
+   * Appends the table to {@code out}, column names are taken from the keys of the first row.
+   */
+  public void appendTo(StringBuilder out, List<Map<String, Object>> rows) {
+    if (rows.isEmpty()) {
+      out.append("No results found.").append(System.lineSeparator());
+      return;
+    }
+    List<String> columnNames = new ArrayList<>(rows.get(0).keySet());
+    appendTo(out, columnNames, rows.size(), (row, column) -> rows.get(row).get(columnNames.get(column)));
+  }
+
+  public void appendTo(StringBuilder out, QueryResult result) {
+    if (result.getRowCount() == 0) {
+      out.append("No results found.").append(System.lineSeparator());
+      return;
+    }
+    appendTo(out, result.getColumnNames(), result.getRowCount(), result::getObject);
+  }
+
+  private void appendTo(StringBuilder out, List<String> columnNames, int rowCount, Cells cells) {
+    int columnCount = columnNames.size();
+    boolean cut = rowCount > head + tail;
+    int shownRows = cut ? head + tail : rowCount;
+
+    String[][] text = new String[shownRows][columnCount];
+    int[] widths = new int[columnCount];
+    for (int column = 0; column < columnCount; column++) {
+      widths[column] = columnNames.get(column).length();
+    }
+    for (int i = 0; i < shownRows; i++) {
+      int row = cut && i >= head ? rowCount - tail + (i - head) : i;
+      for (int column = 0; column < columnCount; column++) {
+        Object value = cells.get(row, column);
+        String cell = value == null ? NULL : value.toString();
+        text[i][column] = cell;
+        widths[column] = Math.max(widths[column], cell.length());
+      }
+    }
+
+    appendRow(out, columnNames.toArray(new String[0]), widths);
+    out.append('|');
+    for (int width : widths) {
+      appendRepeated(out, '-', width + 2);
+      out.append('|');
+    }
+    out.append(System.lineSeparator());
+    for (int i = 0; i < shownRows; i++) {
+      if (cut && i == head) {
+        out.append("... ").append(rowCount - head - tail).append(" more rows ...").append(System.lineSeparator());
+      }
+      appendRow(out, text[i], widths);
+    }
+    if (cut) {
+      out.append("(").append(rowCount).append(" rows, ").append(shownRows).append(" shown)")
+        .append(System.lineSeparator());
+    }
+  }
+
+  private static void appendRow(StringBuilder out, String[] cells, int[] widths) {
+    out.append('|');
+    for (int i = 0; i < cells.length; i++) {
+      out.append(' ').append(cells[i]);
+      appendRepeated(out, ' ', widths[i] - cells[i].length() + 1);
+      out.append('|');
+    }
+    out.append(System.lineSeparator());
+  }
+
+  private static void appendRepeated(StringBuilder out, char c, int count) {
+    for (int i = 0; i < count; i++) {
+      out.append(c);
+    }
+  }
+
+  @FunctionalInterface
+  private interface Cells {
+    Object get(int row, int column);
+  }
+}
@@ -0,0 +1,148 @@
+package org.codeus.database.common;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A database that is populated once and then cloned with {@code CREATE DATABASE ... TEMPLATE}
+ * for every consumer, which is much cheaper than replaying schema and data scripts.
+ * <p>
+ * All {@code CREATE DATABASE} / {@code DROP DATABASE} statements run on a single background thread:
+ * PostgreSQL refuses to clone a template that is being accessed by another session, so cloning
+ * has to be serialized anyway. Up to {@code poolSize} clones are prepared ahead of time, so that
+ * a test usually gets a ready database without waiting.
+ */
+public class TemplateDatabase implements Closeable {
+
+  private static final String DEFAULT_USER = "postgres";
+  private static final AtomicInteger TEMPLATE_SEQUENCE = new AtomicInteger();
+
+  private final EmbeddedPostgres postgres;
+  private final String templateName;
+  private final int poolSize;
+  private final AtomicInteger cloneSequence = new AtomicInteger();
+  private final Deque<Future<String>> clones = new ArrayDeque<>();
+  private final ExecutorService cloner = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "template-db-cloner");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private TemplateDatabase(EmbeddedPostgres postgres, String templateName, int poolSize) {
+    this.postgres = postgres;
+    this.templateName = templateName;
+    this.poolSize = poolSize;
+  }
+
+  /**
+   * Creates an empty template database and lets {@code loader} populate it.
+   * The loader's connection is committed and closed before any clone is made.
+   *
+   * @param poolSize number of clones kept ready in the background, 0 means clone on demand
+   */
+  public static TemplateDatabase create(EmbeddedPostgres postgres, int poolSize, TemplateLoader loader)
+    throws SQLException, IOException {
+    String templateName = "template_" + TEMPLATE_SEQUENCE.incrementAndGet();
+    executeAdminStatement(postgres, "CREATE DATABASE " + templateName);
+
+    try (Connection connection = postgres.getDatabase(DEFAULT_USER, templateName).getConnection()) {
+      connection.setAutoCommit(false);
+      loader.load(connection);
+      connection.commit();
+    }
+
+    return new TemplateDatabase(postgres, templateName, Math.max(poolSize, 0));
+  }
+
+  /**
+   * Returns the name of a fresh clone of the template. The caller owns the clone
+   * and should give it back through {@link #release(String)}.
+   */
+  public synchronized String acquire() throws SQLException {
+    while (clones.size() < poolSize + 1) {
+      clones.add(cloner.submit(this::createClone));
+    }
+    try {
+      return clones.poll().get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted while waiting for a template clone", e);
+    } catch (ExecutionException e) {
+      throw new SQLException("Failed to clone template database " + templateName, e.getCause());
+    }
+  }
+
+  /**
+   * Drops the clone in the background. Any connection left open to it is terminated.
+   */
+  public void release(String databaseName) {
+    cloner.submit(() -> {
+      dropDatabase(databaseName);
+      return null;
+    });
+  }
+
+  public DataSource getDataSource(String databaseName) {
+    return postgres.getDatabase(DEFAULT_USER, databaseName);
+  }
+
+  @Override
+  public synchronized void close() {
+    for (Future<String> clone : clones) {
+      cloner.submit(() -> {
+        dropDatabase(clone.get());
+        return null;
+      });
+    }
+    clones.clear();
+    cloner.submit(() -> {
+      dropDatabase(templateName);
+      return null;
+    });
+    cloner.shutdown();
+    try {
+      if (!cloner.awaitTermination(30, TimeUnit.SECONDS)) {
+        cloner.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      cloner.shutdownNow();
+    }
+  }
+
+  private String createClone() throws SQLException {
+    String cloneName = templateName + "_clone_" + cloneSequence.incrementAndGet();
+    executeAdminStatement(postgres, "CREATE DATABASE " + cloneName + " TEMPLATE " + templateName);
+    return cloneName;
+  }
+
+  private void dropDatabase(String databaseName) throws SQLException {
+    executeAdminStatement(postgres, "DROP DATABASE IF EXISTS " + databaseName + " WITH (FORCE)");
+  }
+
+  private static void executeAdminStatement(EmbeddedPostgres postgres, String sql) throws SQLException {
+    try (Connection connection = postgres.getPostgresDatabase().getConnection();
+         Statement statement = connection.createStatement()) {
+      statement.execute(sql);
+    }
+  }
+
+  @FunctionalInterface
+  public interface TemplateLoader {
+    void load(Connection connection) throws SQLException, IOException;
+  }
+}
@@ -18,6 +18,16 @@ public class SqlQueriesTest extends EmbeddedPostgreSqlSetup {
   // File paths relative to src/test/resources
   private static final String QUERIES_DIR = "queries/";
 
+  @Override
+  protected boolean useTemplateDatabase() {
+    return true;
+  }
+
+  @Override
+  protected boolean loadTestDataWithCopy() {
+    return true;
+  }
+
   @Test
   void testProjectSummary() throws IOException, SQLException {
     // Execute the query